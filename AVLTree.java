@@ -1,5 +1,20 @@
 
+import java.util.AbstractMap;
 import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
 
 /**
  *
@@ -13,17 +28,23 @@ public class AVLTree {
 
 	private IAVLNode root = AVLNode.externalLeaf; 
 	//externalLeaf is a static final show of the class AVLNode, that will be defined as the default value of a root
+	private SearchCache cache = null; //optional cache of recently found nodes, see enableSearchCache
+	private NodePool pool = null; //optional pool of deleted nodes for reuse, see setNodePool
+	private Metrics metrics = null; //optional operation counters, see enableMetrics
+	private double maxTombFraction = -1; //lazy delete mode if > 0, see enableLazyDelete
+	private boolean duplicates = false; //true once insertMulti added a key that was already in the tree
+	private boolean intervals = false; //an interval tree, whose nodes are IntervalNodes, see intervalTree
 	
 		
 
 	/**
 	 * public boolean empty()
 	 *
-	 * Returns true if and only if the tree is empty.
+	 * Returns true if and only if the tree is empty (it may still hold tombstones, see enableLazyDelete).
 	 *O(1) complexity.
 	 */
 	public boolean empty() {
-		return (!root.isRealNode()); //the tree is empty if its root is not "real" (meaning its an external leaf/null)
+		return liveSize(root) == 0; //the tree is empty if its root is not "real" (meaning its an external leaf/null), or all its nodes are tombstones
 	}
 
 	/**
@@ -36,13 +57,81 @@ public class AVLTree {
 	public String search(int k) {
 		if (empty())
 			return null;
+		if (cache != null) {
+			IAVLNode cached = cache.get(k);
+			if (cached != null) { //a hit; no need to search the tree
+				if (metrics != null)
+					metrics.recordSearch(0);
+				return cached.getValue();
+			}
+		}
 		IAVLNode res = search_rec(k, this.root, this.root); //calling a recursive binary search function
-		if (res.getKey() == k) 
+		if (metrics != null) //the search path ends at res
+			metrics.recordSearch(depth(res) + 1);
+		if (res.getKey() == k && !isTomb(res)) {
+			if (cache != null)
+				cache.put(k, res);
 			return res.getValue();
+		}
 		else //no node with key k was found; another node was returned by search_rec
 			return null; 
 	}
 
+	/**
+	 * public void enableSearchCache(int capacity)
+	 *
+	 * Puts a cache of about capacity recently found nodes in front of search, for trees where a few
+	 * keys get most of the searches. The cache only holds nodes that are in the tree: delete removes
+	 * the key from the cache, and split clears it (as well as join for the joined tree t).
+	 * The cache is not thread safe, as the tree is not: even search changes it, so a tree with a
+	 * cache must not be searched by several threads at once.
+	 * Replaces the current cache, if there is one. runs in O(capacity) complexity.
+	 */
+	public void enableSearchCache(int capacity) {
+		cache = new SearchCache(capacity);
+	}
+
+	/**
+	 * public void disableSearchCache()
+	 *
+	 * Removes the search cache, if there is one. runs in O(1) complexity.
+	 */
+	public void disableSearchCache() {
+		cache = null;
+	}
+
+	/**
+	 * public long searchCacheHits()
+	 *
+	 * Returns the number of searches that were answered by the search cache, or 0 if it is disabled.
+	 * runs in O(1) complexity.
+	 */
+	public long searchCacheHits() {
+		return cache == null ? 0 : cache.hits;
+	}
+
+	/**
+	 * public long searchCacheMisses()
+	 *
+	 * Returns the number of searches that the search cache could not answer, or 0 if it is disabled.
+	 * runs in O(1) complexity.
+	 */
+	public long searchCacheMisses() {
+		return cache == null ? 0 : cache.misses;
+	}
+
+	/**
+	 * public double searchCacheHitRatio()
+	 *
+	 * Returns the fraction of searches that were answered by the search cache,
+	 * or 0 if it is disabled or was not used yet. runs in O(1) complexity.
+	 */
+	public double searchCacheHitRatio() {
+		if (cache == null || cache.hits + cache.misses == 0)
+			return 0;
+		return (double) cache.hits / (cache.hits + cache.misses);
+	}
+
 	/** private IAVLNode search_rec(int k, IAVLNode pointer, IAVLNode pointerForInsert)
 	 * @pre: AVLTree !empty()
 	 * a recursive function that performs binary search and returns the node of the tree with key k if exists.
@@ -71,8 +160,161 @@ public class AVLTree {
 	 * runs in O(logn) complexity.
 	 */
 	public int insert(int k, String i) {
-		IAVLNode leaf = new AVLNode(k, i); //builder
-		return insert_node(leaf); 
+		return insert_leaf(newNode(k, i)); //builder
+	}
+
+	/**
+	 * public static AVLTree intervalTree()
+	 *
+	 * Returns an empty interval tree: an AVL tree keyed by the starts of intervals, whose nodes are
+	 * IntervalNodes, that also hold the end of their interval and the largest end in their subtree.
+	 * Rotations, split and join maintain the largest ends as the other fields, for stab and overlapping.
+	 * An item inserted by insert is the interval [k, k]. Other trees don't pay for these fields.
+	 * The trees returned by split and extractRange are interval trees too; a node given to join must
+	 * come from an interval tree. Interval trees don't use a node pool.
+	 * runs in O(1) complexity.
+	 */
+	public static AVLTree intervalTree() {
+		AVLTree tree = new AVLTree();
+		tree.intervals = true;
+		return tree;
+	}
+
+	/**public int insertInterval(int start, int end, String i)
+	 *
+	 * Inserts an item for the interval [start, end] with info i to an interval tree. The tree is keyed by
+	 * the starts of the intervals, so as insert, returns -1 without changing the tree if an item with key
+	 * start already exists, even if its end is different (two intervals can't share a start; delete the old
+	 * one first to replace it), and otherwise the number of re-balancing operations. 0 <= start <= end:
+	 * keys are non-negative, as in every AVLTree (a negative key is never found by search), so
+	 * IllegalArgumentException is thrown for a negative start as for an empty interval.
+	 * Throws IllegalStateException if the tree is not an interval tree.
+	 * runs in O(logn) complexity.
+	 */
+	public int insertInterval(int start, int end, String i) {
+		requireIntervals();
+		if (start < 0)
+			throw new IllegalArgumentException("the start of [" + start + ", " + end + "] is negative");
+		if (end < start)
+			throw new IllegalArgumentException("the interval [" + start + ", " + end + "] is empty");
+		IntervalNode leaf = (IntervalNode) newNode(start, i); //builder
+		leaf.end = end;
+		leaf.maxEnd = end;
+		return insert_leaf(leaf);
+	}
+
+	/**private int insert_leaf(IAVLNode leaf)
+	 * inserts the new node leaf as insert does, returns it to the node pool if it was not used,
+	 * and records the update in the metrics. runs in O(logn) complexity.
+	 */
+	private int insert_leaf(IAVLNode leaf) {
+		int res = insert_node(leaf);
+		if (pool != null && leaf.getParent() == null && root != leaf) //the node was not used (a duplicate or a revived tombstone)
+			pool.release(leaf);
+		if (metrics != null)
+			metrics.recordUpdate("insert", res, root.getHeight());
+		return res; 
+	}
+
+	/**public int insertMulti(int k, String i)
+	 *
+	 * Inserts an item with key k and info i, even if items with key k already exist in the tree.
+	 * The new item goes after them in key order (ties go to the right), so the tree holds a multiset:
+	 * search and delete find one of the items of a key, and size, rank, select and keys count every item.
+	 * split, join and the range and batch operations assume distinct keys. Once a key was inserted twice,
+	 * the streams of keys() and entries() no longer report Spliterator.DISTINCT, so distinct() isn't skipped.
+	 * Returns the number of re-balancing operations, as insert.
+	 * runs in O(logn) complexity.
+	 */
+	public int insertMulti(int k, String i) {
+		IAVLNode leaf = newNode(k, i);
+		int res = 0;
+		if (!root.isRealNode())
+			this.root = leaf;
+		else {
+			IAVLNode pointer = this.root;
+			while (true) { //the leaf goes after every node with a key <= k
+				if (pointer.getKey() == k) //an existing node of k is on the search path of k
+					duplicates = true;
+				IAVLNode son = k < pointer.getKey() ? pointer.getLeft() : pointer.getRight();
+				if (!son.isRealNode())
+					break;
+				pointer = son;
+			}
+			leaf.setParent(pointer);
+			if (k < pointer.getKey())
+				pointer.setLeft(leaf);
+			else
+				pointer.setRight(leaf);
+			res = balance_rec(pointer);
+		}
+		if (metrics != null)
+			metrics.recordUpdate("insert", res, root.getHeight());
+		return res;
+	}
+
+	/**
+	 * public void enableMetrics()
+	 *
+	 * Starts counting rotations, promotions, search path lengths, split and join costs and the height of the
+	 * tree (see Metrics), and emitting JFR events for updates, splits and joins. When metrics are disabled,
+	 * the cost of every operation is a few null checks. runs in O(1) complexity.
+	 */
+	public void enableMetrics() {
+		metrics = new Metrics();
+	}
+
+	/**
+	 * public void disableMetrics()
+	 *
+	 * Stops counting, and drops the counters. runs in O(1) complexity.
+	 */
+	public void disableMetrics() {
+		metrics = null;
+	}
+
+	/**
+	 * public Metrics getMetrics()
+	 *
+	 * Returns a snapshot of the counters, that is not changed by later operations,
+	 * or null if metrics are disabled. runs in O(1) complexity.
+	 */
+	public Metrics getMetrics() {
+		return metrics == null ? null : metrics.snapshot();
+	}
+
+	/**private int depth(IAVLNode pointer)
+	 * returns the number of ancestors of pointer in the tree. runs in O(logn) complexity.
+	 */
+	private int depth(IAVLNode pointer) {
+		int d = 0;
+		for (IAVLNode p = pointer.getParent(); p != null; p = p.getParent())
+			d++;
+		return d;
+	}
+
+	/**private IAVLNode newNode(int k, String i)
+	 * returns a new leaf with key k and info i, reused from the node pool if there is one.
+	 * runs in O(1) complexity.
+	 */
+	private IAVLNode newNode(int k, String i) {
+		if (intervals)
+			return new IntervalNode(k, i);
+		if (pool == null)
+			return new AVLNode(k, i);
+		return pool.acquire(k, i);
+	}
+
+	/**
+	 * public void setNodePool(NodePool pool)
+	 *
+	 * Makes the tree reuse nodes through pool: nodes removed by delete are returned to the pool, and insert
+	 * takes its new nodes from it. A pool can be shared by several trees. null disables pooling.
+	 * Nodes of the tree (e.g. from getRoot()) must not be used after their item was deleted.
+	 * runs in O(1) complexity.
+	 */
+	public void setNodePool(NodePool pool) {
+		this.pool = pool;
 	}
 
 	/**private int insert_node(IAVLNode leaf)
@@ -86,13 +328,31 @@ public class AVLTree {
 	
 	private int insert_node(IAVLNode leaf) {
 		int k = leaf.getKey();
-		if (empty()) { //tree is currently empty and will now only contain the recieved node as a root
+		if (!root.isRealNode()) { //tree is currently empty and will now only contain the recieved node as a root
 			this.root = leaf;
 			return 0;
 		}
-		IAVLNode pointer = search_rec(k, this.root, this.root); //searching the required location
-		if (pointer.getKey() == k) //the node was already in the tree
-			return -1;
+		return insert_at(leaf, search_rec(k, this.root, this.root)); //searching the required location
+	}
+
+	/**private int insert_at(IAVLNode leaf, IAVLNode pointer)
+	 * @pre: pointer is the result of search_rec for the key of leaf
+	 * inserts leaf as a son of pointer if pointer doesn't already hold its key, and balances the tree.
+	 * if pointer holds the key as a tombstone, it is revived with the info of leaf instead, and leaf is not used.
+	 * returns the number of balancing operations, or -1 if the key was already in the tree.
+	 * runs in O(logn) complexity.
+	 */
+	private int insert_at(IAVLNode leaf, IAVLNode pointer) {
+		int k = leaf.getKey();
+		if (pointer.getKey() == k) { //the node was already in the tree
+			if (!isTomb(pointer))
+				return -1;
+			((AVLNode) pointer).info = leaf.getValue(); //the deleted item gets a new info; no structural change
+			if (pointer instanceof IntervalNode) //the revived interval gets the end of leaf
+				setEnd((IntervalNode) pointer, ((IntervalNode) leaf).end);
+			markTomb(pointer, false);
+			return 0;
+		}
 		
 		leaf.setParent(pointer); //the node was not found; its expected parent was returned by search_rec
 		if (pointer.getKey() < k) //the node belongs to the right subtree of its parent
@@ -118,8 +378,11 @@ public class AVLTree {
 		int k = pointer.getHeight();
 		if (pointer_bf == 0 || pointer_bf == 1 || pointer_bf == -1) { //no need of rotation around the current node
 			fixNode(pointer); 
-			if (pointer.getHeight() != k) //the height was changed; this operation should be in count
+			if (pointer.getHeight() != k) { //the height was changed; this operation should be in count
+				if (metrics != null)
+					metrics.promotions++;
 				return 1 + balance_rec(pointer.getParent()); //recursive call up the tree
+			}
 			else //no balancing operation was committed
 				return balance_rec(pointer.getParent()); //recursive call up the tree
 		}		
@@ -128,6 +391,8 @@ public class AVLTree {
 			if (leftSon_bf > -1) { //a case that requires one rotation to the left
 				LL_rotate(pointer);
 				fixNode(pointer); //updating fields of the node
+				if (metrics != null)
+					metrics.singleRotations++;
 				if (pointer.getHeight() != k) //the height was changed; height change and rotation should be in count
 					return 2 + balance_rec(pointer.getParent()); //recursive call up the tree
 				else //only rotation should be in count.
@@ -140,6 +405,8 @@ public class AVLTree {
 				pointer = pointer.getParent().getParent();
 				LL_rotate(pointer);             // counter = +3
 				fixNode(pointer);     // counter = +4
+				if (metrics != null)
+					metrics.doubleRotations++;
 				return 4 + balance_rec(pointer.getParent()); //recursive call
 			}
 		}
@@ -148,6 +415,8 @@ public class AVLTree {
 			if (rightSon_bf < 1) { //rotation to the right is required
 				RR_rotate(pointer);
 				fixNode(pointer); //node fields update
+				if (metrics != null)
+					metrics.singleRotations++;
 				if (pointer.getHeight() != k)
 					return 2 + balance_rec(pointer.getParent()); //height change and rotation should be in count
 				else //only rotation should be in count
@@ -160,6 +429,8 @@ public class AVLTree {
 				pointer = pointer.getParent().getParent();
 				RR_rotate(pointer);             // counter = +3
 				fixNode(pointer);     // counter = +4
+				if (metrics != null)
+					metrics.doubleRotations++;
 				return 4 + balance_rec(pointer.getParent()); //recursive call
 			}
 		}
@@ -187,7 +458,7 @@ public class AVLTree {
 			else // the pointer is a left son
 				pointer_parent.setLeft(pointer_son);
 		} 
-		else //the received node is the root
+		else if (this.root == pointer) //the received node is the root of the tree
 			this.root = pointer_son; 
 		pointer_son.setParent(pointer_parent); //rotation steps that are performed in any case
 		pointer.setLeft(pointer_son.getRight());
@@ -209,7 +480,7 @@ public class AVLTree {
 				pointer_parent.setRight(pointer_son);
 			else // the pointer is a left son
 				pointer_parent.setLeft(pointer_son);
-		} else //the received node is the root
+		} else if (this.root == pointer) //the received node is the root of the tree
 			this.root = pointer_son;
 		pointer_son.setParent(pointer_parent); //rotation steps that are performed in any case
 		pointer.setRight(pointer_son.getLeft());
@@ -220,8 +491,8 @@ public class AVLTree {
 	}
 
 	/**private void fixNode(IAVLNode pointer)
-	 * assumes that the fields height, size, min, and max of the children on the node pointer, are correct.
-	 *updates the height, size, min and max fields of a certain node, according to its children. 
+	 * assumes that the fields height, size, min, max, tombs (and maxEnd in an interval tree) of the children on the node pointer, are correct.
+	 *updates the height, size, min, max, tombs (and maxEnd) fields of a certain node, according to its children. 
 	 *runs in O(1) complexity
 	 */
 	private void fixNode(IAVLNode pointer) {
@@ -229,6 +500,42 @@ public class AVLTree {
 		pointer.setSize(1 + pointer.getRight().getSize() + pointer.getLeft().getSize());
 		pointer.setMin(pointer.getLeft().getMin());
 		pointer.setMax(pointer.getRight().getMax());
+		((AVLNode) pointer).tombs = tombsOf(pointer.getLeft()) + tombsOf(pointer.getRight()) + (isTomb(pointer) ? 1 : 0);
+		if (pointer instanceof IntervalNode)
+			fixEnd((IntervalNode) pointer);
+	}
+
+	/**private static void fixEnd(IntervalNode pointer)
+	 * updates the maxEnd field of the node, according to its end and its children. runs in O(1) complexity
+	 */
+	private static void fixEnd(IntervalNode pointer) {
+		pointer.maxEnd = Math.max(pointer.end, Math.max(maxEndOf(pointer.getLeft()), maxEndOf(pointer.getRight())));
+	}
+
+	/**private static int maxEndOf(IAVLNode pointer)
+	 * returns the largest end of an interval in the subtree of pointer, tombstones included
+	 * (-1 for an external leaf, or a node that is not an IntervalNode). runs in O(1) complexity
+	 */
+	private static int maxEndOf(IAVLNode pointer) {
+		return pointer instanceof IntervalNode ? ((IntervalNode) pointer).maxEnd : -1;
+	}
+
+	/**private static void setEnd(IntervalNode pointer, int end)
+	 * sets the end of the interval of the node pointer, and updates the maxEnd fields of the node and its ancestors.
+	 * runs in O(logn) complexity
+	 */
+	private static void setEnd(IntervalNode pointer, int end) {
+		pointer.end = end;
+		for (IAVLNode p = pointer; p != null; p = p.getParent())
+			fixEnd((IntervalNode) p);
+	}
+
+	/**private void requireIntervals()
+	 * throws IllegalStateException if the tree is not an interval tree.
+	 */
+	private void requireIntervals() {
+		if (!intervals)
+			throw new IllegalStateException("not an interval tree, see AVLTree.intervalTree()");
 	}
 
 	/**public int delete(int k)
@@ -239,14 +546,38 @@ public class AVLTree {
 	 * re-balancing operations, or 0 if no re-balancing operations were necessary. A
 	 * promotion/rotation counts as one re-balance operation, double-rotation is
 	 * counted as 2. Returns -1 if an item with key k was not found in the tree.
+	 * In lazy delete mode the node is only marked as a tombstone, and 0 is returned; the tombstones are
+	 * unlinked later, off the path of delete, by purge, compact or a Compactor.
 	 * runs in O(logn) time complexity.
 	 */
 	public int delete(int k) {
 		if (empty())
 			return -1;
 		IAVLNode pointer = search_rec(k, this.root, this.root); //finds the node to delete
-		if (pointer.getKey() != k) //the key wasn't found, no node to delete
+		if (pointer.getKey() != k || isTomb(pointer)) //the key wasn't found, no node to delete
 			return -1;
+		if (cache != null)
+			cache.invalidate(k);
+		if (maxTombFraction > 0) { //lazy delete mode
+			markTomb(pointer, true);
+			if (metrics != null)
+				metrics.recordUpdate("delete", 0, root.getHeight());
+			return 0;
+		}
+		int res = delete_node(pointer);
+		if (pool != null) //pointer is no longer in the tree
+			pool.release(pointer);
+		if (metrics != null)
+			metrics.recordUpdate("delete", res, root.getHeight());
+		return res;
+	}
+
+	/**private int delete_node(IAVLNode pointer)
+	 * unlinks the node pointer from the tree and balances the tree.
+	 * returns the number of re-balancing operations, as delete.
+	 * runs in O(logn) time complexity.
+	 */
+	private int delete_node(IAVLNode pointer) {
 		if (pointer.getLeft().isRealNode() && pointer.getRight().isRealNode()) {  //the node has two children
 			return balance_rec(switchAndDelete(pointer));  //delete the node and balance the tree from the node up 
 			
@@ -325,17 +656,185 @@ public class AVLTree {
 	
 	
 	
+	/**
+	 * public void enableLazyDelete(double maxTombFraction)
+	 *
+	 * Turns on lazy delete mode: delete only marks the node of the key as a tombstone, with no
+	 * unlinking or rebalancing, and search, size, min, max, rank, select, the streams and the array exports
+	 * skip tombstones. insert of a key that is a tombstone revives its node. delete never unlinks
+	 * tombstones itself: once more than maxTombFraction of the nodes are tombstones, needsCompaction
+	 * returns true, and a Compactor (or the owner of the tree, when it is idle) removes them with purge
+	 * or compact. Until then the tombstones only lengthen the search paths, by about log(1/(1-f)) levels
+	 * at a fraction f of tombstones. 0 < maxTombFraction < 1. runs in O(1) complexity.
+	 */
+	public void enableLazyDelete(double maxTombFraction) {
+		if (!(maxTombFraction > 0 && maxTombFraction < 1))
+			throw new IllegalArgumentException("maxTombFraction must be in (0, 1): " + maxTombFraction);
+		this.maxTombFraction = maxTombFraction;
+	}
+
+	/**
+	 * public void disableLazyDelete()
+	 *
+	 * Turns off lazy delete mode. The tombstones already in the tree are kept, and skipped as before,
+	 * until purge, compact or a Compactor removes them; needsCompaction returns true while there are any.
+	 * runs in O(1) complexity.
+	 */
+	public void disableLazyDelete() {
+		this.maxTombFraction = -1;
+	}
+
+	/**
+	 * public boolean needsCompaction()
+	 *
+	 * Returns true if the tombstones are more than maxTombFraction of the nodes, or if there are tombstones
+	 * and lazy delete mode is off. runs in O(1) complexity.
+	 */
+	public boolean needsCompaction() {
+		int tombs = tombsOf(root);
+		return tombs > 0 && (maxTombFraction <= 0 || tombs > maxTombFraction * root.getSize());
+	}
+
+	/**
+	 * public int tombstones()
+	 *
+	 * Returns the number of tombstones in the tree. runs in O(1) complexity.
+	 */
+	public int tombstones() {
+		return tombsOf(root);
+	}
+
+	/**
+	 * public int purge(int max)
+	 *
+	 * Unlinks up to max tombstones from the tree, one by one with rebalancing, as delete does in eager mode,
+	 * so the cost of removing them can be spread over many short calls. Returns the number of unlinked tombstones.
+	 * runs in O(max*logn) complexity.
+	 */
+	public int purge(int max) {
+		int res = 0;
+		while (res < max && tombsOf(root) > 0) {
+			IAVLNode pointer = root;
+			while (!isTomb(pointer)) //a subtree with a tombstone is chosen by the tombs fields
+				pointer = tombsOf(pointer.getLeft()) > 0 ? pointer.getLeft() : pointer.getRight();
+			delete_node(pointer);
+			if (pool != null)
+				pool.release(pointer);
+			res++;
+		}
+		return res;
+	}
+
+	/**
+	 * public void compact()
+	 *
+	 * Removes all the tombstones from the tree, by relinking its live nodes into a balanced tree, the same
+	 * shape as the one built by fromSorted. The live nodes are kept, so they don't need to be allocated again.
+	 * runs in O(n) complexity.
+	 */
+	public void compact() {
+		if (tombsOf(root) == 0)
+			return;
+		IAVLNode[] nodes = new IAVLNode[size()];
+		collect_rec(root, nodes, 0);
+		this.root = link_rec(nodes, 0, nodes.length - 1);
+		this.root.setParent(null);
+		if (metrics != null)
+			metrics.recordHeight(root.getHeight());
+	}
+
+	/**private int collect_rec(IAVLNode pointer, IAVLNode[] arr, int i)
+	 * adds to array arr with i nodes, the live nodes in the subtree of the node pointer, in key order,
+	 * and releases the tombstones to the node pool if there is one. returns the next location in arr.
+	 * runs in O(n) complexity
+	 */
+	private int collect_rec(IAVLNode pointer, IAVLNode[] arr, int i) {
+		if (!pointer.isRealNode())
+			return i;
+		IAVLNode right = pointer.getRight(); //saved before pointer may be released
+		int j = collect_rec(pointer.getLeft(), arr, i);
+		if (!isTomb(pointer))
+			arr[j++] = pointer;
+		else if (pool != null)
+			pool.release(pointer);
+		return collect_rec(right, arr, j);
+	}
+
+	/**private IAVLNode link_rec(IAVLNode[] nodes, int lo, int hi)
+	 * links nodes[lo..hi], sorted by their keys, into a balanced subtree with the middle node as its root,
+	 * as build does with new nodes, and returns its root.
+	 * runs in O(hi - lo) complexity
+	 */
+	private IAVLNode link_rec(IAVLNode[] nodes, int lo, int hi) {
+		if (lo > hi)
+			return AVLNode.externalLeaf;
+		int mid = (lo + hi) >>> 1;
+		IAVLNode node = nodes[mid];
+		IAVLNode l = link_rec(nodes, lo, mid - 1);
+		IAVLNode r = link_rec(nodes, mid + 1, hi);
+		node.setLeft(l);
+		node.setRight(r);
+		l.setParent(node);
+		r.setParent(node);
+		fixNode(node);
+		return node;
+	}
+
+	/**private void markTomb(IAVLNode pointer, boolean tomb)
+	 * marks the node as a tombstone or as live, and updates the tombs fields of the node and its ancestors.
+	 * runs in O(logn) complexity
+	 */
+	private void markTomb(IAVLNode pointer, boolean tomb) {
+		if (isTomb(pointer) == tomb)
+			return;
+		((AVLNode) pointer).tomb = tomb;
+		int delta = tomb ? 1 : -1;
+		for (; pointer != null; pointer = pointer.getParent())
+			((AVLNode) pointer).tombs += delta;
+	}
+
+	/**private static boolean isTomb(IAVLNode pointer)
+	 * returns true iff pointer is a tombstone. runs in O(1) complexity
+	 */
+	private static boolean isTomb(IAVLNode pointer) {
+		return ((AVLNode) pointer).tomb;
+	}
+
+	/**private static int tombsOf(IAVLNode pointer)
+	 * returns the number of tombstones in the subtree of pointer (0 for an external leaf). runs in O(1) complexity
+	 */
+	private static int tombsOf(IAVLNode pointer) {
+		return ((AVLNode) pointer).tombs;
+	}
+
+	/**private static int liveSize(IAVLNode pointer)
+	 * returns the number of nodes in the subtree of pointer that are not tombstones. runs in O(1) complexity
+	 */
+	private static int liveSize(IAVLNode pointer) {
+		return pointer.getSize() - tombsOf(pointer);
+	}
+
 	/**
 	 * public String min()
 	 *
 	 * Returns the info of the item with the smallest key in the tree, or null if
 	 * the tree is empty.
-	 * runs in O(1) complexity
+	 * runs in O(1) complexity, or in O(logn) complexity if the tree holds tombstones.
 	 */
 	public String min() {
 		if (empty())
 			return null;
-		return this.root.getMin().getValue();
+		if (tombsOf(root) == 0)
+			return this.root.getMin().getValue();
+		IAVLNode pointer = root;
+		while (true) { //the leftmost live node; a subtree with live nodes is chosen by the tombs fields
+			if (liveSize(pointer.getLeft()) > 0)
+				pointer = pointer.getLeft();
+			else if (!isTomb(pointer))
+				return pointer.getValue();
+			else
+				pointer = pointer.getRight();
+		}
 	}
 
 	/**
@@ -343,12 +842,22 @@ public class AVLTree {
 	 *
 	 * Returns the info of the item with the largest key in the tree, or null if the
 	 * tree is empty.
-	 * runs in O(1) complexity
+	 * runs in O(1) complexity, or in O(logn) complexity if the tree holds tombstones.
 	 */
 	public String max() {
 		if (empty())
 			return null;
-		return this.root.getMax().getValue();
+		if (tombsOf(root) == 0)
+			return this.root.getMax().getValue();
+		IAVLNode pointer = root;
+		while (true) { //the rightmost live node
+			if (liveSize(pointer.getRight()) > 0)
+				pointer = pointer.getRight();
+			else if (!isTomb(pointer))
+				return pointer.getValue();
+			else
+				pointer = pointer.getLeft();
+		}
 	}
 
 	/**
@@ -375,8 +884,10 @@ public class AVLTree {
 		if (!pointer.isRealNode()) //no more nodes to add
 			return i;
 		int j = keysToArray_rec(pointer.getLeft(), arr, i); //finds next node and location to insert to arr
-		arr[j] = pointer.getKey(); //adds the current minimal key 
-		j++; //increases next location to insert
+		if (!isTomb(pointer)) { //tombstones are skipped
+			arr[j] = pointer.getKey(); //adds the current minimal key 
+			j++; //increases next location to insert
+		}
 		return keysToArray_rec(pointer.getRight(), arr, j); //moves to the right subtree, left subtree is fully inserted
 
 	}
@@ -404,26 +915,238 @@ public class AVLTree {
 		if (!pointer.isRealNode()) //no more nodes to add
 			return i;
 		int j = infoToArray_rec(pointer.getLeft(), arr, i); //finds next node and location to insert to arr
-		arr[j] = pointer.getValue(); //adds the value String of the node with the current minimal key
-		j++; //increases next location to insert
+		if (!isTomb(pointer)) { //tombstones are skipped
+			arr[j] = pointer.getValue(); //adds the value String of the node with the current minimal key
+			j++; //increases next location to insert
+		}
 		return infoToArray_rec(pointer.getRight(), arr, j); //moves to the right subtree, left subtree is inserted
 
 	}
 
+	/**
+	 * public IntStream keys()
+	 *
+	 * Returns a sequential stream of all keys in the tree, in ascending order.
+	 * The stream can be made parallel: it splits at the median of the remaining keys,
+	 * found by the size fields, and knows the exact size of every part.
+	 * The tree must not be modified while the stream is used.
+	 * runs in O(n) complexity
+	 */
+	public IntStream keys() {
+		return StreamSupport.intStream(new KeySpliterator(0, size()), false);
+	}
+
+	/**
+	 * public Stream<Map.Entry<Integer, String>> entries()
+	 *
+	 * Returns a sequential stream of all items (key and info) in the tree, sorted by their keys.
+	 * Splits like keys(), and the tree must not be modified while the stream is used either.
+	 * runs in O(n) complexity
+	 */
+	public Stream<Map.Entry<Integer, String>> entries() {
+		return StreamSupport.stream(new EntrySpliterator(0, size()), false);
+	}
+
+	/**
+	 * public IntStream keys(int lo, int hi)
+	 *
+	 * Returns a sequential stream of the keys k in the tree with lo <= k <= hi, in ascending order.
+	 * The range is found by the ranks of lo and hi, and the stream splits like keys().
+	 * runs in O(logn + m) complexity for m keys in the range
+	 */
+	public IntStream keys(int lo, int hi) {
+		int from = rank(lo);
+		return StreamSupport.intStream(new KeySpliterator(from, Math.max(from, rankAbove(hi))), false);
+	}
+
+	/**
+	 * public Stream<Map.Entry<Integer, String>> entries(int lo, int hi)
+	 *
+	 * Returns a sequential stream of the items with keys k in the tree with lo <= k <= hi,
+	 * sorted by their keys, as keys(lo, hi) does.
+	 * runs in O(logn + m) complexity for m items in the range
+	 */
+	public Stream<Map.Entry<Integer, String>> entries(int lo, int hi) {
+		int from = rank(lo);
+		return StreamSupport.stream(new EntrySpliterator(from, Math.max(from, rankAbove(hi))), false);
+	}
+
+	/**
+	 * public int end(int k)
+	 *
+	 * Returns the end of the interval of the item with key k (k itself for an item inserted by insert),
+	 * or -1 if there is no such item.
+	 * runs in O(logn) complexity.
+	 */
+	public int end(int k) {
+		if (empty())
+			return -1;
+		IAVLNode pointer = search_rec(k, this.root, this.root);
+		if (pointer.getKey() != k || isTomb(pointer))
+			return -1;
+		return pointer instanceof IntervalNode ? ((IntervalNode) pointer).end : k;
+	}
+
+	/**
+	 * public int[] stab(int point)
+	 *
+	 * Returns a sorted array of the starts of the intervals in the tree that contain point,
+	 * i.e. the keys k with k <= point <= end(k). The same as overlapping(point, point).
+	 * Throws IllegalStateException if the tree is not an interval tree.
+	 * runs in O(min(n, (m+1)logn)) complexity for m such intervals, see overlapping.
+	 */
+	public int[] stab(int point) {
+		return overlapping(point, point);
+	}
+
+	/**
+	 * public int[] overlapping(int a, int b)
+	 *
+	 * Returns a sorted array of the starts of the intervals in the tree that overlap [a, b],
+	 * i.e. the keys k with k <= b and a <= end(k). Subtrees whose largest end is smaller than a,
+	 * and the subtrees right of a key bigger than b, are skipped whole, so only the paths to the
+	 * overlapping intervals are visited (tombstones are skipped, but still count for the largest ends).
+	 * Throws IllegalStateException if the tree is not an interval tree.
+	 * runs in O(min(n, (m+1)logn)) complexity for m overlapping intervals, tombstones included.
+	 * This is not O(logn + m): the largest ends only prune subtrees with no overlapping interval, and the
+	 * m intervals may be m leaves spread evenly over the tree, whose root paths hold m*log(n/m) nodes.
+	 * O(logn + m) needs intervals stored by their ends as well (a centered interval tree or a priority
+	 * search tree), which can't share the nodes that rank, select, split and join use.
+	 */
+	public int[] overlapping(int a, int b) {
+		requireIntervals();
+		IntStream.Builder res = IntStream.builder();
+		if (a <= b)
+			overlapping_rec(root, a, b, res);
+		return res.build().toArray();
+	}
+
+	/**private void overlapping_rec(IAVLNode pointer, int a, int b, IntStream.Builder res)
+	 * adds to res the keys of the live intervals in the subtree of pointer that overlap [a, b], in key order.
+	 * runs in O(min(n, (m+1)logn)) complexity for m such intervals
+	 */
+	private void overlapping_rec(IAVLNode pointer, int a, int b, IntStream.Builder res) {
+		while (pointer.isRealNode() && maxEndOf(pointer) >= a) { //no interval in the subtree reaches a otherwise
+			overlapping_rec(pointer.getLeft(), a, b, res);
+			if (pointer.getKey() > b) //this interval and the ones right of it start after b
+				return;
+			if (((IntervalNode) pointer).end >= a && !isTomb(pointer))
+				res.add(pointer.getKey());
+			pointer = pointer.getRight(); //the right subtree is handled by the loop, no recursion
+		}
+	}
+
+	/**
+	 * public int rank(int k)
+	 *
+	 * Returns the number of keys in the tree that are smaller than k, using the size and tombs fields.
+	 * runs in O(logn) complexity
+	 */
+	public int rank(int k) {
+		int res = 0;
+		IAVLNode pointer = root;
+		while (pointer.isRealNode()) {
+			if (pointer.getKey() < k) { //pointer and its left subtree are smaller than k
+				res += liveSize(pointer.getLeft()) + (isTomb(pointer) ? 0 : 1);
+				pointer = pointer.getRight();
+			} else
+				pointer = pointer.getLeft();
+		}
+		return res;
+	}
+
+	/**
+	 * public int select(int i)
+	 *
+	 * Returns the i-th smallest key in the tree (starting from 0), or -1 if i is not in [0, size()).
+	 * runs in O(logn) complexity
+	 */
+	public int select(int i) {
+		if (i < 0 || i >= size())
+			return -1;
+		return select_node(i).getKey();
+	}
+
+	/**private int rankAbove(int k)
+	 * returns the number of keys in the tree that are smaller than or equal to k.
+	 * runs in O(logn) complexity
+	 */
+	private int rankAbove(int k) {
+		return k == Integer.MAX_VALUE ? size() : rank(k + 1);
+	}
+
+	/**
+	 * public static AVLTree fromSorted(int[] sortedKeys, String[] values)
+	 *
+	 * Returns a new balanced tree of the keys, sorted in ascending order without duplicates,
+	 * and their respective info, built bottom-up with no searches or rotations.
+	 * runs in O(n) complexity
+	 */
+	public static AVLTree fromSorted(int[] sortedKeys, String[] values) {
+		AVLTree tree = new AVLTree();
+		tree.root = tree.build(sortedKeys, values, 0, sortedKeys.length - 1);
+		return tree;
+	}
+
+	/**
+	 * public FrozenAVLTree freeze()
+	 *
+	 * Returns an immutable copy of the tree for lookups only, with its keys laid out in
+	 * an array in Eytzinger order (see FrozenAVLTree). The tree itself is not changed.
+	 * runs in O(n) complexity
+	 */
+	public FrozenAVLTree freeze() {
+		return new FrozenAVLTree(keysToArray(), infoToArray());
+	}
+
+	/**private IAVLNode select_node(int i)
+	 * @pre: 0 <= i < size()
+	 * returns the live node with the i-th smallest key in the tree (starting from 0), using the size and tombs fields.
+	 * runs in O(logn) complexity
+	 */
+	private IAVLNode select_node(int i) {
+		IAVLNode pointer = root;
+		while (true) {
+			int leftSize = liveSize(pointer.getLeft());
+			int own = isTomb(pointer) ? 0 : 1;
+			if (i < leftSize) //the node is in the left subtree
+				pointer = pointer.getLeft();
+			else if (i < leftSize + own) //all smaller keys are in the left subtree
+				return pointer;
+			else { //the node is in the right subtree, after the left subtree and pointer
+				i -= leftSize + own;
+				pointer = pointer.getRight();
+			}
+		}
+	}
+
+	/**private IAVLNode successor(IAVLNode pointer)
+	 * returns the node with the next key after the key of pointer, or null if pointer holds the maximal key.
+	 * runs in O(logn) complexity, and in O(1) amortized complexity over an in-order walk.
+	 */
+	private IAVLNode successor(IAVLNode pointer) {
+		if (pointer.getRight().isRealNode()) //the successor is the minimum of the right subtree
+			return pointer.getRight().getMin();
+		while (pointer.getParent() != null && pointer.getParent().getRight() == pointer) //climbing while pointer is a right son
+			pointer = pointer.getParent();
+		return pointer.getParent();
+	}
+
 	/**
 	 * public int size()
 	 *
-	 * Returns the number of nodes in the tree.
+	 * Returns the number of nodes in the tree, not counting tombstones.
 	 * runs in O(1) complexity
 	 */
 	public int size() {
-		return root.getSize(); // to be replaced by student code
+		return liveSize(root); // to be replaced by student code
 	}
 
 	/**
 	 * public int getRoot()
 	 *
 	 * Returns the root AVL node, or null if the tree is empty
+	 * in lazy delete mode, the nodes under it may include tombstones.
 	 * runs in O(1) complexity
 	 */
 	public IAVLNode getRoot() {
@@ -435,44 +1158,76 @@ public class AVLTree {
 	 *
 	 * splits the tree into 2 trees according to the key x. Returns an array [t1,
 	 * t2] with two AVL trees. keys(t1) < x < keys(t2).
+	 * x does not have to be in the tree; if it is, its node belongs to neither of the trees.
+	 * the tree itself is left empty.
 	 * 
-	 * precondition: search(x) != null (i.e. you can also assume that the tree is
-	 * not empty) postcondition: none
-	 * runs in O(logn) complexity
+	 * precondition: none postcondition: none
+	 * runs in O(logn) complexity, and creates no objects other than the two returned trees and the
+	 * AVLTree[] array that holds them.
 	 */
 
 	public AVLTree[] split(int x) {
-		IAVLNode pointer = search_rec(x,root,root);	//the split will start from the node with key x
 		AVLTree left = new AVLTree(); 
 		AVLTree right = new AVLTree();
-		left.root = pointer.getLeft(); //left is a tree that all of its keys are smaller than x. no need to go down in it.
-		left.root.setParent(null);
-		right.root = pointer.getRight(); //right is a tree that all of its keys are bigger than x. no need to go down in it.
-		right.root.setParent(null);
-		return split_rec(x , pointer.getParent() , left , right); //start climbing and join the split trees to left, right.
-		
+		left.duplicates = right.duplicates = duplicates;
+		left.intervals = right.intervals = intervals;
+		split_roots(x, left, right);
+		return new AVLTree[]{left , right};
 	}
-	/**private AVLTree[] split_rec(int x , IAVLNode pointer , AVLTree left , AVLTree right)
-	 * splits the tree from pointer up, and joins the trees left and right to the trees it creates. 
-	 * than, moves up the tree.
+
+	/**private IAVLNode split_roots(int x, AVLTree left, AVLTree right)
+	 * splits the tree around x, and sets the roots of left and right to the parts that are smaller and bigger than x.
+	 * climbs iteratively from the node with key x (or from its expected parent if x is not in the tree) and joins
+	 * the subtrees it passes directly on root references, so no intermediate trees are created.
+	 * the tree itself is left empty; left or right may be the tree itself.
+	 * returns the node with key x, detached from both parts, or null if x is not in the tree.
 	 * runs in O(logn) complexity
 	 */
-	private AVLTree[] split_rec(int x , IAVLNode pointer , AVLTree left , AVLTree right) {
-		if (pointer == null) //reached the top of the tree; no nodes to add to any tree
-			return new AVLTree[]{left , right};
-		AVLTree treeForJoin = new AVLTree();
-		IAVLNode parent = pointer.getParent(); 
-		if (pointer.getKey() < x) { 
-			treeForJoin.root = pointer.getLeft(); //all left subtree keys are smaller than x; can be joined to left
-			treeForJoin.root.setParent(null); 
-			left.join(pointer , treeForJoin);
-		}
-		else{ //all right subtree keys are bigger than x; can be joined to right
-			treeForJoin.root = pointer.getRight();
-			treeForJoin.root.setParent(null);
-			right.join(pointer , treeForJoin);
+	private IAVLNode split_roots(int x, AVLTree left, AVLTree right) {
+		IAVLNode l = AVLNode.externalLeaf;
+		IAVLNode r = AVLNode.externalLeaf;
+		IAVLNode found = null;
+		if (cache != null) //the nodes of the tree move to left and right
+			cache.clear();
+		if (root.isRealNode()) {
+			IAVLNode pointer = search_rec(x, root, root); //the split will start from the node with key x
+			this.root = AVLNode.externalLeaf; //all nodes are moved to left and right
+			if (pointer.getKey() == x) { //left and right start as the subtrees of x. no need to go down in them.
+				found = pointer;
+				l = pointer.getLeft();
+				l.setParent(null);
+				r = pointer.getRight();
+				r.setParent(null);
+				pointer = pointer.getParent();
+			} //else x is not in the tree; pointer is its expected parent, split it like any other node
+			int joins = 0;
+			long cost = 0; //sum of the costs of the joins, as returned by join
+			while (pointer != null) { //climbing up and joining the subtrees that were passed to l, r
+				IAVLNode parent = pointer.getParent();
+				IAVLNode subtree;
+				if (pointer.getKey() < x) { //all left subtree keys are smaller than x; can be joined to l
+					subtree = pointer.getLeft();
+					subtree.setParent(null);
+					if (metrics != null)
+						cost += Math.abs(subtree.getHeight() - l.getHeight()) + 1;
+					l = join_roots(subtree, pointer, l);
+				}
+				else { //all right subtree keys are bigger than x; can be joined to r
+					subtree = pointer.getRight();
+					subtree.setParent(null);
+					if (metrics != null)
+						cost += Math.abs(subtree.getHeight() - r.getHeight()) + 1;
+					r = join_roots(r, pointer, subtree);
+				}
+				joins++;
+				pointer = parent; //climb to next level
+			}
+			if (metrics != null)
+				metrics.recordSplit(joins, cost);
 		}
-		return split_rec(x , parent , left , right); //climb to next level
+		left.root = l;
+		right.root = r;
+		return found;
 	}
 
 
@@ -489,82 +1244,305 @@ public class AVLTree {
 	 */
 
 	public int join(IAVLNode x, AVLTree t) {
-		x.setHeight(0); // define x as a leaf
-		x.setSize(1);
-		x.setParent(null);
-		x.setRight(AVLNode.externalLeaf);
-		x.setLeft(AVLNode.externalLeaf);
-		AVLTree big, small, left, right;
-		IAVLNode pointer;
-		if (t.root.getHeight() > this.root.getHeight()) { //t is bigger
-			big = t;
-			small = this;
-		} else { //t is smaller
-			big = this;
-			small = t;
-		}
-		if (t.root.getKey() > this.root.getKey()) { //t keys are bigger
-			left = this;
-			right = t;
-		} else { //t keys are smaller
-			left = t;
-			right = this;
-		}
-		int k = small.getRoot().getHeight();
-		int res = big.getRoot().getHeight() - k +1; //height differences
-		if (small.empty()) { // only need to add x to the bigger tree
-			big.insert_node(x);
-			this.root = big.root;
-			return res;
-		}
-		if (k == 0) { // the small tree is a leaf, only need to add it and the node x to the bigger tree
-			big.insert_node(x);
-			big.insert_node(small.root);
-			this.root = big.root;
-			return res;
-		}
-
-		if (res <= 2) { //small height differences, there will be no need to balance
-			x.setLeft(left.getRoot());
-			x.setRight(right.getRoot());
-			x.getRight().setParent(x);
-			x.getLeft().setParent(x);
-			fixNode(x); //update fields in node x
-			this.root = x;
-			return res;
-		}
-		if (right == small) {  //the small tree should be joined in the right side of the big tree
-			pointer = big.root; 
-			while (pointer.getHeight() > k) //we add the small tree in a certain level in the big tree
-				pointer = pointer.getRight();			
-			pointer.getParent().setRight(x); //update fields of certain nodes
-			x.setParent(pointer.getParent());
-			x.setLeft(pointer);
-			pointer.setParent(x);
-			x.setRight(small.getRoot()); 
-			small.getRoot().setParent(x);
-			x.setHeight(k + 1); 
-			balance_rec(x); //balancing from x and up
-			this.root = big.getRoot(); //update root
-		}
-		else { //the small tree should be joined in the left side of the big tree
-			pointer = big.root;
-			while (pointer.getHeight() > k) //we add the small tree in a certain level in the big tree
-				pointer = pointer.getLeft();
-			pointer.getParent().setLeft(x); //update fields of certain nodes
-			x.setParent(pointer.getParent());
-			x.setRight(pointer);
-			pointer.setParent(x);
-			x.setLeft(small.getRoot());
-			small.getRoot().setParent(x);
-			x.setHeight(k + 1);
-			balance_rec(x); //balancing from x and up
-			this.root = big.getRoot(); //update root
-		}
+		int res = Math.abs(this.root.getHeight() - t.root.getHeight()) + 1; //height differences
+		boolean thisIsLeft; //true iff the keys of the tree are smaller than x
+		if (this.root.isRealNode())
+			thisIsLeft = this.root.getKey() < x.getKey();
+		else //the tree is empty, its side is the opposite of t's side
+			thisIsLeft = t.root.getKey() > x.getKey();
+		if (t.cache != null) //the nodes of t move to the tree
+			t.cache.clear();
+		duplicates |= t.duplicates;
+		if (thisIsLeft)
+			this.root = join_roots(this.root, x, t.root);
+		else
+			this.root = join_roots(t.root, x, this.root);
+		if (metrics != null)
+			metrics.recordJoin(res, root.getHeight());
 		return res;
 	}
-	
-	
+
+	/**private IAVLNode join_roots(IAVLNode l, IAVLNode x, IAVLNode r)
+	 * @pre: keys(l) < x < keys(r), l and r are roots (or external leaves) with no parent
+	 * joins the subtrees l and r with the node x between them and returns the root of the joined tree.
+	 * x is attached on the spine of the higher subtree, at the first node that is not higher than the other subtree,
+	 * and the tree is balanced iteratively from there up.
+	 * runs in O(|l.rank - r.rank| + 1) complexity
+	 */
+	private IAVLNode join_roots(IAVLNode l, IAVLNode x, IAVLNode r) {
+		int hl = l.getHeight();
+		int hr = r.getHeight();
+		IAVLNode parent = null; //the node that x will be attached to, if any
+		boolean onRightSpine = hl > hr + 1;
+		if (onRightSpine) { //x is attached on the right spine of l
+			while (l.getHeight() > hr) {
+				parent = l;
+				l = l.getRight();
+			}
+		}
+		else if (hr > hl + 1) { //x is attached on the left spine of r
+			while (r.getHeight() > hl) {
+				parent = r;
+				r = r.getLeft();
+			}
+		}
+		x.setParent(parent);
+		x.setLeft(l);
+		x.setRight(r);
+		l.setParent(x);
+		r.setParent(x);
+		fixNode(x); //update fields in node x, x is now the parent of l and r
+		if (parent == null) //small height differences, x is the root and there is no need to balance
+			return x;
+		if (onRightSpine)
+			parent.setRight(x);
+		else
+			parent.setLeft(x);
+		return balance_up(parent);
+	}
+
+	/**private IAVLNode balance_up(IAVLNode pointer)
+	 * balances the tree from the node pointer up, iteratively, and returns the top node of the tree.
+	 * same as balance_rec, without counting the balancing operations.
+	 * runs in O(the depth of pointer) complexity
+	 */
+	private IAVLNode balance_up(IAVLNode pointer) {
+		IAVLNode top = pointer;
+		while (pointer != null) {
+			int pointer_bf = balanceFactor(pointer);
+			if (pointer_bf == 2) {
+				boolean twice = balanceFactor(pointer.getLeft()) == -1;
+				if (twice) { //double rotation from the left son
+					IAVLNode son = pointer.getLeft();
+					RR_rotate(son);
+					fixNode(son);
+				}
+				if (metrics != null)
+					metrics.countRotation(twice);
+				LL_rotate(pointer);
+				fixNode(pointer);
+				pointer = pointer.getParent(); //the new root of the subtree, fixed below
+			}
+			else if (pointer_bf == -2) {
+				boolean twice = balanceFactor(pointer.getRight()) == 1;
+				if (twice) { //double rotation from the right son
+					IAVLNode son = pointer.getRight();
+					LL_rotate(son);
+					fixNode(son);
+				}
+				if (metrics != null)
+					metrics.countRotation(twice);
+				RR_rotate(pointer);
+				fixNode(pointer);
+				pointer = pointer.getParent(); //the new root of the subtree, fixed below
+			}
+			fixNode(pointer);
+			top = pointer;
+			pointer = pointer.getParent(); //climb to next level
+		}
+		return top;
+	}
+
+	/**
+	 * public int deleteRange(int lo, int hi)
+	 *
+	 * Deletes all the items with keys in the range [lo, hi] from the tree.
+	 * Returns the number of deleted items.
+	 * runs in O(logn) complexity, regardless of the number of deleted items. With a node pool, the
+	 * deleted nodes are returned to the pool until it is full, in O(1) more per returned node.
+	 */
+	public int deleteRange(int lo, int hi) {
+		int before = this.size();
+		AVLTree middle = splitRange(lo, hi); //the middle part is dropped
+		if (pool != null && !intervals) //IntervalNodes are not pooled
+			release_rec(middle.root);
+		return before - this.size();
+	}
+
+	/**private boolean release_rec(IAVLNode pointer)
+	 * @pre: pointer is the root of a subtree that is no longer in any tree
+	 * returns the nodes of the subtree to the node pool, and stops once the pool of the current thread is full.
+	 * returns false if the pool is full. runs in O(the number of returned nodes) complexity.
+	 */
+	private boolean release_rec(IAVLNode pointer) {
+		if (!pointer.isRealNode())
+			return true;
+		if (pool.available() == pool.capacity) //the rest of the nodes are left to the garbage collector
+			return false;
+		IAVLNode left = pointer.getLeft(); //release resets the sons of the node
+		IAVLNode right = pointer.getRight();
+		pool.release(pointer);
+		return release_rec(left) && release_rec(right);
+	}
+
+	/**
+	 * public AVLTree extractRange(int lo, int hi)
+	 *
+	 * Removes all the items with keys in the range [lo, hi] from the tree, and
+	 * returns them as a new AVL tree (an empty tree if there are no such items).
+	 * runs in O(logn) complexity, regardless of the number of extracted items.
+	 */
+	public AVLTree extractRange(int lo, int hi) {
+		return splitRange(lo, hi);
+	}
+
+	/**private AVLTree splitRange(int lo, int hi)
+	 * cuts the keys in [lo, hi] out of the tree using split, and concatenates the
+	 * remaining parts back into this tree. returns the cut out part as a tree.
+	 * the nodes with keys lo and hi are removed by split, so they are joined back into the middle part.
+	 * runs in O(logn) complexity
+	 */
+	private AVLTree splitRange(int lo, int hi) {
+		AVLTree middle = new AVLTree();
+		middle.duplicates = duplicates;
+		middle.intervals = intervals;
+		if (!root.isRealNode() || lo > hi) //no keys in range
+			return middle;
+		AVLTree above = new AVLTree();
+		IAVLNode loNode = split_roots(lo, this, middle); //this keeps the keys < lo
+		IAVLNode hiNode = middle.split_roots(hi, middle, above); //middle keeps the keys in (lo, hi)
+		if (loNode != null) //lo is smaller than all keys of middle
+			middle.root = join_roots(AVLNode.externalLeaf, loNode, middle.root);
+		if (hiNode != null) //hi is bigger than all keys of middle
+			middle.root = join_roots(middle.root, hiNode, AVLNode.externalLeaf);
+		if (above.root.isRealNode()) { //concatenating the outer parts, using the minimal node of above as the joining node
+			IAVLNode x = above.root.getMin();
+			above.delete_node(x); //x is unlinked from above and can be used to join
+			this.root = join_roots(this.root, x, above.root);
+		}
+		return middle;
+	}
+
+	/**
+	 * public int insertAll(int[] sortedKeys, String[] values)
+	 *
+	 * Inserts the items with keys sortedKeys[j] and info values[j] to the tree, skipping keys that
+	 * are already in the tree. Returns the number of skipped keys.
+	 * The batch is merged with the tree in one walk down the tree, which enters only the subtrees that get
+	 * keys of the batch: the keys that fall in an empty subtree are built into a balanced subtree directly,
+	 * as fromSorted does, and the subtrees are joined back on the way up, in O(m*log(n/m + 1)) complexity.
+	 * The walk visits a node at most once, so even a batch of 10 uniform keys takes less time than
+	 * inserting them one by one (see Benchmarks batch).
+	 * precondition: sortedKeys is sorted in ascending order without duplicates.
+	 */
+	public int insertAll(int[] sortedKeys, String[] values) {
+		int m = sortedKeys.length;
+		int before = this.size();
+		long rotations = (metrics == null) ? 0 : metrics.rotations();
+		IAVLNode t = this.root;
+		this.root = AVLNode.externalLeaf;
+		this.root = union(t, sortedKeys, values, 0, m - 1);
+		if (metrics != null) //the batch is one update, with the rotations of its joins
+			metrics.recordUpdate("insertAll", (int) (metrics.rotations() - rotations), root.getHeight());
+		return m - (this.size() - before);
+	}
+
+	/**
+	 * public int deleteAll(int[] sortedKeys)
+	 *
+	 * Deletes the items with keys sortedKeys[j] from the tree, skipping keys that are not in the tree.
+	 * Returns the number of skipped keys.
+	 * Like insertAll, the batch is removed in one walk down the tree, and the remaining subtrees are
+	 * joined back on the way up, in O(m*log(n/m + 1)) complexity.
+	 * precondition: sortedKeys is sorted in ascending order without duplicates.
+	 */
+	public int deleteAll(int[] sortedKeys) {
+		int m = sortedKeys.length;
+		int before = this.size();
+		long rotations = (metrics == null) ? 0 : metrics.rotations();
+		IAVLNode t = this.root;
+		this.root = AVLNode.externalLeaf;
+		this.root = difference(t, sortedKeys, 0, m - 1);
+		if (metrics != null) //the batch is one update, with the rotations of its joins
+			metrics.recordUpdate("deleteAll", (int) (metrics.rotations() - rotations), root.getHeight());
+		return m - (before - this.size());
+	}
+
+	/**private IAVLNode union(IAVLNode t, int[] keys, String[] values, int lo, int hi)
+	 * @pre: t is a root with no parent, keys[lo..hi] are sorted without duplicates
+	 * merges the items keys[lo..hi] into the subtree t, and returns the root of the merged tree.
+	 * the keys are divided around the key of t by a binary search in the array, each part is merged into a
+	 * subtree of t, and the merged subtrees are joined back by t. a part that reaches an empty subtree is built
+	 * into a balanced subtree directly, as fromSorted does, and subtrees with no keys to merge are not entered,
+	 * so every node is visited at most once and none is searched for from above.
+	 * runs in O(m*log(n/m + 1)) complexity, where m = hi - lo + 1 and n is the size of t.
+	 */
+	private IAVLNode union(IAVLNode t, int[] keys, String[] values, int lo, int hi) {
+		if (lo > hi)
+			return t;
+		if (!t.isRealNode())
+			return build(keys, values, lo, hi);
+		int p = Arrays.binarySearch(keys, lo, hi + 1, t.getKey());
+		int below = p >= 0 ? p - 1 : -p - 2; //the last of the keys that are smaller than the key of t
+		if (p >= 0 && isTomb(t)) { //the key was deleted lazily, its node is revived; join_roots fixes its fields
+			((AVLNode) t).info = values[p];
+			((AVLNode) t).tomb = false;
+			if (t instanceof IntervalNode) //a point interval, as insert makes
+				setEnd((IntervalNode) t, keys[p]);
+		}
+		IAVLNode left = t.getLeft();
+		IAVLNode right = t.getRight();
+		left.setParent(null); //join_roots takes roots with no parent
+		right.setParent(null);
+		IAVLNode l = union(left, keys, values, lo, below);
+		IAVLNode r = union(right, keys, values, p >= 0 ? p + 1 : below + 1, hi);
+		return join_roots(l, t, r);
+	}
+
+	/**private IAVLNode difference(IAVLNode t, int[] keys, int lo, int hi)
+	 * @pre: t is a root with no parent, keys[lo..hi] are sorted without duplicates
+	 * removes the keys[lo..hi] from the subtree t, and returns the root of the remaining tree.
+	 * the keys are divided around the key of t as in union, each part is removed from a subtree of t, and the
+	 * remaining subtrees are joined back by t, or concatenated if the key of t is removed.
+	 * runs in O(m*log(n/m + 1)) complexity, where m = hi - lo + 1 and n is the size of t.
+	 */
+	private IAVLNode difference(IAVLNode t, int[] keys, int lo, int hi) {
+		if (lo > hi || !t.isRealNode())
+			return t;
+		int p = Arrays.binarySearch(keys, lo, hi + 1, t.getKey());
+		int below = p >= 0 ? p - 1 : -p - 2; //the last of the keys that are smaller than the key of t
+		IAVLNode left = t.getLeft();
+		IAVLNode right = t.getRight();
+		left.setParent(null); //join_roots takes roots with no parent
+		right.setParent(null);
+		IAVLNode l = difference(left, keys, lo, below);
+		IAVLNode r = difference(right, keys, p >= 0 ? p + 1 : below + 1, hi);
+		if (p < 0) //t stays
+			return join_roots(l, t, r);
+		if (cache != null) //the node t is dropped
+			cache.invalidate(keys[p]);
+		if (pool != null)
+			pool.release(t);
+		if (!r.isRealNode())
+			return l;
+		AVLTree rest = new AVLTree(); //concatenating the subtrees, using the minimal node of r as the joining node
+		rest.root = r;
+		IAVLNode x = r.getMin();
+		rest.delete_node(x); //x is unlinked from r and can be used to join
+		return join_roots(l, x, rest.root);
+	}
+
+	/**private IAVLNode build(int[] keys, String[] values, int lo, int hi)
+	 * @pre: keys[lo..hi] are sorted without duplicates
+	 * builds a balanced subtree of the items keys[lo..hi], with the middle key as its root, and returns its root.
+	 * the sizes of the two halves differ by at most 1, so do the heights of the subtrees.
+	 * runs in O(hi - lo) complexity.
+	 */
+	private IAVLNode build(int[] keys, String[] values, int lo, int hi) {
+		if (lo > hi)
+			return AVLNode.externalLeaf;
+		int mid = (lo + hi) >>> 1;
+		IAVLNode node = newNode(keys[mid], values[mid]);
+		IAVLNode l = build(keys, values, lo, mid - 1);
+		IAVLNode r = build(keys, values, mid + 1, hi);
+		node.setLeft(l);
+		node.setRight(r);
+		l.setParent(node);
+		r.setParent(node);
+		fixNode(node);
+		return node;
+	}
+
 	// this code is for part 2
 
 	
@@ -634,6 +1612,584 @@ public class AVLTree {
 		}
 
 
+	/**
+	 * private abstract class TreeSpliterator
+	 *
+	 * The common part of the spliterators of keys() and entries(). Covers the nodes
+	 * with ranks [index, fence) of the tree; the node of rank index is found with select
+	 * when it is first needed, and the following nodes with successor.
+	 */
+	private abstract class TreeSpliterator {
+		int index; //rank of the next node
+		final int fence; //rank after the last node
+		IAVLNode next; //node of rank index, null until it is needed
+
+		TreeSpliterator(int index, int fence) {
+			this.index = index;
+			this.fence = fence;
+		}
+
+		/**IAVLNode advance()
+		 * @pre: index < fence
+		 * returns the next node and moves to the one after it.
+		 */
+		IAVLNode advance() {
+			if (next == null)
+				next = select_node(index);
+			IAVLNode node = next;
+			next = successor(node);
+			while (next != null && isTomb(next)) //tombstones are skipped
+				next = successor(next);
+			index++;
+			return node;
+		}
+
+		/**int splitPoint()
+		 * returns the rank that the remaining nodes are split at, or -1 if they are too few to split.
+		 * the caller covers [index, mid) with the new spliterator and this one moves to mid.
+		 */
+		int splitPoint() {
+			int mid = (index + fence) >>> 1;
+			return mid <= index ? -1 : mid;
+		}
+
+		public long estimateSize() {
+			return fence - index;
+		}
+
+		public int characteristics() { //a multiset made by insertMulti is not DISTINCT
+			return Spliterator.ORDERED | Spliterator.SORTED | (duplicates ? 0 : Spliterator.DISTINCT) | Spliterator.SIZED
+					| Spliterator.SUBSIZED | Spliterator.NONNULL;
+		}
+	}
+
+	/**
+	 * private class KeySpliterator
+	 *
+	 * Spliterator over the keys of the tree, in ascending order.
+	 */
+	private class KeySpliterator extends TreeSpliterator implements Spliterator.OfInt {
+
+		KeySpliterator(int index, int fence) {
+			super(index, fence);
+		}
+
+		public boolean tryAdvance(IntConsumer action) {
+			if (index >= fence)
+				return false;
+			action.accept(advance().getKey());
+			return true;
+		}
+
+		public void forEachRemaining(IntConsumer action) {
+			while (index < fence)
+				action.accept(advance().getKey());
+		}
+
+		public KeySpliterator trySplit() {
+			int mid = splitPoint();
+			if (mid < 0)
+				return null;
+			KeySpliterator prefix = new KeySpliterator(index, mid);
+			prefix.next = next;
+			index = mid;
+			next = null;
+			return prefix;
+		}
+
+		public Comparator<? super Integer> getComparator() {
+			return null; //keys are in their natural order
+		}
+	}
+
+	/**
+	 * private class EntrySpliterator
+	 *
+	 * Spliterator over the items of the tree as (key, info) entries, sorted by their keys.
+	 */
+	private class EntrySpliterator extends TreeSpliterator implements Spliterator<Map.Entry<Integer, String>> {
+
+		EntrySpliterator(int index, int fence) {
+			super(index, fence);
+		}
+
+		public boolean tryAdvance(Consumer<? super Map.Entry<Integer, String>> action) {
+			if (index >= fence)
+				return false;
+			IAVLNode node = advance();
+			action.accept(new AbstractMap.SimpleImmutableEntry<>(node.getKey(), node.getValue()));
+			return true;
+		}
+
+		public void forEachRemaining(Consumer<? super Map.Entry<Integer, String>> action) {
+			while (index < fence) {
+				IAVLNode node = advance();
+				action.accept(new AbstractMap.SimpleImmutableEntry<>(node.getKey(), node.getValue()));
+			}
+		}
+
+		public EntrySpliterator trySplit() {
+			int mid = splitPoint();
+			if (mid < 0)
+				return null;
+			EntrySpliterator prefix = new EntrySpliterator(index, mid);
+			prefix.next = next;
+			index = mid;
+			next = null;
+			return prefix;
+		}
+
+		public Comparator<? super Map.Entry<Integer, String>> getComparator() {
+			return Map.Entry.comparingByKey();
+		}
+	}
+
+	/**
+	 * private static class SearchCache
+	 *
+	 * A small open-addressed table from keys to the nodes that hold them, in front of search.
+	 * A key is looked up in a window of PROBES slots from its hash slot. When a key is added to a full
+	 * window, a slot is replaced by the CLOCK policy over the window: slots that were hit since they were
+	 * last passed get a second chance. Empty slots hold the key -1, since keys are non-negative, so
+	 * a search of a negative key is a miss without probing.
+	 * The cache is single threaded, as the tree is: it has no locks or atomic fields, and a concurrent
+	 * table is out of the scope of this cache.
+	 */
+	private static class SearchCache {
+		private static final int PROBES = 8;
+
+		private final int shift; //the hash of a key is the top bits of key * golden ratio
+		private final int mask;
+		private final int[] keys;
+		private final IAVLNode[] nodes;
+		private final boolean[] referenced; //CLOCK bits, set on every hit
+		long hits = 0;
+		long misses = 0;
+
+		SearchCache(int capacity) {
+			int bits = Math.max(3, 32 - Integer.numberOfLeadingZeros(Math.max(capacity, PROBES) - 1)); //capacity rounded up to a power of 2
+			this.shift = 32 - bits;
+			this.mask = (1 << bits) - 1;
+			this.keys = new int[1 << bits];
+			this.nodes = new IAVLNode[1 << bits];
+			this.referenced = new boolean[1 << bits];
+			Arrays.fill(keys, -1);
+		}
+
+		/**IAVLNode get(int k)
+		 * returns the node with key k if it is in the cache, otherwise null. runs in O(PROBES) complexity.
+		 */
+		IAVLNode get(int k) {
+			if (k < 0) { //not in the tree, and an empty slot would match
+				misses++;
+				return null;
+			}
+			int slot = slotOf(k);
+			for (int p = 0; p < PROBES; p++, slot = (slot + 1) & mask) {
+				if (keys[slot] == k) {
+					referenced[slot] = true;
+					hits++;
+					return nodes[slot];
+				}
+			}
+			misses++;
+			return null;
+		}
+
+		/**void put(int k, IAVLNode node)
+		 * @pre: k is not in the cache
+		 * adds node to the cache, in an empty slot of its window or in the slot chosen by CLOCK.
+		 * runs in O(PROBES) complexity.
+		 */
+		void put(int k, IAVLNode node) {
+			int start = slotOf(k);
+			for (int p = 0; ; p++) { //after one round all bits are cleared, so the second round must stop
+				int slot = (start + p % PROBES) & mask;
+				if (keys[slot] < 0 || !referenced[slot]) {
+					keys[slot] = k;
+					nodes[slot] = node;
+					referenced[slot] = false;
+					return;
+				}
+				referenced[slot] = false; //second chance
+			}
+		}
+
+		/**void invalidate(int k)
+		 * removes k from the cache, if it is there. runs in O(PROBES) complexity.
+		 */
+		void invalidate(int k) {
+			int slot = slotOf(k);
+			for (int p = 0; p < PROBES; p++, slot = (slot + 1) & mask) {
+				if (keys[slot] == k) {
+					keys[slot] = -1;
+					nodes[slot] = null;
+					return;
+				}
+			}
+		}
+
+		/**void clear()
+		 * removes all keys from the cache. runs in O(capacity) complexity.
+		 */
+		void clear() {
+			Arrays.fill(keys, -1);
+			Arrays.fill(nodes, null);
+		}
+
+		private int slotOf(int k) {
+			return (k * 0x9E3779B9) >>> shift;
+		}
+	}
+
+	/**
+	 * public static class NodePool
+	 *
+	 * A pool of deleted nodes for reuse by later insertions, to save allocations (and garbage) in trees with
+	 * many insertions and deletions. Every thread has its own list of free nodes, of at most capacity nodes,
+	 * so a pool can be shared by trees that are used by different threads without locking.
+	 */
+	public static class NodePool {
+		private final int capacity;
+		private final ThreadLocal<FreeList> free;
+
+		/**
+		 * public NodePool(int capacity)
+		 *
+		 * Creates an empty pool that keeps at most capacity free nodes per thread.
+		 */
+		public NodePool(int capacity) {
+			this.capacity = capacity;
+			this.free = ThreadLocal.withInitial(FreeList::new);
+		}
+
+		/**
+		 * public int available()
+		 *
+		 * Returns the number of free nodes of the current thread. runs in O(1) complexity.
+		 */
+		public int available() {
+			return free.get().count;
+		}
+
+		/**IAVLNode acquire(int k, String i)
+		 * returns a free node of the current thread, reset to a leaf with key k and info i,
+		 * or a new node if there are no free nodes. runs in O(1) complexity.
+		 */
+		IAVLNode acquire(int k, String i) {
+			FreeList list = free.get();
+			if (list.count == 0)
+				return new AVLNode(k, i);
+			AVLNode node = list.nodes[--list.count];
+			list.nodes[list.count] = null;
+			node.reset(k, i);
+			return node;
+		}
+
+		/**void release(IAVLNode node)
+		 * @pre: node is not in any tree
+		 * adds node to the free nodes of the current thread, unless there are already capacity free nodes.
+		 * runs in O(1) amortized complexity.
+		 */
+		void release(IAVLNode node) {
+			FreeList list = free.get();
+			if (list.count == capacity || node.getClass() != AVLNode.class) //IntervalNodes are not pooled
+				return; //the node is left to the garbage collector
+			AVLNode n = (AVLNode) node;
+			n.reset(-1, null); //dropping the references of the node
+			if (list.count == list.nodes.length) //the list grows up to capacity
+				list.nodes = Arrays.copyOf(list.nodes, Math.min(capacity, 2 * list.nodes.length + 1));
+			list.nodes[list.count++] = n;
+		}
+
+		/**
+		 * private static class FreeList
+		 *
+		 * The free nodes of one thread, as a stack.
+		 */
+		private static class FreeList {
+			AVLNode[] nodes = new AVLNode[16];
+			int count = 0;
+		}
+	}
+
+	/**
+	 * public static class Compactor
+	 *
+	 * Removes the tombstones of a tree off the paths of its callers, as a Runnable for a
+	 * ScheduledExecutorService (e.g. with scheduleWithFixedDelay) or for the idle time of the owner of the tree.
+	 * An AVLTree is not thread safe, so the concurrency contract is a lock: the compactor and every other
+	 * user of the tree must hold the same lock around each call to the tree. A run takes the lock for one
+	 * purge of at most step tombstones at a time, O(step*logn), and releases it between the steps, so other
+	 * users wait for at most one step. A run does nothing unless the tree needsCompaction, and then unlinks
+	 * at most the number of tombstones the tree had when the run started, so it ends even while other
+	 * threads keep deleting. With a NodePool, the unlinked nodes go to the free nodes of the thread of the run.
+	 */
+	public static class Compactor implements Runnable {
+		private final AVLTree tree;
+		private final Lock lock;
+		private final int step;
+
+		/**
+		 * public Compactor(AVLTree tree, Lock lock, int step)
+		 *
+		 * Creates a compactor of tree, whose users hold lock, that unlinks up to step tombstones per step.
+		 */
+		public Compactor(AVLTree tree, Lock lock, int step) {
+			if (step <= 0)
+				throw new IllegalArgumentException("step must be positive: " + step);
+			this.tree = tree;
+			this.lock = lock;
+			this.step = step;
+		}
+
+		/**
+		 * public void run()
+		 *
+		 * Unlinks the tombstones of the tree in steps, if it needsCompaction, as described above.
+		 * runs in O(t*logn) complexity for t tombstones, in t/step steps.
+		 */
+		@Override
+		public void run() {
+			int left;
+			lock.lock();
+			try {
+				left = tree.needsCompaction() ? tree.tombstones() : 0;
+			} finally {
+				lock.unlock();
+			}
+			while (left > 0) {
+				lock.lock();
+				try {
+					int purged = tree.purge(Math.min(step, left));
+					if (purged == 0) //the other users revived or unlinked the rest
+						return;
+					left -= purged;
+				} finally {
+					lock.unlock();
+				}
+			}
+		}
+	}
+
+	/**
+	 * public static class Metrics
+	 *
+	 * Counters of the operations of a tree, collected once enableMetrics() was called.
+	 * Rotations are counted by kind; a promotion is a height change without a rotation.
+	 * A search path is the number of nodes that a search passes, 0 for a hit in the search cache.
+	 * The cost of a join is the value join returns, and the cost of a split is the sum of the costs of its joins.
+	 * The height is sampled after every update, split and join.
+	 */
+	public static class Metrics {
+		private static final int PATH_BUCKETS = 64; //an AVL tree of int keys is less than 64 levels high
+
+		long singleRotations;
+		long doubleRotations;
+		long promotions;
+		long searches;
+		long searchPathTotal;
+		long[] searchPaths = new long[PATH_BUCKETS]; //searchPaths[d] is the number of searches that passed d nodes
+		long joins;
+		long joinCost;
+		long maxJoinCost;
+		long splits;
+		long splitCost;
+		long maxSplitCost;
+		int height = -1; //height of the tree at the last sample
+		int maxHeight = -1;
+
+		public long getSingleRotations() {
+			return singleRotations;
+		}
+
+		public long getDoubleRotations() {
+			return doubleRotations;
+		}
+
+		public long getPromotions() {
+			return promotions;
+		}
+
+		public long getSearches() {
+			return searches;
+		}
+
+		/**
+		 * public double getMeanSearchPath()
+		 *
+		 * Returns the mean number of nodes that a search passed, or 0 if there were no searches.
+		 */
+		public double getMeanSearchPath() {
+			return searches == 0 ? 0 : (double) searchPathTotal / searches;
+		}
+
+		/**
+		 * public long[] getSearchPathHistogram()
+		 *
+		 * Returns an array whose d-th entry is the number of searches that passed d nodes.
+		 */
+		public long[] getSearchPathHistogram() {
+			return searchPaths.clone();
+		}
+
+		public long getJoins() {
+			return joins;
+		}
+
+		public long getJoinCost() {
+			return joinCost;
+		}
+
+		public long getMaxJoinCost() {
+			return maxJoinCost;
+		}
+
+		public long getSplits() {
+			return splits;
+		}
+
+		public long getSplitCost() {
+			return splitCost;
+		}
+
+		public long getMaxSplitCost() {
+			return maxSplitCost;
+		}
+
+		public int getHeight() {
+			return height;
+		}
+
+		public int getMaxHeight() {
+			return maxHeight;
+		}
+
+		/**Metrics snapshot()
+		 * returns a copy of the counters. runs in O(1) complexity.
+		 */
+		Metrics snapshot() {
+			Metrics copy = new Metrics();
+			copy.singleRotations = singleRotations;
+			copy.doubleRotations = doubleRotations;
+			copy.promotions = promotions;
+			copy.searches = searches;
+			copy.searchPathTotal = searchPathTotal;
+			copy.searchPaths = searchPaths.clone();
+			copy.joins = joins;
+			copy.joinCost = joinCost;
+			copy.maxJoinCost = maxJoinCost;
+			copy.splits = splits;
+			copy.splitCost = splitCost;
+			copy.maxSplitCost = maxSplitCost;
+			copy.height = height;
+			copy.maxHeight = maxHeight;
+			return copy;
+		}
+
+		/**long rotations()
+		 * returns the number of rotations so far, a double rotation counted as 2. runs in O(1) complexity.
+		 */
+		long rotations() {
+			return singleRotations + 2 * doubleRotations;
+		}
+
+		void countRotation(boolean twice) {
+			if (twice)
+				doubleRotations++;
+			else
+				singleRotations++;
+		}
+
+		void recordSearch(int path) {
+			searches++;
+			searchPathTotal += path;
+			searchPaths[Math.min(path, PATH_BUCKETS - 1)]++;
+		}
+
+		void recordHeight(int h) {
+			height = h;
+			maxHeight = Math.max(maxHeight, h);
+		}
+
+		void recordUpdate(String operation, int rebalances, int h) {
+			recordHeight(h);
+			UpdateEvent event = new UpdateEvent();
+			if (event.shouldCommit()) {
+				event.operation = operation;
+				event.rebalances = rebalances;
+				event.height = h;
+				event.commit();
+			}
+		}
+
+		void recordJoin(int cost, int h) {
+			joins++;
+			joinCost += cost;
+			maxJoinCost = Math.max(maxJoinCost, cost);
+			recordHeight(h);
+			JoinEvent event = new JoinEvent();
+			if (event.shouldCommit()) {
+				event.cost = cost;
+				event.height = h;
+				event.commit();
+			}
+		}
+
+		void recordSplit(int joinNum, long cost) {
+			splits++;
+			splitCost += cost;
+			maxSplitCost = Math.max(maxSplitCost, cost);
+			SplitEvent event = new SplitEvent();
+			if (event.shouldCommit()) {
+				event.joins = joinNum;
+				event.cost = cost;
+				event.commit();
+			}
+		}
+	}
+
+	/**
+	 * JFR event of an insert or delete, committed when metrics are enabled.
+	 */
+	@Name("AVLTree.Update")
+	@Label("AVL Tree Update")
+	@Category("AVLTree")
+	static class UpdateEvent extends Event {
+		@Label("Operation")
+		String operation;
+		@Label("Rebalance Operations")
+		int rebalances;
+		@Label("Height")
+		int height;
+	}
+
+	/**
+	 * JFR event of a join, committed when metrics are enabled.
+	 */
+	@Name("AVLTree.Join")
+	@Label("AVL Tree Join")
+	@Category("AVLTree")
+	static class JoinEvent extends Event {
+		@Label("Cost")
+		int cost;
+		@Label("Height")
+		int height;
+	}
+
+	/**
+	 * JFR event of a split, committed when metrics are enabled.
+	 */
+	@Name("AVLTree.Split")
+	@Label("AVL Tree Split")
+	@Category("AVLTree")
+	static class SplitEvent extends Event {
+		@Label("Joins")
+		int joins;
+		@Label("Cost")
+		long cost;
+	}
+
 	/**
 	 * public interface IAVLNode ! Do not delete or modify this - otherwise all
 	 * tests will fail !
@@ -692,6 +2248,8 @@ public class AVLTree {
 		private IAVLNode parent;
 		private IAVLNode min;
 		private IAVLNode max;
+		private boolean tomb; //true iff the item of the node was deleted in lazy delete mode
+		private int tombs; //number of tombstones in the subtree of the node
 
 
 		private static final IAVLNode externalLeaf = new AVLNode();
@@ -720,6 +2278,24 @@ public class AVLTree {
 			this.max = this;
 		}
 
+		/**private void reset(int key, String info)
+		 * resets the node to a detached leaf with the given key and info, as the constructor does. 
+		 * a negative key leaves the node with no references, for keeping it in a NodePool. O(1) complexity.
+		 */
+		private void reset(int key, String info) {
+			this.info = info;
+			this.key = key;
+			this.height = 0;
+			this.size = 1;
+			this.left = key < 0 ? null : externalLeaf;
+			this.right = key < 0 ? null : externalLeaf;
+			this.parent = null;
+			this.min = key < 0 ? null : this;
+			this.max = key < 0 ? null : this;
+			this.tomb = false;
+			this.tombs = 0;
+		}
+
 		public int getKey() { 
 			return key; 
 		}
@@ -811,4 +2387,22 @@ public class AVLTree {
 		}
 	}
 
+
+	/**
+	 * public class IntervalNode
+	 *
+	 * A node of an interval tree (see intervalTree), for the interval [key, end]. maxEnd is the largest end in
+	 * the subtree of the node, tombstones included, which fixNode maintains with the other fields.
+	 */
+	public static class IntervalNode extends AVLNode {
+		private int end; //the end of the interval [key, end] of the item
+		private int maxEnd; //the largest end in the subtree of the node
+
+		public IntervalNode(int key, String info) { // a leaf of the interval [key, key]
+			super(key, info);
+			this.end = key;
+			this.maxEnd = key;
+		}
+	}
+
 }
@@ -0,0 +1,272 @@
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ *
+ * AVLTreeClient
+ *
+ * A client of AVLTreeServer, over one connection. Every method sends one request and waits for
+ * its response. A Batch sends many requests with one write and reads all their responses after
+ * that (pipelining), so a batch of m requests costs one round trip instead of m. Big batches are
+ * sent in groups of about BUFFER bytes, one round trip each, so that neither side is blocked
+ * writing while the other one is.
+ * A client must not be used by several threads at once.
+ *
+ */
+
+public class AVLTreeClient implements Closeable {
+
+	private static final int BUFFER = 1 << 16;
+
+	private final SocketChannel ch;
+	private ByteBuffer out = ByteBuffer.allocateDirect(BUFFER);
+	private ByteBuffer in = ByteBuffer.allocateDirect(BUFFER);
+
+	/**
+	 * public AVLTreeClient(int port) throws IOException
+	 *
+	 * Connects to the server on port of the loopback address.
+	 */
+	public AVLTreeClient(int port) throws IOException {
+		this.ch = SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+		ch.socket().setTcpNoDelay(true);
+		in.flip(); //empty
+	}
+
+	/**
+	 * public String search(int k)
+	 *
+	 * Returns the info of the item with key k, or null if there is none, as AVLTree.search.
+	 */
+	public String search(int k) throws IOException {
+		return (String) batch().search(k).execute().get(0);
+	}
+
+	/**
+	 * public int insert(int k, String i)
+	 *
+	 * Inserts an item with key k and info i, and returns the result of AVLTree.insert.
+	 */
+	public int insert(int k, String i) throws IOException {
+		return (Integer) batch().insert(k, i).execute().get(0);
+	}
+
+	/**
+	 * public int delete(int k)
+	 *
+	 * Deletes the item with key k, and returns the result of AVLTree.delete.
+	 */
+	public int delete(int k) throws IOException {
+		return (Integer) batch().delete(k).execute().get(0);
+	}
+
+	/**
+	 * public String min()
+	 *
+	 * Returns the info of the item with the smallest key, or null if the tree is empty.
+	 */
+	public String min() throws IOException {
+		return (String) batch().min().execute().get(0);
+	}
+
+	/**
+	 * public String max()
+	 *
+	 * Returns the info of the item with the largest key, or null if the tree is empty.
+	 */
+	public String max() throws IOException {
+		return (String) batch().max().execute().get(0);
+	}
+
+	/**
+	 * public List<Map.Entry<Integer, String>> range(int lo, int hi, int limit)
+	 *
+	 * Returns the first limit items with keys in [lo, hi], sorted by their keys. A response holds at most
+	 * as many items as fit in one frame, so fewer items may come back; the rest are read by a range
+	 * from the last returned key + 1.
+	 */
+	@SuppressWarnings("unchecked")
+	public List<Map.Entry<Integer, String>> range(int lo, int hi, int limit) throws IOException {
+		return (List<Map.Entry<Integer, String>>) batch().range(lo, hi, limit).execute().get(0);
+	}
+
+	/**
+	 * public Batch batch()
+	 *
+	 * Returns an empty batch of requests on this connection.
+	 */
+	public Batch batch() {
+		out.clear();
+		return new Batch();
+	}
+
+	/**
+	 * public void close() throws IOException
+	 *
+	 * Closes the connection.
+	 */
+	public void close() throws IOException {
+		ch.close();
+	}
+
+	/**private int readFrame()
+	 * reads the next response frame into in, which is left at the start of its content, and returns its length.
+	 */
+	private int readFrame() throws IOException {
+		fill(4);
+		int length = in.getInt();
+		if (length < 1 || length > AVLTreeServer.MAX_FRAME)
+			throw new IOException("bad response frame length " + length);
+		if (length > in.capacity()) {
+			ByteBuffer bigger = ByteBuffer.allocateDirect(length);
+			bigger.put(in);
+			bigger.flip();
+			in = bigger;
+		}
+		fill(length);
+		return length;
+	}
+
+	/**private void fill(int bytes)
+	 * reads from the connection until in holds at least the given number of bytes.
+	 */
+	private void fill(int bytes) throws IOException {
+		if (in.remaining() >= bytes)
+			return;
+		in.compact();
+		while (in.position() < bytes)
+			if (ch.read(in) < 0)
+				throw new EOFException("the server closed the connection");
+		in.flip();
+	}
+
+	/**
+	 * public class Batch
+	 *
+	 * Requests that are sent together. Each method adds a request and returns the batch, and
+	 * execute sends them and returns their results in order: a String (or null) for search, min
+	 * and max, an Integer for insert and delete, and a list of entries for range.
+	 */
+	public class Batch {
+		private final List<Byte> ops = new ArrayList<>();
+		private final List<Integer> ends = new ArrayList<>(); //ends.get(j) is where the frame of request j ends in out
+
+		public Batch search(int k) {
+			int start = begin(AVLTreeServer.SEARCH, 4);
+			out.putInt(k);
+			return end(start);
+		}
+
+		public Batch insert(int k, String i) {
+			int start = begin(AVLTreeServer.INSERT, 4);
+			out.putInt(k);
+			out = AVLTreeServer.putString(out, i);
+			return end(start);
+		}
+
+		public Batch delete(int k) {
+			int start = begin(AVLTreeServer.DELETE, 4);
+			out.putInt(k);
+			return end(start);
+		}
+
+		public Batch min() {
+			return end(begin(AVLTreeServer.MIN, 0));
+		}
+
+		public Batch max() {
+			return end(begin(AVLTreeServer.MAX, 0));
+		}
+
+		public Batch range(int lo, int hi, int limit) {
+			int start = begin(AVLTreeServer.RANGE, 12);
+			out.putInt(lo).putInt(hi).putInt(limit);
+			return end(start);
+		}
+
+		/**
+		 * public List<Object> execute() throws IOException
+		 *
+		 * Sends the requests, and returns their results in order. Throws IOException if the server
+		 * reports an error for a request; the responses after it are still read.
+		 */
+		public List<Object> execute() throws IOException {
+			out.flip();
+			List<Object> res = new ArrayList<>(ops.size());
+			String error = null;
+			int j = 0;
+			while (j < ops.size()) {
+				int from = j;
+				do //a group of at least one request, of at most BUFFER bytes if possible
+					j++;
+				while (j < ops.size() && ends.get(j) - out.position() <= BUFFER);
+				out.limit(ends.get(j - 1));
+				while (out.hasRemaining())
+					ch.write(out);
+				out.limit(out.capacity());
+				for (int r = from; r < j; r++) {
+					int end = readFrame();
+					end += in.position();
+					if (in.get() == AVLTreeServer.ERROR) {
+						String message = AVLTreeServer.getString(in);
+						if (error == null)
+							error = message;
+						res.add(null);
+					} else
+						res.add(result(ops.get(r)));
+					in.position(end);
+				}
+			}
+			out.clear();
+			if (error != null)
+				throw new IOException("server error: " + error);
+			return res;
+		}
+
+		private Object result(byte op) {
+			switch (op) {
+			case AVLTreeServer.INSERT:
+			case AVLTreeServer.DELETE:
+				return in.getInt();
+			case AVLTreeServer.RANGE: {
+				int count = in.getInt();
+				List<Map.Entry<Integer, String>> items = new ArrayList<>(count);
+				for (int j = 0; j < count; j++) {
+					int key = in.getInt();
+					items.add(new AbstractMap.SimpleImmutableEntry<>(key, AVLTreeServer.getString(in)));
+				}
+				return items;
+			}
+			default:
+				return AVLTreeServer.getString(in);
+			}
+		}
+
+		/**private int begin(byte op, int bytes)
+		 * starts a request frame with room for bytes of fixed arguments, and returns where it starts.
+		 */
+		private int begin(byte op, int bytes) {
+			out = AVLTreeServer.ensure(out, 5 + bytes);
+			int start = out.position();
+			out.putInt(0); //the length is written by end
+			out.put(op);
+			ops.add(op);
+			return start;
+		}
+
+		private Batch end(int start) {
+			out.putInt(start, out.position() - start - 4);
+			ends.add(out.position());
+			return this;
+		}
+	}
+}
@@ -0,0 +1,164 @@
+import java.io.IOException;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ *
+ * AVLTreeLoadGenerator
+ *
+ * A load generator for AVLTreeServer, on localhost. It runs the same mix of requests (by default
+ * 80% search, 9% insert, 9% delete, 2% range of up to 16 items) from several client threads twice:
+ * on an in-process AVLTree behind a lock, which is the baseline, and through AVLTreeClient
+ * connections to a loopback AVLTreeServer over the same tree contents, with batches of 1
+ * (a round trip per request) and bigger pipelined batches. For every run it prints the throughput
+ * and the p50/p99/p999/max latency of a request; the latency of a request in a batch is the round
+ * trip of its batch.
+ *
+ * Usage: java AVLTreeLoadGenerator [keys [requests [clients [batch]]]], by default 1000000 keys,
+ * 2000000 requests per run, 4 clients and batches of 64.
+ *
+ */
+
+public class AVLTreeLoadGenerator {
+
+	public static void main(String[] args) throws Exception {
+		int keys = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+		int requests = args.length > 1 ? Integer.parseInt(args[1]) : 2_000_000;
+		int clients = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+		int batch = args.length > 3 ? Integer.parseInt(args[3]) : 64;
+		System.out.printf("%d keys, %d requests per run, %d clients%n", keys, requests, clients);
+
+		AVLTree tree = filled(keys);
+		ReentrantLock lock = new ReentrantLock(); // as the server serializes its tree
+		report("in-process", run(clients, requests, (random, latencies, count) -> {
+			for (int i = 0; i < count; i++) {
+				long start = System.nanoTime();
+				lock.lock();
+				try {
+					request(tree, random, keys);
+				} finally {
+					lock.unlock();
+				}
+				latencies.record(System.nanoTime() - start);
+			}
+		}));
+
+		for (int size : new int[] { 1, batch }) {
+			try (AVLTreeServer server = new AVLTreeServer(filled(keys), 0)) {
+				server.start();
+				report("loopback, batch " + size, run(clients, requests, (random, latencies, count) -> {
+					try (AVLTreeClient client = new AVLTreeClient(server.getPort())) {
+						for (int i = 0; i < count; i += size) {
+							int n = Math.min(size, count - i);
+							AVLTreeClient.Batch requestBatch = client.batch();
+							for (int j = 0; j < n; j++)
+								request(requestBatch, random, keys);
+							long start = System.nanoTime();
+							requestBatch.execute();
+							long latency = System.nanoTime() - start;
+							for (int j = 0; j < n; j++)
+								latencies.record(latency);
+						}
+					}
+				}));
+			}
+		}
+	}
+
+	/**interface Client
+	 * the loop of one client thread, which sends count requests and records their latencies.
+	 */
+	interface Client {
+		void run(SplittableRandom random, WorkloadTrace.Histogram latencies, int count) throws IOException;
+	}
+
+	/**private static Result run(int clients, int requests, Client client)
+	 * runs the client loop on the given number of threads, requests in total, and returns their combined
+	 * latencies and the wall time of the run.
+	 */
+	private static Result run(int clients, int requests, Client client) throws InterruptedException {
+		WorkloadTrace.Histogram[] latencies = new WorkloadTrace.Histogram[clients];
+		Thread[] threads = new Thread[clients];
+		Throwable[] failure = new Throwable[1];
+		CountDownLatch ready = new CountDownLatch(clients);
+		CountDownLatch go = new CountDownLatch(1);
+		for (int t = 0; t < clients; t++) {
+			int id = t;
+			latencies[t] = new WorkloadTrace.Histogram();
+			int count = requests / clients + (t < requests % clients ? 1 : 0);
+			threads[t] = new Thread(() -> {
+				try {
+					ready.countDown();
+					go.await();
+					client.run(new SplittableRandom(id), latencies[id], count);
+				} catch (Throwable e) {
+					failure[0] = e;
+				}
+			}, "load-" + t);
+			threads[t].start();
+		}
+		ready.await();
+		long start = System.nanoTime();
+		go.countDown();
+		for (Thread t : threads)
+			t.join();
+		Result res = new Result();
+		res.nanos = System.nanoTime() - start;
+		if (failure[0] != null)
+			throw new IllegalStateException("a client failed", failure[0]);
+		for (WorkloadTrace.Histogram h : latencies)
+			res.latencies.add(h);
+		return res;
+	}
+
+	private static class Result {
+		final WorkloadTrace.Histogram latencies = new WorkloadTrace.Histogram();
+		long nanos;
+	}
+
+	private static void report(String name, Result result) {
+		WorkloadTrace.Histogram h = result.latencies;
+		System.out.printf("%-18s %10.0f req/s  p50=%dns p99=%dns p999=%dns max=%dns%n", name,
+				h.count() * 1e9 / result.nanos, h.percentile(0.5), h.percentile(0.99), h.percentile(0.999), h.max());
+	}
+
+	/**private static AVLTree filled(int keys)
+	 * returns a tree of the even keys in [0, 2 * keys), so searches hit about half of the time.
+	 */
+	private static AVLTree filled(int keys) {
+		int[] sorted = new int[keys];
+		String[] values = new String[keys];
+		for (int i = 0; i < keys; i++) {
+			sorted[i] = 2 * i;
+			values[i] = "v" + i;
+		}
+		return AVLTree.fromSorted(sorted, values);
+	}
+
+	private static void request(AVLTree tree, SplittableRandom random, int keys) {
+		int op = random.nextInt(100);
+		int k = random.nextInt(2 * keys);
+		if (op < 80)
+			tree.search(k);
+		else if (op < 89)
+			tree.insert(k, "v");
+		else if (op < 98)
+			tree.delete(k);
+		else
+			tree.entries(k, k + 32).limit(16).count();
+	}
+
+	private static void request(AVLTreeClient.Batch batch, SplittableRandom random, int keys) {
+		int op = random.nextInt(100);
+		int k = random.nextInt(2 * keys);
+		if (op < 80)
+			batch.search(k);
+		else if (op < 89)
+			batch.insert(k, "v");
+		else if (op < 98)
+			batch.delete(k);
+		else
+			batch.range(k, k + 32, 16);
+	}
+}
@@ -0,0 +1,312 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ *
+ * AVLTreeServer
+ *
+ * A loopback TCP front-end for an AVLTree, so several processes on a host can use one tree.
+ * Every message is a frame: an int length and then length bytes. A request frame holds an op code
+ * and its arguments, and a response frame holds a status and the result (see the op codes below).
+ * A connection may send many requests before reading any response (pipelining): the server answers
+ * every complete request in its input buffer, in order, and writes all the answers with one write.
+ * The frames are parsed and written in place in direct buffers of the connection.
+ * Every connection is served by its own thread, a virtual thread when the JDK has them.
+ * The operations are serialized by one lock, since even a search may update the search cache
+ * and the metrics of the tree.
+ *
+ */
+
+public class AVLTreeServer implements Closeable {
+
+	static final byte SEARCH = 1; //int k -> string
+	static final byte INSERT = 2; //int k, string info -> int
+	static final byte DELETE = 3; //int k -> int
+	static final byte MIN = 4; // -> string
+	static final byte MAX = 5; // -> string
+	static final byte RANGE = 6; //int lo, int hi, int limit -> int count, count * (int key, string info); count may be
+	                             //below limit if more items don't fit in MAX_FRAME, the caller continues after the last key
+
+	static final byte OK = 0;
+	static final byte ERROR = 1; //followed by a string message
+
+	static final int MAX_FRAME = 1 << 24; //bigger frames close the connection
+	static final int MAX_RANGE = (MAX_FRAME - 9) / 8; //the most items of 8 bytes or more that fit in a RANGE response
+	private static final int BUFFER = 1 << 16;
+
+	private final AVLTree tree;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final ServerSocketChannel server;
+	private final ExecutorService workers = newThreadPerTaskExecutor();
+	private final Set<SocketChannel> connections = ConcurrentHashMap.newKeySet();
+	private Thread acceptor;
+
+	/**
+	 * public AVLTreeServer(AVLTree tree, int port) throws IOException
+	 *
+	 * Creates a server for tree, bound to port on the loopback address (0 for any free port).
+	 * The tree must only be used through the server from now on.
+	 */
+	public AVLTreeServer(AVLTree tree, int port) throws IOException {
+		this.tree = tree;
+		this.server = ServerSocketChannel.open();
+		server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+	}
+
+	/**
+	 * public int getPort()
+	 *
+	 * Returns the port the server is bound to.
+	 */
+	public int getPort() {
+		return server.socket().getLocalPort();
+	}
+
+	/**
+	 * public void start()
+	 *
+	 * Starts accepting connections, on a thread of its own.
+	 */
+	public synchronized void start() {
+		if (acceptor != null)
+			return;
+		acceptor = new Thread(this::accept, "AVLTreeServer-" + getPort());
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	/**
+	 * public void close() throws IOException
+	 *
+	 * Stops accepting connections and closes the open ones.
+	 */
+	public void close() throws IOException {
+		server.close();
+		for (SocketChannel ch : connections)
+			ch.close();
+		workers.shutdownNow();
+	}
+
+	/**private void accept()
+	 * accepts connections until the server is closed, and serves each of them on a worker thread.
+	 */
+	private void accept() {
+		try {
+			while (true) {
+				SocketChannel ch = server.accept();
+				ch.socket().setTcpNoDelay(true);
+				connections.add(ch);
+				workers.execute(() -> serve(ch));
+			}
+		} catch (ClosedChannelException e) { //closed by close()
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**private void serve(SocketChannel ch)
+	 * reads request frames from ch and answers them until the client closes the connection.
+	 * all the complete frames of a read are answered before the answers are written.
+	 */
+	private void serve(SocketChannel ch) {
+		ByteBuffer in = ByteBuffer.allocateDirect(BUFFER);
+		ByteBuffer out = ByteBuffer.allocateDirect(BUFFER);
+		try (ch) {
+			while (ch.read(in) >= 0) {
+				in.flip();
+				while (in.remaining() >= 4) {
+					int length = in.getInt(in.position());
+					if (length < 1 || length > MAX_FRAME)
+						return; //a broken client
+					if (in.remaining() < 4 + length) //the rest of the frame wasn't read yet
+						break;
+					int end = in.position() + 4 + length;
+					int limit = in.limit();
+					in.position(in.position() + 4);
+					in.limit(end); //a request can't read past its frame
+					out = answer(in, out);
+					in.limit(limit);
+					in.position(end);
+				}
+				in.compact();
+				if (in.position() >= 4 && in.getInt(0) + 4 > in.capacity()) //a frame bigger than the buffer
+					in = grow(in, in.getInt(0) + 4);
+				out.flip();
+				while (out.hasRemaining())
+					ch.write(out);
+				out.clear();
+			}
+		} catch (IOException e) { //the connection is dropped
+		} finally {
+			connections.remove(ch);
+		}
+	}
+
+	/**private ByteBuffer answer(ByteBuffer in, ByteBuffer out)
+	 * performs the request at the position of in, and appends its response frame to out.
+	 * returns out, or a bigger buffer with its content if it was too small.
+	 */
+	private ByteBuffer answer(ByteBuffer in, ByteBuffer out) {
+		int start = out.position();
+		out = ensure(out, 5);
+		out.position(start + 4); //the length is written at the end
+		byte op = in.get();
+		lock.lock();
+		try {
+			switch (op) {
+			case SEARCH:
+				out.put(OK);
+				out = putString(out, tree.search(in.getInt()));
+				break;
+			case INSERT: {
+				int k = in.getInt();
+				String info = getString(in);
+				if (k < 0)
+					return error(out, start, "keys must not be negative: " + k);
+				out.put(OK);
+				out = ensure(out, 4);
+				out.putInt(tree.insert(k, info));
+				break;
+			}
+			case DELETE:
+				out.put(OK);
+				out = ensure(out, 4);
+				out.putInt(tree.delete(in.getInt()));
+				break;
+			case MIN:
+				out.put(OK);
+				out = putString(out, tree.min());
+				break;
+			case MAX:
+				out.put(OK);
+				out = putString(out, tree.max());
+				break;
+			case RANGE: {
+				int lo = in.getInt();
+				int hi = in.getInt();
+				int limit = Math.min(in.getInt(), MAX_RANGE);
+				out.put(OK);
+				out = ensure(out, 4);
+				int countAt = out.position();
+				out.putInt(0);
+				int count = 0;
+				Iterator<Map.Entry<Integer, String>> items = tree.entries(lo, hi).iterator();
+				while (count < limit && items.hasNext()) {
+					Map.Entry<Integer, String> item = items.next();
+					int itemStart = out.position();
+					out = ensure(out, 4);
+					out.putInt(item.getKey());
+					out = putString(out, item.getValue());
+					if (out.position() - start - 4 > MAX_FRAME) { //the client would reject the frame; the item is dropped
+						out.position(itemStart);
+						break;
+					}
+					count++;
+				}
+				out.putInt(countAt, count);
+				break;
+			}
+			default:
+				return error(out, start, "unknown op " + op);
+			}
+		} catch (BufferUnderflowException e) { //the frame is shorter than the arguments of op
+			return error(out, start, "malformed request");
+		} finally {
+			lock.unlock();
+		}
+		out.putInt(start, out.position() - start - 4);
+		return out;
+	}
+
+	/**private static ByteBuffer error(ByteBuffer out, int start, String message)
+	 * replaces the response frame that starts at start with an error frame.
+	 */
+	private static ByteBuffer error(ByteBuffer out, int start, String message) {
+		out.position(start + 4);
+		out.put(ERROR);
+		out = putString(out, message);
+		out.putInt(start, out.position() - start - 4);
+		return out;
+	}
+
+	/**static ByteBuffer putString(ByteBuffer buf, String s)
+	 * appends s as an int length (-1 for null) and its UTF-8 bytes. returns buf, or a bigger copy of it.
+	 */
+	static ByteBuffer putString(ByteBuffer buf, String s) {
+		if (s == null) {
+			buf = ensure(buf, 4);
+			buf.putInt(-1);
+			return buf;
+		}
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		buf = ensure(buf, 4 + bytes.length);
+		buf.putInt(bytes.length);
+		buf.put(bytes);
+		return buf;
+	}
+
+	/**static String getString(ByteBuffer buf)
+	 * reads a string written by putString. throws BufferUnderflowException if the length is not -1 and
+	 * not within the bytes left in buf, before anything is allocated for it.
+	 */
+	static String getString(ByteBuffer buf) {
+		int length = buf.getInt();
+		if (length == -1)
+			return null;
+		if (length < 0 || length > buf.remaining())
+			throw new BufferUnderflowException();
+		byte[] bytes = new byte[length];
+		buf.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**static ByteBuffer ensure(ByteBuffer buf, int bytes)
+	 * returns buf if it has room for bytes more bytes, otherwise a bigger direct buffer with the content of buf.
+	 */
+	static ByteBuffer ensure(ByteBuffer buf, int bytes) {
+		if (buf.remaining() >= bytes)
+			return buf;
+		return grow(buf, buf.position() + bytes);
+	}
+
+	/**static ByteBuffer grow(ByteBuffer buf, int capacity)
+	 * returns a direct buffer of at least the given capacity, with the content of buf before its position.
+	 */
+	static ByteBuffer grow(ByteBuffer buf, int capacity) {
+		ByteBuffer res = ByteBuffer.allocateDirect(Math.max(capacity, 2 * buf.capacity()));
+		buf.flip();
+		res.put(buf);
+		return res;
+	}
+
+	/**private static ExecutorService newThreadPerTaskExecutor()
+	 * returns an executor with a virtual thread per task if the JDK has virtual threads (looked up
+	 * reflectively, as they are not in the JDK this is compiled for), otherwise a cached thread pool.
+	 */
+	private static ExecutorService newThreadPerTaskExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return Executors.newCachedThreadPool(r -> {
+				Thread t = new Thread(r, "AVLTreeServer-connection");
+				t.setDaemon(true);
+				return t;
+			});
+		}
+	}
+}
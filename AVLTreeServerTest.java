@@ -0,0 +1,215 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ *
+ * AVLTreeServerTest
+ *
+ * Checks of the AVLTreeServer protocol through AVLTreeClient and raw frames, against a TreeMap,
+ * run by main (java AVLTreeServerTest); a failed check throws an AssertionError.
+ *
+ */
+
+public class AVLTreeServerTest {
+
+	public static void main(String[] args) throws Exception {
+		randomOperations();
+		pipelinedBatch();
+		errors();
+		brokenFrames();
+		concurrentClients();
+		System.out.println("AVLTreeServerTest: ok");
+	}
+
+	/**
+	 * Single requests and small batches from two connections must return what the same operations
+	 * return on a TreeMap, for every op code.
+	 */
+	static void randomOperations() throws IOException {
+		Random random = new Random(1);
+		TreeMap<Integer, String> expected = new TreeMap<>();
+		try (AVLTreeServer server = started(); AVLTreeClient a = new AVLTreeClient(server.getPort());
+				AVLTreeClient b = new AVLTreeClient(server.getPort())) {
+			for (int op = 0; op < 20000; op++) {
+				AVLTreeClient client = random.nextBoolean() ? a : b;
+				int k = random.nextInt(2000);
+				switch (random.nextInt(6)) {
+				case 0:
+					check(Objects.equals(client.search(k), expected.get(k)), "search " + k);
+					break;
+				case 1:
+					check((client.insert(k, "v" + op) == -1) == (expected.putIfAbsent(k, "v" + op) != null), "insert " + k);
+					break;
+				case 2:
+					check((client.delete(k) == -1) == (expected.remove(k) == null), "delete " + k);
+					break;
+				case 3:
+					check(Objects.equals(client.min(), expected.isEmpty() ? null : expected.firstEntry().getValue()), "min");
+					check(Objects.equals(client.max(), expected.isEmpty() ? null : expected.lastEntry().getValue()), "max");
+					break;
+				case 4: {
+					int hi = k + random.nextInt(100);
+					int limit = random.nextInt(30);
+					check(client.range(k, hi, limit).equals(range(expected, k, hi, limit)), "range " + k + ".." + hi);
+					break;
+				}
+				default: {
+					List<Object> results = client.batch().insert(k, "b" + op).search(k).delete(k + 1).range(k, k + 10, 5)
+							.execute();
+					check(((Integer) results.get(0) == -1) == (expected.putIfAbsent(k, "b" + op) != null), "batch insert");
+					check(Objects.equals(results.get(1), expected.get(k)), "batch search");
+					check(((Integer) results.get(2) == -1) == (expected.remove(k + 1) == null), "batch delete");
+					check(results.get(3).equals(range(expected, k, k + 10, 5)), "batch range");
+				}
+				}
+			}
+		}
+	}
+
+	/**
+	 * A batch bigger than the buffers of both sides, with values bigger than a buffer, must be
+	 * answered in order.
+	 */
+	static void pipelinedBatch() throws IOException {
+		String big = "x".repeat(100000);
+		try (AVLTreeServer server = started(); AVLTreeClient client = new AVLTreeClient(server.getPort())) {
+			AVLTreeClient.Batch batch = client.batch();
+			for (int k = 0; k < 20000; k++)
+				batch.insert(k, k % 5000 == 0 ? big : "v" + k).search(k);
+			List<Object> results = batch.execute();
+			check(results.size() == 40000, results.size() + " results");
+			for (int k = 0; k < 20000; k++) {
+				check((Integer) results.get(2 * k) >= 0, "insert " + k);
+				check(results.get(2 * k + 1).equals(k % 5000 == 0 ? big : "v" + k), "search " + k);
+			}
+			List<Map.Entry<Integer, String>> items = client.range(0, 20000, 20000);
+			check(items.size() == 20000 && items.get(5000).getValue().equals(big), "range over big values");
+		}
+	}
+
+	/**
+	 * A request that fails must throw an IOException from execute after the other responses were
+	 * read, leave the other requests of the batch done, and leave the connection usable.
+	 */
+	static void errors() throws IOException {
+		try (AVLTreeServer server = started(); AVLTreeClient client = new AVLTreeClient(server.getPort())) {
+			try {
+				client.batch().insert(1, "one").insert(-1, "negative").insert(2, "two").execute();
+				throw new AssertionError("a negative key was inserted");
+			} catch (IOException e) {
+				check(e.getMessage().contains("negative"), "error message " + e.getMessage());
+			}
+			check("one".equals(client.search(1)) && "two".equals(client.search(2)), "the batch was not done");
+			check(client.search(-1) == null && client.delete(-1) == -1, "a negative key was found");
+		}
+	}
+
+	/**
+	 * An unknown op code must get an error frame, and a frame with a bad length must close the
+	 * connection.
+	 */
+	static void brokenFrames() throws IOException {
+		try (AVLTreeServer server = started()) {
+			try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+				DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+				DataInputStream in = new DataInputStream(socket.getInputStream());
+				out.writeInt(1);
+				out.writeByte(99);
+				out.writeInt(1); //a search frame that is too short
+				out.writeByte(AVLTreeServer.SEARCH);
+				out.flush();
+				for (int j = 0; j < 2; j++) {
+					int length = in.readInt();
+					check(in.readByte() == AVLTreeServer.ERROR, "no error frame for request " + j);
+					in.readFully(new byte[length - 1]);
+				}
+				out.writeInt(0);
+				out.flush();
+				try {
+					in.readInt();
+					throw new AssertionError("a frame of length 0 was answered");
+				} catch (EOFException e) { // expected
+				}
+			}
+			try (AVLTreeClient client = new AVLTreeClient(server.getPort())) {
+				check(client.insert(3, "three") == 0 && "three".equals(client.min()), "the server stopped");
+			}
+		}
+	}
+
+	/**
+	 * Clients on several threads, each with its own keys, must end with the union of their items.
+	 */
+	static void concurrentClients() throws Exception {
+		int threads = 4;
+		List<TreeMap<Integer, String>> parts = new ArrayList<>();
+		try (AVLTreeServer server = started()) {
+			Thread[] clients = new Thread[threads];
+			Throwable[] failure = new Throwable[1];
+			for (int t = 0; t < threads; t++) {
+				TreeMap<Integer, String> part = new TreeMap<>();
+				parts.add(part);
+				int id = t;
+				clients[t] = new Thread(() -> {
+					Random random = new Random(id);
+					try (AVLTreeClient client = new AVLTreeClient(server.getPort())) {
+						for (int op = 0; op < 5000; op++) {
+							int k = random.nextInt(10000) * threads + id; //the keys of thread id
+							if (random.nextInt(3) == 0)
+								check((client.delete(k) == -1) == (part.remove(k) == null), "delete " + k);
+							else
+								check((client.insert(k, "v" + k) == -1) == (part.put(k, "v" + k) != null), "insert " + k);
+						}
+					} catch (Throwable e) {
+						synchronized (failure) {
+							failure[0] = e;
+						}
+					}
+				});
+				clients[t].start();
+			}
+			for (Thread client : clients)
+				client.join();
+			if (failure[0] != null)
+				throw new AssertionError(failure[0]);
+			TreeMap<Integer, String> expected = new TreeMap<>();
+			for (TreeMap<Integer, String> part : parts)
+				expected.putAll(part);
+			try (AVLTreeClient client = new AVLTreeClient(server.getPort())) {
+				check(client.range(0, Integer.MAX_VALUE, Integer.MAX_VALUE).equals(range(expected, 0, Integer.MAX_VALUE,
+						Integer.MAX_VALUE)), "the items of the clients");
+			}
+		}
+	}
+
+	/**
+	 * Returns a started server of an empty tree on a free port.
+	 */
+	static AVLTreeServer started() throws IOException {
+		AVLTreeServer server = new AVLTreeServer(new AVLTree(), 0);
+		server.start();
+		return server;
+	}
+
+	/**
+	 * Returns the first limit items of expected with keys in [lo, hi].
+	 */
+	static List<Map.Entry<Integer, String>> range(TreeMap<Integer, String> expected, int lo, int hi, int limit) {
+		return expected.subMap(lo, true, hi, true).entrySet().stream().limit(limit).toList();
+	}
+
+	static void check(boolean condition, String message) {
+		if (!condition)
+			throw new AssertionError(message);
+	}
+}
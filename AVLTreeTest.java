@@ -0,0 +1,496 @@
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ *
+ * AVLTreeTest
+ *
+ * Checks of AVLTree against a TreeMap, run by main (java AVLTreeTest); a failed
+ * check throws an AssertionError. Every check compares the items of the tree with
+ * the map, and walks the nodes to check the AVL invariants and the node fields.
+ *
+ */
+
+public class AVLTreeTest {
+
+	public static void main(String[] args) {
+		deleteRange();
+		extractRange();
+		deleteRangePool();
+		split();
+		join();
+		searchCacheNegativeKeys();
+		insertAll();
+		deleteAll();
+		rankSelect();
+		lazyDelete();
+		compactor();
+		intervals();
+		negativeIntervalStart();
+		System.out.println("AVLTreeTest: ok");
+	}
+
+	/**
+	 * deleteRange must delete exactly the keys of [lo, hi], including lo and hi,
+	 * and return their number, for ranges inside, around and outside the tree.
+	 */
+	static void deleteRange() {
+		Random random = new Random(1);
+		for (int round = 0; round < 300; round++) {
+			AVLTree tree = new AVLTree();
+			TreeMap<Integer, String> expected = new TreeMap<>();
+			fill(tree, expected, random, random.nextInt(200), 300);
+			for (int op = 0; op < 5; op++) {
+				int lo = random.nextInt(320) - 10;
+				int hi = lo + random.nextInt(100) - 5; //sometimes an empty range
+				Map<Integer, String> range = hi < lo ? new TreeMap<>() : expected.subMap(lo, true, hi, true);
+				int n = range.size();
+				range.clear();
+				check(tree.deleteRange(lo, hi) == n, "deleteRange(" + lo + ", " + hi + ") count");
+				same(tree, expected);
+			}
+		}
+	}
+
+	/**
+	 * extractRange must move the items of [lo, hi] to the returned tree, which
+	 * is a valid tree of its own, and keep the other items in the tree.
+	 */
+	static void extractRange() {
+		Random random = new Random(2);
+		for (int round = 0; round < 300; round++) {
+			AVLTree tree = new AVLTree();
+			TreeMap<Integer, String> expected = new TreeMap<>();
+			fill(tree, expected, random, random.nextInt(200), 300);
+			int lo = random.nextInt(320) - 10;
+			int hi = lo + random.nextInt(150);
+			TreeMap<Integer, String> range = new TreeMap<>(expected.subMap(lo, true, hi, true));
+			expected.keySet().removeAll(range.keySet());
+			AVLTree extracted = tree.extractRange(lo, hi);
+			same(tree, expected);
+			same(extracted, range);
+			extracted.insert(1000, "x"); //the parts are independent trees
+			range.put(1000, "x");
+			same(extracted, range);
+			same(tree, expected);
+		}
+	}
+
+	/**
+	 * deleteRange must return the deleted nodes to the node pool of the tree,
+	 * up to the capacity of the pool, and later insertions must reuse them.
+	 */
+	static void deleteRangePool() {
+		AVLTree.NodePool pool = new AVLTree.NodePool(100);
+		AVLTree tree = new AVLTree();
+		tree.setNodePool(pool);
+		TreeMap<Integer, String> expected = new TreeMap<>();
+		for (int k = 0; k < 1000; k++) {
+			tree.insert(k, "v" + k);
+			expected.put(k, "v" + k);
+		}
+		check(tree.deleteRange(100, 149) == 50, "deleteRange count");
+		expected.subMap(100, 150).clear();
+		check(pool.available() == 50, pool.available() + " free nodes instead of 50");
+		same(tree, expected);
+		check(tree.deleteRange(200, 799) == 600, "deleteRange count");
+		expected.subMap(200, 800).clear();
+		check(pool.available() == 100, pool.available() + " free nodes instead of the capacity");
+		same(tree, expected);
+		for (int k = 2000; k < 2100; k++) {
+			tree.insert(k, "v" + k);
+			expected.put(k, "v" + k);
+		}
+		check(pool.available() == 0, "the free nodes were not reused");
+		same(tree, expected);
+	}
+
+	/**
+	 * split must leave the keys smaller than x in the first tree and the bigger
+	 * ones in the second, drop x itself, and leave the tree empty.
+	 */
+	static void split() {
+		Random random = new Random(3);
+		for (int round = 0; round < 500; round++) {
+			AVLTree tree = new AVLTree();
+			TreeMap<Integer, String> expected = new TreeMap<>();
+			fill(tree, expected, random, random.nextInt(300), 400);
+			int x = random.nextInt(420) - 10;
+			AVLTree[] parts = tree.split(x);
+			check(parts.length == 2, "split returned " + parts.length + " trees");
+			same(parts[0], new TreeMap<>(expected.headMap(x, false)));
+			same(parts[1], new TreeMap<>(expected.tailMap(x, false)));
+			same(tree, new TreeMap<>());
+		}
+	}
+
+	/**
+	 * join must concatenate trees of any heights with the node x between them,
+	 * whichever side the joined tree is on, and return |rank - t.rank| + 1.
+	 */
+	static void join() {
+		Random random = new Random(4);
+		for (int round = 0; round < 500; round++) {
+			int x = 1000;
+			AVLTree small = new AVLTree();
+			AVLTree big = new AVLTree();
+			TreeMap<Integer, String> expected = new TreeMap<>();
+			fill(small, expected, random, random.nextInt(1 << random.nextInt(10)), x);
+			TreeMap<Integer, String> bigger = new TreeMap<>();
+			for (int i = random.nextInt(1 << random.nextInt(10)); i > 0; i--) {
+				int k = x + 1 + random.nextInt(x);
+				big.insert(k, "v" + k);
+				bigger.put(k, "v" + k);
+			}
+			expected.putAll(bigger);
+			expected.put(x, "x");
+			int heights = Math.abs(height(small) - height(big)) + 1;
+			AVLTree target = random.nextBoolean() ? small : big; //the tree joined to, on either side
+			int cost = target.join(new AVLTree.AVLNode(x, "x"), target == small ? big : small);
+			check(cost == heights, "join returned " + cost + " instead of " + heights);
+			same(target, expected);
+		}
+	}
+
+	/**
+	 * A search cache must not answer a negative key from its empty slots, which
+	 * hold -1, and must count it as a miss.
+	 */
+	static void searchCacheNegativeKeys() {
+		Random random = new Random(5);
+		AVLTree tree = new AVLTree();
+		TreeMap<Integer, String> expected = new TreeMap<>();
+		for (int k = 1; k < 100; k += 2) {
+			tree.insert(k, "v" + k);
+			expected.put(k, "v" + k);
+		}
+		tree.enableSearchCache(16);
+		for (int i = 0; i < 10000; i++) {
+			int k = random.nextInt(110) - 5;
+			check(Objects.equals(tree.search(k), expected.get(k)), "search " + k);
+			int op = random.nextInt(20);
+			if (op == 0) {
+				tree.delete(k);
+				expected.remove(k);
+			} else if (op == 1 && k >= 0) {
+				tree.insert(k, "v" + k);
+				expected.putIfAbsent(k, "v" + k);
+			}
+		}
+		check(tree.searchCacheHits() + tree.searchCacheMisses() == 10000, "a search was not counted");
+		tree.disableSearchCache();
+		tree.enableSearchCache(16);
+		check(tree.search(-1) == null && tree.searchCacheHits() == 0, "an empty slot answered -1");
+		same(tree, expected);
+	}
+
+	/**
+	 * insertAll must add the keys of a sorted batch that are not in the tree,
+	 * keep the info of the keys that are, and return the number of those, for
+	 * batches of any size relative to the tree, and revive tombstones.
+	 */
+	static void insertAll() {
+		Random random = new Random(6);
+		for (int round = 0; round < 300; round++) {
+			AVLTree tree = new AVLTree();
+			if (round % 3 == 0)
+				tree.enableLazyDelete(0.5);
+			tree.enableMetrics();
+			TreeMap<Integer, String> expected = new TreeMap<>();
+			fill(tree, expected, random, random.nextInt(300), 1000);
+			for (int k : new TreeMap<>(expected).keySet())
+				if (random.nextInt(4) == 0) { //tombstones in lazy delete mode
+					tree.delete(k);
+					expected.remove(k);
+				}
+			int[] batch = random.ints(random.nextInt(1 << random.nextInt(10)), 0, 1000).distinct().sorted().toArray();
+			String[] values = new String[batch.length];
+			int skipped = 0;
+			for (int j = 0; j < batch.length; j++) {
+				values[j] = "b" + batch[j];
+				if (expected.putIfAbsent(batch[j], values[j]) != null)
+					skipped++;
+			}
+			check(tree.insertAll(batch, values) == skipped, "insertAll skipped count");
+			same(tree, expected);
+			check(tree.getMetrics().getHeight() == height(tree), "the height of the batch was not recorded");
+		}
+	}
+
+	/**
+	 * deleteAll must remove the keys of a sorted batch that are in the tree and
+	 * return the number of the others, and return the nodes to the node pool.
+	 */
+	static void deleteAll() {
+		Random random = new Random(7);
+		for (int round = 0; round < 300; round++) {
+			AVLTree.NodePool pool = new AVLTree.NodePool(1000);
+			AVLTree tree = new AVLTree();
+			tree.setNodePool(pool);
+			tree.enableMetrics();
+			TreeMap<Integer, String> expected = new TreeMap<>();
+			fill(tree, expected, random, random.nextInt(300), 1000);
+			int[] batch = random.ints(random.nextInt(1 << random.nextInt(10)), 0, 1000).distinct().sorted().toArray();
+			int skipped = 0;
+			for (int k : batch)
+				if (expected.remove(k) == null)
+					skipped++;
+			int free = pool.available(); //duplicates of fill were returned as well
+			check(tree.deleteAll(batch) == skipped, "deleteAll skipped count");
+			check(pool.available() - free == batch.length - skipped, "the deleted nodes were not returned to the pool");
+			same(tree, expected);
+			check(tree.getMetrics().getHeight() == height(tree), "the height of the batch was not recorded");
+		}
+	}
+
+	/**
+	 * rank and select must count and find the keys of the map in order, skipping
+	 * tombstones in lazy delete mode, for keys in and out of the tree and for
+	 * indexes out of [0, size()).
+	 */
+	static void rankSelect() {
+		Random random = new Random(8);
+		for (int round = 0; round < 300; round++) {
+			AVLTree tree = new AVLTree();
+			if (round % 2 == 0)
+				tree.enableLazyDelete(0.5);
+			TreeMap<Integer, String> expected = new TreeMap<>();
+			fill(tree, expected, random, random.nextInt(300), 1000);
+			for (int k : new TreeMap<>(expected).keySet())
+				if (random.nextInt(3) == 0) {
+					tree.delete(k);
+					expected.remove(k);
+				}
+			Integer[] keys = expected.keySet().toArray(new Integer[0]);
+			for (int i = -1; i <= keys.length; i++)
+				check(tree.select(i) == (i < 0 || i == keys.length ? -1 : keys[i]), "select(" + i + ")");
+			for (int k = -2; k <= 1001; k += 1 + random.nextInt(5))
+				check(tree.rank(k) == expected.headMap(k).size(), "rank(" + k + ") is " + tree.rank(k));
+			for (int i = 0; i < keys.length; i++)
+				check(tree.rank(tree.select(i)) == i, "rank of select(" + i + ")");
+		}
+	}
+
+	/**
+	 * In lazy delete mode delete must only mark tombstones, with no unlinking, and
+	 * needsCompaction must report more than maxTombFraction of them; purge, compact
+	 * and disableLazyDelete, which keeps the tombstones, must keep the items.
+	 */
+	static void lazyDelete() {
+		Random random = new Random(9);
+		for (int round = 0; round < 200; round++) {
+			double fraction = 0.05 + 0.9 * random.nextDouble();
+			AVLTree tree = new AVLTree();
+			tree.enableLazyDelete(fraction);
+			TreeMap<Integer, String> expected = new TreeMap<>();
+			fill(tree, expected, random, random.nextInt(300), 1000);
+			for (int op = 0; op < 300; op++) {
+				int k = random.nextInt(1000);
+				if (random.nextInt(3) == 0)
+					check((tree.insert(k, "v" + k) == -1) == (expected.put(k, "v" + k) != null), "insert " + k);
+				else
+					check(tree.delete(k) == (expected.remove(k) == null ? -1 : 0), "lazy delete " + k);
+				int nodes = tree.getRoot().getSize(); //0 for the external leaf
+				check(nodes == expected.size() + tree.tombstones(), "a lazy delete unlinked a node");
+				check(tree.needsCompaction() == (tree.tombstones() > fraction * nodes), "needsCompaction");
+			}
+			same(tree, expected);
+			tree.purge(random.nextInt(10));
+			same(tree, expected);
+			tree.disableLazyDelete();
+			check(tree.needsCompaction() == (tree.tombstones() > 0), "needsCompaction after disableLazyDelete");
+			same(tree, expected);
+			tree.compact();
+			check(tree.tombstones() == 0 && !tree.needsCompaction(), "compact left tombstones");
+			same(tree, expected);
+		}
+	}
+
+	/**
+	 * A Compactor on another thread, sharing a lock with a thread that inserts and
+	 * deletes lazily, must keep the items and leave no compaction to do.
+	 */
+	static void compactor() {
+		AVLTree tree = new AVLTree();
+		tree.enableLazyDelete(0.1);
+		ReentrantLock lock = new ReentrantLock();
+		AVLTree.Compactor compactor = new AVLTree.Compactor(tree, lock, 16);
+		AtomicBoolean done = new AtomicBoolean();
+		Thread background = new Thread(() -> {
+			while (!done.get())
+				compactor.run();
+		});
+		background.start();
+		Random random = new Random(10);
+		TreeMap<Integer, String> expected = new TreeMap<>();
+		for (int op = 0; op < 200000; op++) {
+			int k = random.nextInt(5000);
+			lock.lock();
+			try {
+				if (random.nextBoolean())
+					check((tree.insert(k, "v" + k) == -1) == (expected.putIfAbsent(k, "v" + k) != null), "insert " + k);
+				else
+					check((tree.delete(k) == -1) == (expected.remove(k) == null), "delete " + k);
+			} finally {
+				lock.unlock();
+			}
+		}
+		done.set(true);
+		try {
+			background.join();
+		} catch (InterruptedException e) {
+			throw new AssertionError(e);
+		}
+		compactor.run();
+		check(!tree.needsCompaction(), "the compactor left too many tombstones");
+		same(tree, expected);
+	}
+
+	/**
+	 * stab, overlapping and end must answer as a scan of a TreeMap of the intervals, through inserts,
+	 * deletes (lazy in some rounds), splits and joins, which must keep the largest ends of the nodes.
+	 */
+	static void intervals() {
+		Random random = new Random(11);
+		for (int round = 0; round < 300; round++) {
+			AVLTree tree = AVLTree.intervalTree();
+			if (round % 3 == 0)
+				tree.enableLazyDelete(0.5);
+			TreeMap<Integer, String> expected = new TreeMap<>();
+			TreeMap<Integer, Integer> ends = new TreeMap<>();
+			for (int op = 0; op < 200; op++) {
+				int k = random.nextInt(1000);
+				int choice = random.nextInt(10);
+				if (choice < 5) {
+					int end = k + (random.nextInt(4) == 0 ? random.nextInt(1000) : random.nextInt(20));
+					check((tree.insertInterval(k, end, "i" + k) == -1) == ends.containsKey(k), "insertInterval " + k);
+					ends.putIfAbsent(k, end);
+					expected.putIfAbsent(k, "i" + k);
+				} else if (choice < 6) {
+					check((tree.insert(k, "i" + k) == -1) == ends.containsKey(k), "insert " + k);
+					ends.putIfAbsent(k, k);
+					expected.putIfAbsent(k, "i" + k);
+				} else if (choice < 8) {
+					check((tree.delete(k) == -1) == (ends.remove(k) == null), "delete " + k);
+					expected.remove(k);
+				} else if (choice < 9) {
+					int a = random.nextInt(2100) - 50;
+					int b = a + random.nextInt(3) * random.nextInt(100) - 5; //points, ranges and empty ranges
+					check(Arrays.equals(tree.overlapping(a, b), overlapping(ends, a, b)), "overlapping(" + a + ", " + b + ")");
+					check(Arrays.equals(tree.stab(a), overlapping(ends, a, a)), "stab(" + a + ")");
+					check(tree.end(k) == ends.getOrDefault(k, -1), "end(" + k + ")");
+				} else if (random.nextInt(10) == 0) { //split at k, and join the parts with a new node of [k, k]
+					AVLTree[] parts = tree.split(k);
+					ends.remove(k);
+					int a = random.nextInt(2000);
+					check(Arrays.equals(parts[0].stab(a), overlapping(ends.headMap(k), a, a)), "stab of the left part");
+					check(Arrays.equals(parts[1].stab(a), overlapping(ends.tailMap(k), a, a)), "stab of the right part");
+					parts[0].join(new AVLTree.IntervalNode(k, "i" + k), parts[1]);
+					ends.put(k, k);
+					expected.put(k, "i" + k);
+					tree = parts[0];
+					if (round % 3 == 0)
+						tree.enableLazyDelete(0.5);
+				}
+			}
+			same(tree, expected);
+			for (int a = -1; a <= 2000; a += 1 + random.nextInt(20))
+				check(Arrays.equals(tree.stab(a), overlapping(ends, a, a)), "stab(" + a + ") at the end");
+		}
+	}
+
+	/**
+	 * insertInterval must reject a negative start, so a later stab can't miss the intervals around it.
+	 */
+	static void negativeIntervalStart() {
+		AVLTree tree = AVLTree.intervalTree();
+		tree.insertInterval(5, 10, "a");
+		try {
+			tree.insertInterval(-3, 4, "b");
+			throw new AssertionError("an interval with a negative start was inserted");
+		} catch (IllegalArgumentException e) { // expected
+		}
+		tree.insertInterval(1, 2, "c");
+		check(Arrays.equals(tree.stab(3), new int[0]) && Arrays.equals(tree.stab(6), new int[] { 5 }), "stab");
+		check(Arrays.equals(tree.overlapping(0, 5), new int[] { 1, 5 }) && tree.size() == 2, "the tree changed");
+	}
+
+	/**
+	 * Returns the sorted starts of the intervals of ends (start to end) that overlap [a, b].
+	 */
+	static int[] overlapping(Map<Integer, Integer> ends, int a, int b) {
+		return ends.entrySet().stream().filter(e -> a <= b && e.getKey() <= b && a <= e.getValue())
+				.mapToInt(Map.Entry::getKey).toArray();
+	}
+
+	static int height(AVLTree tree) {
+		return tree.empty() ? -1 : tree.getRoot().getHeight();
+	}
+
+	/**
+	 * Inserts n random keys in [0, bound) to both the tree and the map.
+	 */
+	static void fill(AVLTree tree, TreeMap<Integer, String> expected, Random random, int n, int bound) {
+		for (int i = 0; i < n; i++) {
+			int k = random.nextInt(bound);
+			tree.insert(k, "v" + k);
+			expected.put(k, "v" + k);
+		}
+	}
+
+	/**
+	 * Checks that the tree holds exactly the items of expected, in order, and
+	 * that its nodes keep the AVL invariants.
+	 */
+	static void same(AVLTree tree, TreeMap<Integer, String> expected) {
+		check(tree.size() == expected.size(), "size " + tree.size() + " instead of " + expected.size());
+		check(tree.empty() == expected.isEmpty(), "empty");
+		int[] keys = tree.keysToArray();
+		String[] info = tree.infoToArray();
+		int j = 0;
+		for (Map.Entry<Integer, String> e : expected.entrySet()) {
+			check(keys[j] == e.getKey() && e.getValue().equals(info[j]), "item " + j + " is " + keys[j]);
+			j++;
+		}
+		check(expected.isEmpty() ? tree.min() == null : expected.firstEntry().getValue().equals(tree.min()), "min");
+		check(expected.isEmpty() ? tree.max() == null : expected.lastEntry().getValue().equals(tree.max()), "max");
+		AVLTree.IAVLNode root = tree.getRoot();
+		if (root != null && root.isRealNode()) {
+			check(root.getParent() == null, "the root has a parent");
+			valid(root, Integer.MIN_VALUE, Integer.MAX_VALUE);
+		}
+	}
+
+	/**
+	 * Checks the subtree of node: keys in (lo, hi), parent links, balance,
+	 * height, size, min and max. Returns the height of the subtree.
+	 */
+	static int valid(AVLTree.IAVLNode node, int lo, int hi) {
+		if (!node.isRealNode())
+			return -1;
+		int k = node.getKey();
+		check(lo < k && k < hi, "key " + k + " out of (" + lo + ", " + hi + ")");
+		AVLTree.IAVLNode l = node.getLeft();
+		AVLTree.IAVLNode r = node.getRight();
+		check(!l.isRealNode() || l.getParent() == node, "wrong parent of the left son of " + k);
+		check(!r.isRealNode() || r.getParent() == node, "wrong parent of the right son of " + k);
+		int hl = valid(l, lo, k);
+		int hr = valid(r, k, hi);
+		check(Math.abs(hl - hr) <= 1, "unbalanced node " + k);
+		check(node.getHeight() == Math.max(hl, hr) + 1, "wrong height of " + k);
+		check(node.getSize() == l.getSize() + r.getSize() + 1, "wrong size of " + k);
+		check(node.getMin() == (l.isRealNode() ? l.getMin() : node), "wrong min of " + k);
+		check(node.getMax() == (r.isRealNode() ? r.getMax() : node), "wrong max of " + k);
+		return node.getHeight();
+	}
+
+	static void check(boolean condition, String message) {
+		if (!condition)
+			throw new AssertionError(message);
+	}
+}
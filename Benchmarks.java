@@ -0,0 +1,974 @@
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Benchmarks Micro benchmarks of the data structures in this repository. Every
+ * benchmark is a method that is run by its name, with optional sizes, and
+ * prints its results; the defaults are sizes that run in seconds on a laptop.
+ * Every measurement is repeated ROUNDS times and the last round is reported,
+ * after the JIT had the earlier rounds to warm up. Latencies are recorded in a
+ * WorkloadTrace.Histogram, and allocations are counted by the ThreadMXBean of
+ * the JVM (-1 if it doesn't count them).
+ *
+ * Usage: java Benchmarks name [sizes...], where name is one of:
+ *
+ * split [keys [splits]] - the time and the bytes allocated by AVLTree.split,
+ * compared to the two result trees and their array.
+ *
+ * sharded [threads [ops [shards]]] - the write throughput of a ShardedAVLTree
+ * and of one AVLTree behind a lock, with 1, 2, 4, ... up to threads threads.
+ *
+ * frozen [lookups [keys...]] - the time of search and rank on an AVLTree and on
+ * its FrozenAVLTree, for every number of keys.
+ *
+ * zipf [keys [lookups [capacity]]] - the latency of searches of Zipf
+ * distributed keys, with and without a search cache of capacity nodes.
+ *
+ * pool [keys [ops [capacity]]] - the allocation rate, time and GC of
+ * delete/insert churn on an AVLTree, with and without a NodePool.
+ *
+ * batch [keys [batch...]] - the time per key of insertAll and deleteAll of
+ * sorted batches, and of insert and delete of the same keys one by one.
+ *
+ * topk [stream [k...]] - the time per key of TopK.offer and of a bounded
+ * java.util.PriorityQueue, on a random and on an ascending stream.
+ *
+ * build [keys [threads]] - the time of FibonacciHeap.fromArray and of
+ * fromArrayParallel on pools of 1, 2, 4, ... up to threads threads.
+ *
+ * reschedule [tasks [ops]] - a scheduler that postpones and expedites tasks,
+ * with FibonacciHeap.updateKey and with delete and insert for postponements.
+ *
+ * ttl [keys [ops [threads]]] - the throughput and latencies of a TTLCache and of
+ * a ConcurrentHashMap with a DelayQueue of expiries, on a get/put/remove mix.
+ *
+ * quantile [samples [window...]] - the time of SlidingQuantile.add and of a p50
+ * and p99 query, and of a sort of the window per query, for every window size.
+ *
+ * burst [keys [burst [bursts]]] - the latencies of deletes in bursts, and of
+ * searches between them, with eager deletion and with lazy deletion, whose
+ * tombstones a Compactor removes between the bursts.
+ *
+ * mpsc [items [producers]] - the throughput of producers that insert and one
+ * consumer that deletes the minimum, on a ConcurrentFibonacciHeap and on a
+ * PriorityBlockingQueue, with the latencies of the inserts.
+ */
+public class Benchmarks {
+	private static final int ROUNDS = 3;
+	private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+	private static volatile Object sink; // keeps the JIT from eliminating objects that are only measured
+
+	public static void main(String[] args) throws Exception {
+		String name = args.length > 0 ? args[0] : "";
+		String[] sizes = Arrays.copyOfRange(args, Math.min(1, args.length), args.length);
+		switch (name) {
+		case "split":
+			split(sizes);
+			break;
+		case "sharded":
+			sharded(sizes);
+			break;
+		case "frozen":
+			frozen(sizes);
+			break;
+		case "zipf":
+			zipf(sizes);
+			break;
+		case "pool":
+			pool(sizes);
+			break;
+		case "batch":
+			batch(sizes);
+			break;
+		case "topk":
+			topK(sizes);
+			break;
+		case "build":
+			build(sizes);
+			break;
+		case "reschedule":
+			reschedule(sizes);
+			break;
+		case "ttl":
+			ttl(sizes);
+			break;
+		case "quantile":
+			quantile(sizes);
+			break;
+		case "burst":
+			burst(sizes);
+			break;
+		case "mpsc":
+			mpsc(sizes);
+			break;
+		default:
+			System.err.println("usage: java Benchmarks name [sizes...], see the class doc for the names");
+			System.exit(2);
+		}
+	}
+
+	/**
+	 * private static void split(String[] sizes) splits a tree of the even keys
+	 * in [0, 2 * keys) at a random present key, and joins the parts back with a
+	 * new node for the key, splits times. Only the splits are timed and counted;
+	 * the bytes they allocate are compared to the bytes of new AVLTree[] { new
+	 * AVLTree(), new AVLTree() }, which a split returns.
+	 */
+	private static void split(String[] sizes) {
+		int keys = size(sizes, 0, 1_000_000);
+		int splits = size(sizes, 1, 1_000_000);
+		AVLTree tree = filled(keys);
+		for (int round = 1; round <= ROUNDS; round++) {
+			SplittableRandom random = new SplittableRandom(round);
+			WorkloadTrace.Histogram latencies = new WorkloadTrace.Histogram();
+			long bytes = 0;
+			for (int i = 0; i < splits; i++) {
+				int k = 2 * random.nextInt(keys);
+				long allocated = allocatedBytes();
+				long start = System.nanoTime();
+				AVLTree[] parts = tree.split(k);
+				latencies.record(System.nanoTime() - start);
+				bytes += allocatedBytes() - allocated;
+				parts[0].join(new AVLTree.AVLNode(k, "v"), parts[1]);
+				tree = parts[0];
+			}
+			long returned = 0;
+			for (int i = 0; i < splits; i++) { // what a split can't avoid
+				long allocated = allocatedBytes();
+				sink = new AVLTree[] { new AVLTree(), new AVLTree() }; // escapes, as the result of split
+				returned += allocatedBytes() - allocated;
+			}
+			if (round == ROUNDS) {
+				System.out.printf("%d keys, %d splits%n", keys, splits);
+				report("split", latencies);
+				System.out.printf("allocated per split: %.1f bytes, the result trees and array: %.1f bytes%n",
+						(double) bytes / splits, (double) returned / splits);
+			}
+		}
+	}
+
+	/**
+	 * private static void sharded(String[] sizes) runs ops writes in total, half
+	 * inserts and half deletes of random keys, split among 1, 2, 4, ... threads,
+	 * on a ShardedAVLTree and on one AVLTree that every write locks, and prints
+	 * the throughput of both. The keys are uniform over the key space, so the
+	 * writes of different threads mostly go to different shards.
+	 */
+	private static void sharded(String[] sizes) throws InterruptedException {
+		int maxThreads = size(sizes, 0, 2 * Runtime.getRuntime().availableProcessors());
+		int ops = size(sizes, 1, 4_000_000);
+		int shardNum = size(sizes, 2, 16);
+		System.out.printf("%d writes per run, %d shards, %d processors%n", ops, shardNum,
+				Runtime.getRuntime().availableProcessors());
+		for (int threads = 1; threads <= maxThreads; threads *= 2) {
+			double sharded = 0;
+			double locked = 0;
+			for (int round = 1; round <= ROUNDS; round++) {
+				ShardedAVLTree map = new ShardedAVLTree(shardNum);
+				sharded = throughput(threads, ops, k -> {
+					if ((k & 1) == 0)
+						map.insert(k >>> 1, "v");
+					else
+						map.delete(k >>> 1);
+				});
+				AVLTree tree = new AVLTree();
+				ReentrantLock lock = new ReentrantLock();
+				locked = throughput(threads, ops, k -> {
+					lock.lock();
+					try {
+						if ((k & 1) == 0)
+							tree.insert(k >>> 1, "v");
+						else
+							tree.delete(k >>> 1);
+					} finally {
+						lock.unlock();
+					}
+				});
+			}
+			System.out.printf("%2d threads: sharded %10.0f writes/s, one locked tree %10.0f writes/s%n", threads,
+					sharded, locked);
+		}
+	}
+
+	/**
+	 * private static double throughput(int threads, int ops, IntConsumer op)
+	 * runs op on ops random non-negative ints, split among the given number of
+	 * threads that start together, and returns the operations per second.
+	 */
+	private static double throughput(int threads, int ops, IntConsumer op) throws InterruptedException {
+		Thread[] workers = new Thread[threads];
+		CountDownLatch go = new CountDownLatch(1);
+		for (int t = 0; t < threads; t++) {
+			int id = t;
+			int count = ops / threads + (t < ops % threads ? 1 : 0);
+			workers[t] = new Thread(() -> {
+				SplittableRandom random = new SplittableRandom(id);
+				try {
+					go.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				for (int i = 0; i < count; i++)
+					op.accept(random.nextInt() & Integer.MAX_VALUE);
+			});
+			workers[t].start();
+		}
+		long start = System.nanoTime();
+		go.countDown();
+		for (Thread worker : workers)
+			worker.join();
+		return ops * 1e9 / (System.nanoTime() - start);
+	}
+
+	/**
+	 * private static void frozen(String[] sizes) builds a tree of the even keys
+	 * in [0, 2 * keys) for every given number of keys (by default 1M and 4M;
+	 * 100M keys need a heap of about 10 GB), and times lookups random searches,
+	 * half of which hit, and lookups random ranks, on the tree and on its frozen
+	 * copy.
+	 */
+	private static void frozen(String[] sizes) {
+		int lookups = size(sizes, 0, 4_000_000);
+		int[] keyCounts = sizes.length > 1
+				? Arrays.stream(sizes, 1, sizes.length).mapToInt(Integer::parseInt).toArray()
+				: new int[] { 1_000_000, 4_000_000 };
+		for (int keys : keyCounts) {
+			AVLTree tree = filled(keys);
+			FrozenAVLTree frozen = tree.freeze();
+			double[] nanos = new double[4];
+			for (int round = 1; round <= ROUNDS; round++) {
+				long found = 0;
+				SplittableRandom random = new SplittableRandom(round);
+				long start = System.nanoTime();
+				for (int i = 0; i < lookups; i++)
+					found += tree.search(random.nextInt(2 * keys)) != null ? 1 : 0;
+				nanos[0] = (double) (System.nanoTime() - start) / lookups;
+				random = new SplittableRandom(round);
+				start = System.nanoTime();
+				for (int i = 0; i < lookups; i++)
+					found -= frozen.search(random.nextInt(2 * keys)) != null ? 1 : 0;
+				nanos[1] = (double) (System.nanoTime() - start) / lookups;
+				random = new SplittableRandom(round);
+				start = System.nanoTime();
+				for (int i = 0; i < lookups; i++)
+					found += tree.rank(random.nextInt(2 * keys));
+				nanos[2] = (double) (System.nanoTime() - start) / lookups;
+				random = new SplittableRandom(round);
+				start = System.nanoTime();
+				for (int i = 0; i < lookups; i++)
+					found -= frozen.rank(random.nextInt(2 * keys));
+				nanos[3] = (double) (System.nanoTime() - start) / lookups;
+				if (found != 0)
+					throw new AssertionError("the frozen tree differs from the tree");
+			}
+			System.out.printf("%,d keys: search %.0fns, frozen search %.0fns, rank %.0fns, frozen rank %.0fns%n",
+					keys, nanos[0], nanos[1], nanos[2], nanos[3]);
+		}
+	}
+
+	/**
+	 * private static void zipf(String[] sizes) searches a tree of keys keys for
+	 * lookups keys drawn from a Zipf distribution with exponent 1, so the hottest
+	 * 1% of 1M keys get 68% of the searches, and times every search, on the
+	 * tree without a cache and with a search cache of capacity nodes. The hot
+	 * keys are scattered over the tree. The keys to search are drawn before the
+	 * runs, so the draws aren't timed.
+	 */
+	private static void zipf(String[] sizes) {
+		int keys = size(sizes, 0, 1_000_000);
+		int lookups = size(sizes, 1, 4_000_000);
+		int capacity = size(sizes, 2, 1 << 14);
+		int[] sample = zipfKeys(keys, lookups, new SplittableRandom(1));
+		AVLTree tree = filled(keys);
+		for (boolean cached : new boolean[] { false, true }) {
+			WorkloadTrace.Histogram latencies = null;
+			long nanos = 0;
+			for (int round = 1; round <= ROUNDS; round++) {
+				if (cached)
+					tree.enableSearchCache(capacity);
+				else
+					tree.disableSearchCache();
+				latencies = new WorkloadTrace.Histogram();
+				long found = 0;
+				long begin = System.nanoTime();
+				for (int k : sample) {
+					long start = System.nanoTime();
+					found += tree.search(k) != null ? 1 : 0;
+					latencies.record(System.nanoTime() - start);
+				}
+				nanos = System.nanoTime() - begin;
+				if (found != lookups)
+					throw new AssertionError("a key of the sample is missing");
+			}
+			report(cached ? "cached (hits " + Math.round(100 * tree.searchCacheHitRatio()) + "%)" : "uncached",
+					latencies);
+			System.out.printf("%-24s %.0fns per search, timer included%n", "", (double) nanos / lookups);
+		}
+	}
+
+	/**
+	 * private static int[] zipfKeys(int keys, int n, SplittableRandom random)
+	 * returns n keys of the tree of filled(keys), where the key of rank r (from
+	 * 1) is drawn with probability proportional to 1/r, by a binary search of
+	 * the cumulative distribution. the ranks are mapped to keys by a
+	 * multiplicative hash, so neighbouring ranks are far apart in the tree.
+	 */
+	private static int[] zipfKeys(int keys, int n, SplittableRandom random) {
+		double[] cdf = new double[keys];
+		double sum = 0;
+		for (int r = 0; r < keys; r++)
+			cdf[r] = sum += 1.0 / (r + 1);
+		int[] res = new int[n];
+		for (int i = 0; i < n; i++) {
+			int r = Arrays.binarySearch(cdf, random.nextDouble() * sum);
+			r = r >= 0 ? r : Math.min(-r - 1, keys - 1);
+			res[i] = 2 * (int) ((r * 0x9E3779B1L & 0xFFFFFFFFL) % keys);
+		}
+		return res;
+	}
+
+	/**
+	 * private static void pool(String[] sizes) deletes a random key of a tree
+	 * of keys keys and inserts it back, ops times, without a node pool and with
+	 * a NodePool of capacity nodes, and prints the time and the bytes allocated
+	 * per delete/insert pair, and the collections of the run.
+	 */
+	private static void pool(String[] sizes) {
+		int keys = size(sizes, 0, 1_000_000);
+		int ops = size(sizes, 1, 4_000_000);
+		int capacity = size(sizes, 2, 1024);
+		AVLTree tree = filled(keys);
+		for (boolean pooled : new boolean[] { false, true }) {
+			tree.setNodePool(pooled ? new AVLTree.NodePool(capacity) : null);
+			long nanos = 0;
+			long bytes = 0;
+			long collections = 0;
+			long gcMillis = 0;
+			for (int round = 1; round <= ROUNDS; round++) {
+				SplittableRandom random = new SplittableRandom(round);
+				long gcs = collections();
+				long gcTime = collectionMillis();
+				long allocated = allocatedBytes();
+				long start = System.nanoTime();
+				for (int i = 0; i < ops; i++) {
+					int k = 2 * random.nextInt(keys);
+					tree.delete(k);
+					tree.insert(k, "v");
+				}
+				nanos = System.nanoTime() - start;
+				bytes = allocatedBytes() - allocated;
+				collections = collections() - gcs;
+				gcMillis = collectionMillis() - gcTime;
+			}
+			System.out.printf("%-10s %.0fns and %.1f bytes per delete/insert, %d collections in %dms%n",
+					pooled ? "pooled" : "unpooled", (double) nanos / ops, (double) bytes / ops, collections, gcMillis);
+		}
+	}
+
+	/**
+	 * private static void batch(String[] sizes) inserts sorted batches of odd
+	 * keys to a tree of the even keys in [0, 2 * keys), and deletes them, with
+	 * insertAll and deleteAll and then another batch key by key, for every batch size (by
+	 * default 10K, 100K and 1M), with about 2M keys of batches per size. The
+	 * keys of a batch are either uniform over the tree, or clustered: the
+	 * consecutive odd keys from a random start, as in an ingest of new ids.
+	 */
+	private static void batch(String[] sizes) {
+		int keys = size(sizes, 0, 1_000_000);
+		int[] batchSizes = sizes.length > 1
+				? Arrays.stream(sizes, 1, sizes.length).mapToInt(Integer::parseInt).toArray()
+				: new int[] { 10_000, 100_000, 1_000_000 };
+		AVLTree tree = filled(keys);
+		for (int m : batchSizes)
+			for (boolean clustered : new boolean[] { false, true })
+				batch(tree, keys, Math.min(m, keys), clustered);
+	}
+
+	/**
+	 * private static void batch(AVLTree tree, int keys, int m, boolean clustered)
+	 * runs the batches of m keys of batch(String[]) on tree, uniform or clustered.
+	 */
+	private static void batch(AVLTree tree, int keys, int m, boolean clustered) {
+		int batches = Math.max(1, 2_000_000 / m);
+		String[] values = new String[m];
+		Arrays.fill(values, "v");
+		long[] nanos = new long[4]; // insertAll, deleteAll, insert, delete
+		for (int round = 1; round <= ROUNDS; round++) {
+			Arrays.fill(nanos, 0);
+			SplittableRandom random = new SplittableRandom(round);
+			for (int b = 0; b < batches; b++) {
+				int[] batch = batchKeys(random, keys, m, clustered);
+				long start = System.nanoTime();
+				int skipped = tree.insertAll(batch, values);
+				nanos[0] += System.nanoTime() - start;
+				start = System.nanoTime();
+				skipped += tree.deleteAll(batch);
+				nanos[1] += System.nanoTime() - start;
+				batch = batchKeys(random, keys, m, clustered); //other keys, so neither way finds its paths in the cache
+				start = System.nanoTime();
+				for (int k : batch)
+					tree.insert(k, "v");
+				nanos[2] += System.nanoTime() - start;
+				start = System.nanoTime();
+				for (int k : batch)
+					tree.delete(k);
+				nanos[3] += System.nanoTime() - start;
+				if (skipped != 0 || tree.size() != keys)
+					throw new AssertionError("a batch was not inserted and deleted");
+			}
+		}
+		double total = (double) batches * m;
+		System.out.printf("%-9s batches of %,9d: insertAll %4.0fns, insert %4.0fns (x%.1f); deleteAll %4.0fns, delete %4.0fns (x%.1f) per key%n",
+				clustered ? "clustered" : "uniform", m, nanos[0] / total, nanos[2] / total, (double) nanos[2] / nanos[0],
+				nanos[1] / total, nanos[3] / total, (double) nanos[3] / nanos[1]);
+	}
+
+	/**
+	 * private static int[] batchKeys(SplittableRandom random, int keys, int m, boolean clustered)
+	 * returns a sorted batch of m odd keys in [0, 2 * keys), uniform or clustered.
+	 */
+	private static int[] batchKeys(SplittableRandom random, int keys, int m, boolean clustered) {
+		int from = random.nextInt(keys - m + 1);
+		return clustered ? IntStream.range(from, from + m).map(k -> 2 * k + 1).toArray()
+				: random.ints(0, keys).distinct().limit(m).map(k -> 2 * k + 1).sorted().toArray();
+	}
+
+	/**
+	 * private static void topK(String[] sizes) offers a stream of random keys
+	 * (by default 100M), and an ascending stream of a tenth of its length, where
+	 * every key evicts, to a TopK and to a PriorityQueue that keeps the k
+	 * largest keys in the same way, for every k (by default 10 to 100K), and
+	 * prints the time per key. The snapshots of the two are compared.
+	 */
+	private static void topK(String[] sizes) {
+		int stream = size(sizes, 0, 100_000_000);
+		int[] ks = sizes.length > 1 ? Arrays.stream(sizes, 1, sizes.length).mapToInt(Integer::parseInt).toArray()
+				: new int[] { 10, 100, 1_000, 10_000, 100_000 };
+		for (int k : ks) {
+			for (boolean ascending : new boolean[] { false, true }) {
+				int n = ascending ? stream / 10 : stream;
+				double topK = 0;
+				double queue = 0;
+				for (int round = 1; round <= ROUNDS; round++) {
+					SplittableRandom random = new SplittableRandom(round);
+					TopK top = new TopK(k);
+					long start = System.nanoTime();
+					for (int i = 0; i < n; i++)
+						top.offer(ascending ? i : random.nextInt());
+					topK = (double) (System.nanoTime() - start) / n;
+					random = new SplittableRandom(round);
+					PriorityQueue<Integer> bounded = new PriorityQueue<>(k + 1);
+					start = System.nanoTime();
+					for (int i = 0; i < n; i++) {
+						int key = ascending ? i : random.nextInt();
+						if (bounded.size() < k)
+							bounded.add(key);
+						else if (k > 0 && key > bounded.peek()) {
+							bounded.poll();
+							bounded.add(key);
+						}
+					}
+					queue = (double) (System.nanoTime() - start) / n;
+					int[] expected = bounded.stream().mapToInt(Integer::intValue).sorted().toArray();
+					int[] snapshot = top.snapshot();
+					for (int i = 0; i < expected.length / 2; i++) { // snapshot is descending
+						int temp = expected[i];
+						expected[i] = expected[expected.length - 1 - i];
+						expected[expected.length - 1 - i] = temp;
+					}
+					if (!Arrays.equals(expected, snapshot))
+						throw new AssertionError("TopK and the PriorityQueue differ");
+				}
+				System.out.printf("k=%-7d %-9s stream of %,d: TopK %.1fns, PriorityQueue %.1fns per key%n", k,
+						ascending ? "ascending" : "random", n, topK, queue);
+			}
+		}
+	}
+
+	/**
+	 * private static void build(String[] sizes) builds a heap of keys random
+	 * keys (by default 10M; 100M need a heap of about 8 GB), with their
+	 * handles, by fromArray and by fromArrayParallel on ForkJoinPools of 1, 2,
+	 * 4, ... threads, and prints the time of the build and of the first
+	 * deleteMin, which consolidates the roots that the build left.
+	 */
+	private static void build(String[] sizes) {
+		int n = size(sizes, 0, 10_000_000);
+		int maxThreads = size(sizes, 1, 2 * Runtime.getRuntime().availableProcessors());
+		int[] keys = new SplittableRandom(1).ints(n).toArray();
+		FibonacciHeap.HeapNode[] handles = new FibonacciHeap.HeapNode[n];
+		System.out.printf("%,d keys, %d processors%n", n, Runtime.getRuntime().availableProcessors());
+		for (int threads = 0; threads <= maxThreads; threads = Math.max(1, 2 * threads)) {
+			ForkJoinPool pool = threads == 0 ? null : new ForkJoinPool(threads);
+			long buildNanos = 0;
+			long consolidateNanos = 0;
+			for (int round = 1; round <= ROUNDS; round++) {
+				sink = null; // the heap of the previous round is garbage
+				long start = System.nanoTime();
+				FibonacciHeap heap = pool == null ? FibonacciHeap.fromArray(keys, handles)
+						: FibonacciHeap.fromArrayParallel(keys, handles, pool);
+				buildNanos = System.nanoTime() - start;
+				start = System.nanoTime();
+				heap.deleteMin();
+				consolidateNanos = System.nanoTime() - start;
+				sink = heap;
+			}
+			if (pool != null)
+				pool.shutdown();
+			System.out.printf("%-22s build %5dms, first deleteMin %5dms%n",
+					pool == null ? "fromArray" : "parallel, " + threads + " threads", buildNanos / 1_000_000,
+					consolidateNanos / 1_000_000);
+		}
+	}
+
+	/**
+	 * private static void reschedule(String[] sizes) keeps a heap of tasks keyed
+	 * by their due times, and runs ops operations: 45% postpone a random task,
+	 * 45% expedite one, and 10% run the first task (deleteMin) and schedule a
+	 * new one. An expedite is a decreaseKey. A postpone is an updateKey, or, as
+	 * before updateKey, a delete of the node and an insert of a new node. Prints
+	 * the time and allocation per operation and the latencies of postpones.
+	 */
+	private static void reschedule(String[] sizes) {
+		int tasks = size(sizes, 0, 1_000_000);
+		int ops = size(sizes, 1, 4_000_000);
+		for (boolean update : new boolean[] { true, false }) {
+			WorkloadTrace.Histogram postpones = null;
+			long nanos = 0;
+			long bytes = 0;
+			for (int round = 1; round <= ROUNDS; round++) {
+				SplittableRandom random = new SplittableRandom(round);
+				FibonacciHeap heap = new FibonacciHeap();
+				Task[] all = new Task[tasks];
+				for (int i = 0; i < tasks; i++) {
+					all[i] = new Task(random.nextInt(1 << 28), i);
+					heap.insertNode(all[i]);
+				}
+				int slot = ((Task) heap.findMin()).slot;
+				heap.deleteMin(); // consolidating, as a heap in use would be
+				heap.insertNode(all[slot] = new Task(random.nextInt(1 << 28), slot));
+				postpones = new WorkloadTrace.Histogram();
+				long allocated = allocatedBytes();
+				long begin = System.nanoTime();
+				for (int i = 0; i < ops; i++) {
+					int op = random.nextInt(100);
+					Task x = all[random.nextInt(tasks)];
+					if (op < 45) { // postpone
+						int key = x.key + 1 + random.nextInt(1 << 20);
+						long start = System.nanoTime();
+						if (update)
+							heap.updateKey(x, key);
+						else {
+							heap.delete(x); // the handle x is gone
+							heap.insertNode(all[x.slot] = new Task(key, x.slot));
+						}
+						postpones.record(System.nanoTime() - start);
+					} else if (op < 90) // expedite
+						heap.decreaseKey(x, Math.min(x.key, random.nextInt(1 << 20)));
+					else { // run the first task, and schedule a new one in its slot
+						Task first = (Task) heap.findMin();
+						heap.deleteMin();
+						heap.insertNode(all[first.slot] = new Task(first.key + random.nextInt(1 << 28), first.slot));
+					}
+				}
+				nanos = System.nanoTime() - begin;
+				bytes = allocatedBytes() - allocated;
+				sink = heap;
+			}
+			System.out.printf("%-15s %.0fns and %.1f bytes per operation%n", update ? "updateKey" : "delete+insert",
+					(double) nanos / ops, (double) bytes / ops);
+			report("  postpones", postpones);
+		}
+	}
+
+	/**
+	 * private static class Task
+	 *
+	 * A heap node of a task of reschedule, with its slot in the array of tasks.
+	 */
+	private static class Task extends FibonacciHeap.HeapNode {
+		final int slot;
+
+		Task(int key, int slot) {
+			super(key);
+			this.slot = slot;
+		}
+	}
+
+	/**
+	 * private static void ttl(String[] sizes) runs ops operations on keys
+	 * random keys from 1 and threads threads: 70% get, 25% put with a time to
+	 * live of 1 to 100 milliseconds, and 5% remove, on a TTLCache and on a
+	 * DelayQueueCache. The caches can hold all the keys, so nothing is evicted
+	 * for space and only expiry removes entries. Prints the throughput and the
+	 * latencies of the operations.
+	 */
+	private static void ttl(String[] sizes) throws InterruptedException {
+		int keys = size(sizes, 0, 100_000);
+		int ops = size(sizes, 1, 4_000_000);
+		int maxThreads = size(sizes, 2, 4);
+		for (int threads = 1; threads <= maxThreads; threads *= 2) {
+			for (boolean heap : new boolean[] { true, false }) {
+				Result result = null;
+				for (int round = 1; round <= ROUNDS; round++) {
+					TTLCache cache = new TTLCache(keys);
+					DelayQueueCache baseline = new DelayQueueCache();
+					result = timed(threads, ops, (random, latencies, count) -> {
+						for (int i = 0; i < count; i++) {
+							int op = random.nextInt(100);
+							int k = random.nextInt(keys);
+							long start = System.nanoTime();
+							if (op < 70) {
+								if (heap)
+									cache.get(k);
+								else
+									baseline.get(k);
+							} else if (op < 95) {
+								long ttl = 1 + random.nextInt(100);
+								if (heap)
+									cache.put(k, "v", ttl);
+								else
+									baseline.put(k, "v", ttl);
+							} else if (heap)
+								cache.remove(k);
+							else
+								baseline.remove(k);
+							latencies.record(System.nanoTime() - start);
+						}
+					});
+				}
+				WorkloadTrace.Histogram h = result.latencies;
+				System.out.printf("%d threads, %-15s %9.0f ops/s  p50=%dns p99=%dns p999=%dns%n", threads,
+						heap ? "TTLCache" : "CHM+DelayQueue", h.count() * 1e9 / result.nanos, h.percentile(0.5),
+						h.percentile(0.99), h.percentile(0.999));
+			}
+		}
+	}
+
+	/**
+	 * private static void quantile(String[] sizes) streams samples random
+	 * samples (by default 2M, with many duplicates) through a SlidingQuantile
+	 * for every window size (by default 1K to 1M), and queries the p50 and p99
+	 * after every 100 samples once the window is full. The baseline keeps the
+	 * same window in a ring buffer, and sorts a copy of it per query; it runs a
+	 * limited number of queries, so big windows finish. The answers of the two
+	 * are compared.
+	 */
+	private static void quantile(String[] sizes) {
+		int samples = size(sizes, 0, 2_000_000);
+		int[] windows = sizes.length > 1 ? Arrays.stream(sizes, 1, sizes.length).mapToInt(Integer::parseInt).toArray()
+				: new int[] { 1_000, 10_000, 100_000, 1_000_000 };
+		for (int window : windows) {
+			double add = 0;
+			double query = 0;
+			double sortQuery = 0;
+			for (int round = 1; round <= ROUNDS; round++) {
+				SplittableRandom random = new SplittableRandom(round);
+				SlidingQuantile quantiles = new SlidingQuantile(window);
+				int[] ring = new int[window];
+				int[] copy = new int[window];
+				long addNanos = 0;
+				long queryNanos = 0;
+				long sortNanos = 0;
+				int queries = 0;
+				int sorts = 0;
+				int maxSorts = Math.max(10, 20_000_000 / window); // about 20M sorted elements
+				for (int i = 0; i < samples; i++) {
+					int sample = random.nextInt(100_000);
+					long start = System.nanoTime();
+					quantiles.add(sample);
+					addNanos += System.nanoTime() - start;
+					ring[i % window] = sample;
+					if (i < window || i % 100 != 0)
+						continue;
+					start = System.nanoTime();
+					int p50 = quantiles.quantile(0.5);
+					int p99 = quantiles.quantile(0.99);
+					queryNanos += System.nanoTime() - start;
+					queries++;
+					if (sorts == maxSorts)
+						continue;
+					start = System.nanoTime();
+					System.arraycopy(ring, 0, copy, 0, window);
+					Arrays.sort(copy);
+					int sorted50 = copy[Math.max(0, (int) Math.ceil(0.5 * window) - 1)];
+					int sorted99 = copy[Math.max(0, (int) Math.ceil(0.99 * window) - 1)];
+					sortNanos += System.nanoTime() - start;
+					sorts++;
+					if (p50 != sorted50 || p99 != sorted99)
+						throw new AssertionError("SlidingQuantile and the sorted window differ");
+				}
+				add = (double) addNanos / samples;
+				query = (double) queryNanos / queries;
+				sortQuery = (double) sortNanos / sorts;
+			}
+			System.out.printf("window %,9d: add %4.0fns, p50+p99 query %5.0fns; sort per query %,12.0fns (x%.0f)%n",
+					window, add, query, sortQuery, sortQuery / query);
+		}
+	}
+
+	/**
+	 * private static void burst(String[] sizes) deletes bursts of burst random
+	 * keys from a tree of keys keys, as a bulk expiry does, with a search of a
+	 * random key after every delete, and inserts the keys back after every
+	 * burst, untimed. Runs with eager deletion and with lazy deletion at
+	 * tombstone fractions of 0.25 and 0.05, where a Compactor runs after every
+	 * burst, before the inserts and untimed, as a scheduler would between the
+	 * bursts; prints the latencies of the deletes and of the searches, and the
+	 * time of the compactions.
+	 */
+	private static void burst(String[] sizes) {
+		int keys = size(sizes, 0, 1_000_000);
+		int burst = size(sizes, 1, 100_000);
+		int bursts = size(sizes, 2, 10);
+		for (double fraction : new double[] { 0, 0.25, 0.05 }) {
+			WorkloadTrace.Histogram deletes = null;
+			WorkloadTrace.Histogram searches = null;
+			long compactNanos = 0;
+			for (int round = 1; round <= ROUNDS; round++) {
+				AVLTree tree = filled(keys);
+				if (fraction > 0)
+					tree.enableLazyDelete(fraction);
+				AVLTree.Compactor compactor = new AVLTree.Compactor(tree, new ReentrantLock(), 1024);
+				compactNanos = 0;
+				SplittableRandom random = new SplittableRandom(round);
+				deletes = new WorkloadTrace.Histogram();
+				searches = new WorkloadTrace.Histogram();
+				for (int b = 0; b < bursts; b++) {
+					int[] expired = random.ints(0, keys).distinct().limit(burst).map(k -> 2 * k).toArray();
+					for (int k : expired) {
+						long start = System.nanoTime();
+						tree.delete(k);
+						long end = System.nanoTime();
+						deletes.record(end - start);
+						tree.search(2 * random.nextInt(keys));
+						searches.record(System.nanoTime() - end);
+					}
+					long start = System.nanoTime();
+					compactor.run();
+					compactNanos += System.nanoTime() - start;
+					for (int k : expired)
+						tree.insert(k, "v");
+				}
+			}
+			String name = fraction == 0 ? "eager" : "lazy " + fraction;
+			report(name + " deletes", deletes);
+			report(name + " searches", searches);
+			if (fraction > 0)
+				System.out.printf("%s compactions: %.1fms per burst%n", name, compactNanos / 1e6 / bursts);
+		}
+	}
+
+	/**
+	 * private static void mpsc(String[] sizes) runs 1, 2, 4, ... producers
+	 * that insert items random keys in total, and one consumer that takes the
+	 * minimum until it took all of them (and yields while the queue is empty),
+	 * on a ConcurrentFibonacciHeap and on a PriorityBlockingQueue. Prints the
+	 * items per second, from the start to the last take, and the latencies of
+	 * the inserts.
+	 */
+	private static void mpsc(String[] sizes) throws InterruptedException {
+		int items = size(sizes, 0, 4_000_000);
+		int maxProducers = size(sizes, 1, 4);
+		for (int producers = 1; producers <= maxProducers; producers *= 2) {
+			for (boolean heap : new boolean[] { true, false }) {
+				Result result = null;
+				for (int round = 1; round <= ROUNDS; round++) {
+					ConcurrentFibonacciHeap fibonacci = new ConcurrentFibonacciHeap();
+					PriorityBlockingQueue<Integer> queue = new PriorityBlockingQueue<>();
+					Thread consumer = new Thread(() -> {
+						for (int taken = 0; taken < items;) {
+							if (heap) {
+								if (fibonacci.findMin() == null) {
+									Thread.yield();
+									continue;
+								}
+								fibonacci.deleteMin();
+							} else if (queue.poll() == null) {
+								Thread.yield();
+								continue;
+							}
+							taken++;
+						}
+					});
+					consumer.start();
+					long start = System.nanoTime();
+					result = timed(producers, items, (random, latencies, count) -> {
+						for (int i = 0; i < count; i++) {
+							int key = random.nextInt();
+							long begin = System.nanoTime();
+							if (heap)
+								fibonacci.insert(key);
+							else
+								queue.offer(key);
+							latencies.record(System.nanoTime() - begin);
+						}
+					});
+					consumer.join();
+					result.nanos = System.nanoTime() - start;
+				}
+				WorkloadTrace.Histogram h = result.latencies;
+				System.out.printf("%d producers, %-23s %9.0f items/s  insert p50=%dns p99=%dns p999=%dns%n",
+						producers, heap ? "ConcurrentFibonacciHeap" : "PriorityBlockingQueue",
+						items * 1e9 / result.nanos, h.percentile(0.5), h.percentile(0.99), h.percentile(0.999));
+			}
+		}
+	}
+
+	/**
+	 * interface Client is the loop of one thread of timed, which runs count
+	 * operations and records their latencies.
+	 */
+	interface Client {
+		void run(SplittableRandom random, WorkloadTrace.Histogram latencies, int count);
+	}
+
+	private static class Result {
+		final WorkloadTrace.Histogram latencies = new WorkloadTrace.Histogram();
+		long nanos;
+	}
+
+	/**
+	 * private static Result timed(int threads, int ops, Client client) runs the
+	 * client loop on the given number of threads that start together, ops in
+	 * total, and returns their combined latencies and the wall time of the run.
+	 */
+	private static Result timed(int threads, int ops, Client client) throws InterruptedException {
+		WorkloadTrace.Histogram[] latencies = new WorkloadTrace.Histogram[threads];
+		Thread[] workers = new Thread[threads];
+		CountDownLatch go = new CountDownLatch(1);
+		for (int t = 0; t < threads; t++) {
+			int id = t;
+			latencies[t] = new WorkloadTrace.Histogram();
+			int count = ops / threads + (t < ops % threads ? 1 : 0);
+			workers[t] = new Thread(() -> {
+				try {
+					go.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				client.run(new SplittableRandom(id), latencies[id], count);
+			});
+			workers[t].start();
+		}
+		long start = System.nanoTime();
+		go.countDown();
+		for (Thread worker : workers)
+			worker.join();
+		Result res = new Result();
+		res.nanos = System.nanoTime() - start;
+		for (WorkloadTrace.Histogram h : latencies)
+			res.latencies.add(h);
+		return res;
+	}
+
+	/**
+	 * private static class DelayQueueCache
+	 *
+	 * The baseline of ttl: the entries are in a ConcurrentHashMap, and every put
+	 * adds its entry to a DelayQueue. A put first sweeps the expired entries of
+	 * the queue, and removes them from the map unless they were replaced. A
+	 * replaced entry stays in the queue until it expires.
+	 */
+	private static class DelayQueueCache {
+		private final ConcurrentHashMap<Integer, Entry> map = new ConcurrentHashMap<>();
+		private final DelayQueue<Entry> queue = new DelayQueue<>();
+
+		String get(int key) {
+			Entry e = map.get(key);
+			return e == null || e.expiry <= System.nanoTime() ? null : e.value;
+		}
+
+		void put(int key, String value, long ttlMillis) {
+			for (Entry e; (e = queue.poll()) != null;)
+				map.remove(e.key, e);
+			Entry e = new Entry(key, value, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ttlMillis));
+			map.put(key, e);
+			queue.add(e);
+		}
+
+		void remove(int key) {
+			map.remove(key); // its entry leaves the queue when it expires
+		}
+
+		private static class Entry implements Delayed {
+			final int key;
+			final String value;
+			final long expiry; // System.nanoTime()
+
+			Entry(int key, String value, long expiry) {
+				this.key = key;
+				this.value = value;
+				this.expiry = expiry;
+			}
+
+			public long getDelay(TimeUnit unit) {
+				return unit.convert(expiry - System.nanoTime(), TimeUnit.NANOSECONDS);
+			}
+
+			public int compareTo(Delayed other) {
+				return Long.compare(expiry, ((Entry) other).expiry);
+			}
+		}
+	}
+
+	private static long collections() {
+		long res = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+			res += Math.max(gc.getCollectionCount(), 0);
+		return res;
+	}
+
+	private static long collectionMillis() {
+		long res = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+			res += Math.max(gc.getCollectionTime(), 0);
+		return res;
+	}
+
+	/**
+	 * private static AVLTree filled(int keys) returns a tree of the even keys in
+	 * [0, 2 * keys), so half of the searches of keys in [0, 2 * keys) hit.
+	 */
+	private static AVLTree filled(int keys) {
+		int[] sorted = new int[keys];
+		String[] values = new String[keys];
+		Arrays.fill(values, "v"); // one string, so big trees fit in the heap
+		for (int i = 0; i < keys; i++)
+			sorted[i] = 2 * i;
+		return AVLTree.fromSorted(sorted, values);
+	}
+
+	private static void report(String name, WorkloadTrace.Histogram h) {
+		System.out.printf("%-24s p50=%dns p99=%dns p999=%dns max=%dns%n", name, h.percentile(0.5),
+				h.percentile(0.99), h.percentile(0.999), h.max());
+	}
+
+	private static int size(String[] sizes, int i, int defaultSize) {
+		return sizes.length > i ? Integer.parseInt(sizes[i]) : defaultSize;
+	}
+
+	/**
+	 * private static long allocatedBytes() returns the bytes allocated by the
+	 * current thread so far, or -1 if the JVM doesn't count them.
+	 */
+	private static long allocatedBytes() {
+		if (THREADS instanceof com.sun.management.ThreadMXBean)
+			return ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(Thread.currentThread().getId());
+		return -1;
+	}
+}
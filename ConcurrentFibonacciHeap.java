@@ -0,0 +1,131 @@
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * ConcurrentFibonacciHeap A FibonacciHeap for many producer threads and one
+ * consumer thread. Producers never touch the heap: insert pushes the new node
+ * on a lock-free stack of pending nodes (a Treiber stack, chained through the
+ * next field of the nodes), with one compareAndSet. The consumer takes the
+ * whole stack with one getAndSet before findMin, deleteMin, decreaseKey and
+ * delete, and splices the taken nodes into the root list of the heap. A node
+ * returned by insert is a valid handle for decreaseKey and delete of the
+ * consumer, since these take the pending nodes first. Only insert may be
+ * called concurrently; every other method, isEmpty and size included, belongs
+ * to the single consumer thread, because draining moves nodes into the heap.
+ */
+public class ConcurrentFibonacciHeap {
+	private final FibonacciHeap heap = new FibonacciHeap(); // used by the consumer only
+	private final AtomicReference<FibonacciHeap.HeapNode> pending = new AtomicReference<>();
+
+	/**
+	 * public FibonacciHeap.HeapNode insert(int key)
+	 *
+	 * Creates a node which contains the given key and adds it to the pending
+	 * nodes. May be called by any thread. Returns the node. Runs in O(1)
+	 * complexity, plus a retry for every concurrent insert that won the race.
+	 */
+	public FibonacciHeap.HeapNode insert(int key) {
+		FibonacciHeap.HeapNode node = new FibonacciHeap.HeapNode(key);
+		FibonacciHeap.HeapNode head;
+		do {
+			head = pending.get();
+			node.next = head; // the stack is chained through next, null at its bottom
+		} while (!pending.compareAndSet(head, node));
+		return node;
+	}
+
+	/**
+	 * public FibonacciHeap.HeapNode findMin()
+	 *
+	 * Returns the node of the heap whose key is minimal, or null if the heap is
+	 * empty, after taking the pending nodes. Consumer only. runs in O(m)
+	 * complexity for m pending nodes, otherwise in O(1).
+	 */
+	public FibonacciHeap.HeapNode findMin() {
+		drain();
+		return heap.findMin();
+	}
+
+	/**
+	 * public void deleteMin()
+	 *
+	 * Deletes the node containing the minimum key, after taking the pending
+	 * nodes. Consumer only. runs in O(logn) amortized complexity, plus O(m) for m
+	 * pending nodes.
+	 */
+	public void deleteMin() {
+		drain();
+		heap.deleteMin();
+	}
+
+	/**
+	 * public void decreaseKey(FibonacciHeap.HeapNode x, int delta)
+	 *
+	 * Decreases the key of x by a non-negative value delta, after taking the
+	 * pending nodes (so x may be one of them). Consumer only. runs in O(1)
+	 * amortized complexity, plus O(m) for m pending nodes.
+	 */
+	public void decreaseKey(FibonacciHeap.HeapNode x, int delta) {
+		drain();
+		heap.decreaseKey(x, delta);
+	}
+
+	/**
+	 * public void delete(FibonacciHeap.HeapNode x)
+	 *
+	 * Deletes x from the heap, after taking the pending nodes. Consumer only.
+	 * runs in O(logn) amortized complexity, plus O(m) for m pending nodes.
+	 */
+	public void delete(FibonacciHeap.HeapNode x) {
+		drain();
+		heap.delete(x);
+	}
+
+	/**
+	 * public boolean isEmpty()
+	 *
+	 * Returns true if and only if the heap is empty, after taking the pending
+	 * nodes. Consumer only.
+	 */
+	public boolean isEmpty() {
+		drain();
+		return heap.isEmpty();
+	}
+
+	/**
+	 * public int size()
+	 *
+	 * Returns the number of nodes in the heap, after taking the pending nodes.
+	 * Consumer only.
+	 */
+	public int size() {
+		drain();
+		return heap.size();
+	}
+
+	/**
+	 * private void drain() takes all the pending nodes at once, closes their stack
+	 * into a circular list outside the heap, with the prev links and the minimum,
+	 * and splices it into the root list of the heap with insertRing, which adds m
+	 * to size and treeNum in one step. Nodes pushed after the getAndSet stay
+	 * pending for the next call. runs in O(m) complexity for m pending nodes, and
+	 * touches the heap in O(1).
+	 */
+	private void drain() {
+		FibonacciHeap.HeapNode top = pending.getAndSet(null);
+		if (top == null)
+			return;
+		FibonacciHeap.HeapNode min = top;
+		FibonacciHeap.HeapNode last = top;
+		int count = 1;
+		while (last.next != null) { // the stack is chained through next, null at its bottom
+			last.next.prev = last;
+			last = last.next;
+			if (last.key < min.key)
+				min = last;
+			count++;
+		}
+		last.next = top; // closing the ring
+		top.prev = last;
+		heap.insertRing(top, min, count);
+	}
+}
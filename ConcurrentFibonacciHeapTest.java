@@ -0,0 +1,110 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * ConcurrentFibonacciHeapTest Checks of ConcurrentFibonacciHeap against a
+ * PriorityQueue, with one thread and with several producers, run by main (java
+ * ConcurrentFibonacciHeapTest); a failed check throws an AssertionError.
+ */
+public class ConcurrentFibonacciHeapTest {
+
+	public static void main(String[] args) throws InterruptedException {
+		randomOperations();
+		producers();
+		System.out.println("ConcurrentFibonacciHeapTest: ok");
+	}
+
+	/**
+	 * Runs of pending inserts, then deleteMins, decreaseKeys and deletes on
+	 * pending and drained handles, must keep the minimum and size of a
+	 * PriorityQueue.
+	 */
+	static void randomOperations() {
+		Random random = new Random(1);
+		ConcurrentFibonacciHeap heap = new ConcurrentFibonacciHeap();
+		PriorityQueue<Integer> expected = new PriorityQueue<>();
+		List<FibonacciHeap.HeapNode> handles = new ArrayList<>();
+		for (int op = 0; op < 20000; op++) {
+			for (int i = random.nextInt(1 << random.nextInt(8)); i > 0; i--) { // pending until the next call
+				int key = random.nextInt(100000);
+				handles.add(heap.insert(key));
+				expected.add(key);
+			}
+			int choice = random.nextInt(4);
+			if (choice == 0 && !handles.isEmpty()) {
+				FibonacciHeap.HeapNode x = handles.get(random.nextInt(handles.size()));
+				int delta = random.nextInt(1000);
+				expected.remove(x.getKey());
+				expected.add(x.getKey() - delta);
+				heap.decreaseKey(x, delta);
+			} else if (choice == 1 && !handles.isEmpty()) {
+				FibonacciHeap.HeapNode x = handles.remove(random.nextInt(handles.size()));
+				expected.remove(x.getKey());
+				heap.delete(x);
+			} else if (!expected.isEmpty()) {
+				FibonacciHeap.HeapNode min = heap.findMin();
+				check(min.getKey() == expected.poll(), "wrong minimum at " + op);
+				heap.deleteMin();
+				handles.remove(min);
+			}
+			check(heap.size() == expected.size(), "size " + heap.size() + " instead of " + expected.size());
+			check(heap.isEmpty() == expected.isEmpty(), "isEmpty");
+		}
+	}
+
+	/**
+	 * Producers on several threads, while the consumer takes the minimum, must
+	 * hand over every key once, and the keys left after the producers end must
+	 * come out sorted.
+	 */
+	static void producers() throws InterruptedException {
+		int threads = 4;
+		int perThread = 50000;
+		ConcurrentFibonacciHeap heap = new ConcurrentFibonacciHeap();
+		Thread[] producers = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			int id = t;
+			producers[t] = new Thread(() -> {
+				for (int i = 0; i < perThread; i++)
+					heap.insert(i * threads + id); // every key once
+			});
+			producers[t].start();
+		}
+		boolean[] taken = new boolean[threads * perThread];
+		int count = 0;
+		boolean running = true;
+		while (running) {
+			running = false;
+			for (Thread producer : producers)
+				running |= producer.isAlive();
+			if (count % 3 != 0 && !heap.isEmpty()) { // some keys are left for the sorted drain
+				int key = heap.findMin().getKey();
+				check(!taken[key], "key " + key + " was taken twice");
+				taken[key] = true;
+				heap.deleteMin();
+			}
+			count++;
+		}
+		for (Thread producer : producers)
+			producer.join();
+		int last = -1;
+		while (!heap.isEmpty()) {
+			int key = heap.findMin().getKey();
+			check(key > last && !taken[key], "key " + key + " after " + last);
+			taken[key] = true;
+			last = key;
+			heap.deleteMin();
+		}
+		boolean[] all = new boolean[taken.length];
+		Arrays.fill(all, true);
+		check(Arrays.equals(taken, all), "a key was lost");
+	}
+
+	static void check(boolean condition, String message) {
+		if (!condition)
+			throw new AssertionError(message);
+	}
+}
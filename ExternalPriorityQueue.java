@@ -0,0 +1,345 @@
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * ExternalPriorityQueue A priority queue of ints that may hold more keys than
+ * fit in memory. The smallest keys are kept in a FibonacciHeap of at most budget
+ * nodes, and the larger keys are kept on disk, in sorted run files. Once keys
+ * were spilled, every key in memory is at most cut and every key on disk is at
+ * least cut, so the minimum is always in memory. A new key below cut (or any key
+ * while nothing is spilled) goes to the heap; a larger one goes to a
+ * buffer of pending keys, which is sorted and written as a new run when it is
+ * full. When the heap reaches budget nodes, its larger half is written as a run.
+ * When it drains below budget/4, it is refilled to budget/2 with the smallest
+ * keys on disk, by merging the runs: every run is a node of a second
+ * FibonacciHeap, keyed by its next key. Runs are written and read sequentially,
+ * in batches of BUFFER bytes, and are deleted once they are read. I/O errors are
+ * thrown as UncheckedIOException, so insert, findMin and deleteMin keep the
+ * signatures of FibonacciHeap. No file is created before the first spill, and
+ * close deletes the run files. A queue is not thread safe.
+ */
+public class ExternalPriorityQueue implements Closeable {
+	private static final int BUFFER = 1 << 13; // bytes of the I/O buffer of a run
+	private static final int MAX_RUNS = 64; // more runs are merged into one, so the merge stays narrow
+
+	private final int budget;
+	private final Path dir;
+	private FibonacciHeap heap = new FibonacciHeap(); // the smallest keys
+	private boolean spilled = false; // true iff there are keys on disk or pending, and cut bounds them
+	private int cut = 0; // if spilled, keys in memory are <= cut, keys on disk and pending are >= cut
+	private final int[] pending; // keys >= cut that are not written yet
+	private int pendingSize = 0;
+	private final FibonacciHeap heads = new FibonacciHeap(); // a Run per run file, keyed by its next key
+	private int runs = 0;
+	private long onDisk = 0; // keys in the run files that were not read yet
+	private final ByteBuffer out = ByteBuffer.allocateDirect(BUFFER);
+
+	/**
+	 * public ExternalPriorityQueue(int budget, Path dir)
+	 *
+	 * Creates an empty queue that keeps at most budget heap nodes and budget/2
+	 * pending keys in memory, and its run files in the directory dir. budget >= 4.
+	 */
+	public ExternalPriorityQueue(int budget, Path dir) {
+		if (budget < 4)
+			throw new IllegalArgumentException("the memory budget must be at least 4 keys: " + budget);
+		this.budget = budget;
+		this.dir = dir;
+		this.pending = new int[budget / 2];
+	}
+
+	/**
+	 * public void insert(int key)
+	 *
+	 * Adds key to the queue. runs in O(1) amortized complexity, plus O(logb) per
+	 * key for the sorting of the spilled keys, where b is the budget.
+	 */
+	public void insert(int key) {
+		if (!spilled || key < cut) {
+			heap.insert(key);
+			if (heap.size() >= budget)
+				spill();
+		} else {
+			pending[pendingSize++] = key;
+			if (pendingSize == pending.length)
+				flushPending();
+		}
+	}
+
+	/**
+	 * public FibonacciHeap.HeapNode findMin()
+	 *
+	 * Returns the node of the minimal key in the queue, or null if the queue is
+	 * empty. The node is only valid until the next insert or deleteMin, since
+	 * spills rebuild the heap. runs in O(1) complexity.
+	 */
+	public FibonacciHeap.HeapNode findMin() {
+		if (heap.isEmpty() && onDisk + pendingSize > 0)
+			refill();
+		return heap.findMin();
+	}
+
+	/**
+	 * public void deleteMin()
+	 *
+	 * Deletes the minimal key of the queue, and refills the heap from disk if it
+	 * drained below budget/4. runs in O(logb) amortized complexity, plus
+	 * O(logr) per key for the merge of r runs.
+	 */
+	public void deleteMin() {
+		if (findMin() == null)
+			return;
+		heap.deleteMin();
+		if (heap.size() < budget / 4 && onDisk + pendingSize > 0)
+			refill();
+	}
+
+	/**
+	 * public boolean isEmpty()
+	 *
+	 * Returns true if and only if the queue is empty. runs in O(1) complexity.
+	 */
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * public long size()
+	 *
+	 * Returns the number of keys in the queue, in memory and on disk. runs in O(1)
+	 * complexity.
+	 */
+	public long size() {
+		return heap.size() + pendingSize + onDisk;
+	}
+
+	/**
+	 * public int runs()
+	 *
+	 * Returns the number of run files. runs in O(1) complexity.
+	 */
+	public int runs() {
+		return runs;
+	}
+
+	/**
+	 * public void close() throws IOException
+	 *
+	 * Closes and deletes the run files, and empties the queue.
+	 */
+	public void close() throws IOException {
+		while (!heads.isEmpty()) {
+			((Run) heads.findMin()).channel.close();
+			heads.deleteMin();
+		}
+		heap = new FibonacciHeap();
+		spilled = false;
+		pendingSize = 0;
+		runs = 0;
+		onDisk = 0;
+	}
+
+	/**
+	 * private void spill() writes the larger half of the heap as a run, and
+	 * rebuilds the heap from the smaller half. the keys of the heap are collected
+	 * by a walk of its trees and sorted. runs in O(blogb) complexity.
+	 */
+	private void spill() {
+		int[] keys = new int[heap.size()];
+		int n = 0;
+		ArrayDeque<FibonacciHeap.HeapNode> lists = new ArrayDeque<>(); // the first nodes of sibling lists to walk
+		lists.push(heap.first);
+		while (!lists.isEmpty()) {
+			FibonacciHeap.HeapNode first = lists.pop();
+			FibonacciHeap.HeapNode x = first;
+			do {
+				keys[n++] = x.key;
+				if (x.child != null)
+					lists.push(x.child);
+				x = x.next;
+			} while (x != first);
+		}
+		Arrays.sort(keys);
+		int keep = keys.length / 2;
+		heap = FibonacciHeap.fromArray(Arrays.copyOf(keys, keep));
+		cut = keys[keep]; // the spilled keys are >= cut, and so are the keys that were on disk
+		spilled = true;
+		writeRun(keys, keep, keys.length);
+	}
+
+	/**
+	 * private void flushPending() writes the pending keys, sorted, as a run. runs
+	 * in O(mlogm) complexity for m pending keys.
+	 */
+	private void flushPending() {
+		Arrays.sort(pending, 0, pendingSize);
+		writeRun(pending, 0, pendingSize);
+		pendingSize = 0;
+	}
+
+	/**
+	 * private void refill() moves the smallest keys on disk to the heap, until it
+	 * holds budget/2 keys or the disk is empty, and sets cut to the smallest key
+	 * left on disk, if any. runs in O(blogr) complexity for r runs.
+	 */
+	private void refill() {
+		if (pendingSize > 0)
+			flushPending();
+		for (int want = budget / 2 - heap.size(); want > 0 && !heads.isEmpty(); want--)
+			heap.insert(takeHead());
+		spilled = !heads.isEmpty();
+		if (spilled)
+			cut = heads.findMin().key;
+	}
+
+	/**
+	 * private void writeRun(int[] keys, int from, int to) writes the sorted
+	 * keys[from..to) as a new run. if there are MAX_RUNS runs already, they are
+	 * merged into one first. runs in O(to - from) complexity.
+	 */
+	private void writeRun(int[] keys, int from, int to) {
+		if (from == to)
+			return;
+		if (runs >= MAX_RUNS)
+			mergeRuns();
+		Run run = newRun();
+		for (int i = from; i < to; i++)
+			append(run, keys[i]);
+		open(run);
+	}
+
+	/**
+	 * private void mergeRuns() merges all the runs into one new run, by reading
+	 * them in key order. runs in O(dlogr) complexity for d keys on disk in r
+	 * runs.
+	 */
+	private void mergeRuns() {
+		Run run = newRun();
+		while (!heads.isEmpty())
+			append(run, takeHead());
+		open(run);
+	}
+
+	/**
+	 * private int takeHead() removes the smallest key on disk from its run and
+	 * returns it. the run moves to its next key, or is closed if it is done. runs
+	 * in O(logr) amortized complexity.
+	 */
+	private int takeHead() {
+		Run run = (Run) heads.findMin();
+		int res = run.key;
+		onDisk--;
+		try {
+			if (run.remaining > 0) { // the key of the run only grows
+				heads.updateKey(run, run.read());
+				return res;
+			}
+			heads.deleteMin();
+			run.channel.close(); // the file is deleted on close
+			runs--;
+			return res;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * private Run newRun() creates an empty run file in dir.
+	 */
+	private Run newRun() {
+		try {
+			Path file = Files.createTempFile(dir, "run", ".bin");
+			return new Run(FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+					StandardOpenOption.DELETE_ON_CLOSE));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * private void append(Run run, int key) adds key at the end of the run that
+	 * is being written. the keys are written in batches of BUFFER bytes.
+	 */
+	private void append(Run run, int key) {
+		if (!out.hasRemaining())
+			flush(run);
+		out.putInt(key);
+		run.remaining++;
+		onDisk++;
+	}
+
+	/**
+	 * private void open(Run run) writes the rest of the run, and adds it to the
+	 * merge with its first key.
+	 */
+	private void open(Run run) {
+		flush(run);
+		try {
+			run.key = run.read();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		heads.insertNode(run);
+		runs++;
+	}
+
+	private void flush(Run run) {
+		out.flip();
+		try {
+			while (out.hasRemaining())
+				run.channel.write(out);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		out.clear();
+	}
+
+	/**
+	 * private static class Run
+	 *
+	 * A heap node whose key is the next key of a run file, with the file and a
+	 * buffer of the keys after it. remaining is the number of keys of the file
+	 * that were not read yet.
+	 */
+	private static class Run extends FibonacciHeap.HeapNode {
+		final FileChannel channel;
+		final ByteBuffer in = ByteBuffer.allocateDirect(BUFFER);
+		long position = 0; // where the next batch is read from
+		long remaining = 0;
+
+		Run(FileChannel channel) {
+			super(0);
+			this.channel = channel;
+			in.flip(); // empty
+		}
+
+		/**
+		 * int read() returns the next key of the file. reads the next batch of
+		 * keys when the buffer is empty.
+		 */
+		int read() throws IOException {
+			if (!in.hasRemaining()) {
+				in.clear();
+				in.limit((int) Math.min(in.capacity(), 4 * remaining));
+				while (in.hasRemaining()) {
+					int n = channel.read(in, position);
+					if (n < 0)
+						throw new EOFException("a run file is truncated");
+					position += n;
+				}
+				in.flip();
+			}
+			remaining--;
+			return in.getInt();
+		}
+	}
+}
@@ -1,3 +1,13 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
 /**
  * FibonacciHeap An implementation of a Fibonacci Heap over Integers. The heap
  * is represented by two variables of the class HeapNode - one that points to
@@ -39,6 +49,99 @@ public class FibonacciHeap {
 		return node;
 	}
 
+	/**
+	 * public static FibonacciHeap fromArray(int[] keys)
+	 *
+	 * Creates a heap that contains the given keys, by inserting them one by
+	 * one. Runs in O(n) complexity.
+	 */
+	public static FibonacciHeap fromArray(int[] keys) {
+		return fromArray(keys, null);
+	}
+
+	/**
+	 * public static FibonacciHeap fromArray(int[] keys, HeapNode[] handles)
+	 *
+	 * Creates a heap that contains the given keys, and if handles isn't null,
+	 * sets handles[i] to the node of keys[i], for later calls to decreaseKey or
+	 * delete. Runs in O(n) complexity.
+	 */
+	public static FibonacciHeap fromArray(int[] keys, HeapNode[] handles) {
+		return build(keys, handles, 0, keys.length);
+	}
+
+	/**
+	 * public static FibonacciHeap fromArrayParallel(int[] keys, HeapNode[] handles)
+	 *
+	 * Same as fromArray(keys, handles), using the common ForkJoinPool. Runs in
+	 * O(n/p + logn) complexity with p threads.
+	 */
+	public static FibonacciHeap fromArrayParallel(int[] keys, HeapNode[] handles) {
+		return fromArrayParallel(keys, handles, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * public static FibonacciHeap fromArrayParallel(int[] keys, HeapNode[]
+	 * handles, ForkJoinPool pool)
+	 *
+	 * Same as fromArray(keys, handles), with the work split between the threads
+	 * of pool: ranges of the array are built into separate heaps, which are
+	 * melded in O(1) each. Building only inserts nodes, so no links or cuts are
+	 * made and the static counters are not touched by the threads. Runs in
+	 * O(n/p + logn) complexity with p threads.
+	 */
+	public static FibonacciHeap fromArrayParallel(int[] keys, HeapNode[] handles, ForkJoinPool pool) {
+		return pool.invoke(new BuildTask(keys, handles, 0, keys.length));
+	}
+
+	/**
+	 * private static FibonacciHeap build(int[] keys, HeapNode[] handles, int
+	 * from, int to) creates a heap of keys[from..to-1], and sets their handles if
+	 * handles isn't null. Runs in O(to - from) complexity.
+	 */
+	private static FibonacciHeap build(int[] keys, HeapNode[] handles, int from, int to) {
+		FibonacciHeap heap = new FibonacciHeap();
+		for (int i = from; i < to; i++) {
+			HeapNode node = heap.insert(keys[i]);
+			if (handles != null)
+				handles[i] = node;
+		}
+		return heap;
+	}
+
+	/**
+	 * private static class BuildTask
+	 *
+	 * Builds a heap of keys[from..to-1]: small ranges directly, bigger ranges
+	 * by building their halves in parallel and melding them.
+	 */
+	private static class BuildTask extends RecursiveTask<FibonacciHeap> {
+		private static final long serialVersionUID = 1L;
+		private static final int THRESHOLD = 1 << 14; // ranges up to this size are built by one thread
+		private final int[] keys;
+		private final HeapNode[] handles;
+		private final int from;
+		private final int to;
+
+		BuildTask(int[] keys, HeapNode[] handles, int from, int to) {
+			this.keys = keys;
+			this.handles = handles;
+			this.from = from;
+			this.to = to;
+		}
+
+		protected FibonacciHeap compute() {
+			if (to - from <= THRESHOLD)
+				return build(keys, handles, from, to);
+			int mid = (from + to) >>> 1;
+			BuildTask left = new BuildTask(keys, handles, from, mid);
+			left.fork(); // the left half is built by another thread, if there is one
+			FibonacciHeap heap = new BuildTask(keys, handles, mid, to).compute();
+			heap.meld(left.join()); // O(1)
+			return heap;
+		}
+	}
+
 	/**
 	 * public void insertNode(HeapNode node) updates the input node to be the first
 	 * in the heap, and connects it to other nodes in the heap. updates the fields
@@ -63,6 +166,32 @@ public class FibonacciHeap {
 		return;
 	}
 
+	/**
+	 * void insertRing(HeapNode ring, HeapNode ringMin, int count) adds a circular
+	 * list of count new nodes, linked through next and prev, as roots of the heap,
+	 * with one splice of the root lists as meld does. ringMin is a node of the
+	 * list with a minimal key. updates the fields size, min and treeNum. The nodes
+	 * are assumed to be unmarked and not to belong to any heap. Runs in O(1)
+	 * complexity.
+	 */
+	void insertRing(HeapNode ring, HeapNode ringMin, int count) {
+		size += count;
+		treeNum += count;
+		if (first == null) { // the list becomes the root list
+			first = ring;
+			min = ringMin;
+			return;
+		}
+		HeapNode last = ring.prev; // the list goes before the current first node
+		first.prev.next = ring;
+		ring.prev = first.prev;
+		last.next = first;
+		first.prev = last;
+		first = ring;
+		if (ringMin.key < min.key) // updating min field if needed
+			min = ringMin;
+	}
+
 	/**
 	 * public void deleteMin()
 	 *
@@ -143,14 +272,14 @@ public class FibonacciHeap {
 		HeapNode temp = new HeapNode(Integer.MAX_VALUE);
 		pointer = temp;
 		int cnt = 0;
-		min = temp;
+		min = null; // picked among the real roots only, so a root with key Integer.MAX_VALUE is never beaten by temp
 		for (HeapNode node : sl) // all trees of the heap are in sl array
 			if (node != null) {
 				pointer.next = node; // connecting roots of all subtrees
 				node.prev = pointer; // same
 				pointer = node; 
 				cnt++; // count trees on heap
-				if (pointer.key < min.key) // updating min
+				if (min == null || pointer.key < min.key) // updating min
 					min = pointer;
 			}
 
@@ -181,8 +310,19 @@ public class FibonacciHeap {
 	 * complexity.
 	 */
 	public void meld(FibonacciHeap heap2) {
+		if (heap2.isEmpty()) // nothing to add
+			return;
+		if (this.isEmpty()) { // the heap takes the trees of heap2 as they are
+			first = heap2.first;
+			min = heap2.min;
+			size = heap2.size;
+			treeNum = heap2.treeNum;
+			markedNodes = heap2.markedNodes;
+			return;
+		}
 		size += heap2.size; // updating fields
 		treeNum += heap2.treeNum;
+		markedNodes += heap2.markedNodes;
 		HeapNode first2 = heap2.first; // linking heaps
 		HeapNode firstprev = first.prev;
 		firstprev.next = first2;
@@ -250,8 +390,11 @@ public class FibonacciHeap {
 	 */
 	public void decreaseKey(HeapNode x, int delta) {
 		x.key -= delta;
-		if (x.parent == null) // no need to cut above
+		if (x.parent == null) { // no need to cut above, but x may be the new minimum
+			if (x.key < min.key)
+				min = x;
 			return;
+		}
 		if (x.key >= x.parent.key) // no need to cut, structure is legal
 			return;
 		if (!x.mark)
@@ -260,11 +403,51 @@ public class FibonacciHeap {
 		cutNode(x); // there's a need to cut
 	}
 
+	/**
+	 * public void updateKey(HeapNode x, int newKey)
+	 *
+	 * Changes the key of the node x to newKey, in either direction, and keeps
+	 * x as the node of the key (the handle stays valid). A decrease is a
+	 * decreaseKey. An increase of the minimum deletes it and reinserts x as a
+	 * new root. Any other increase only cuts the children of x whose keys are now
+	 * smaller than newKey, and marks x or cuts it (cascading up) for the lost
+	 * children, as cutNode does. runs in O(logn) amortized complexity for the
+	 * minimum, and in O(rank(x)) amortized complexity otherwise.
+	 */
+	public void updateKey(HeapNode x, int newKey) {
+		if (newKey <= x.key) {
+			decreaseKey(x, x.key - newKey);
+			return;
+		}
+		if (x == min) { // the new minimum must be found by deleteMin
+			deleteMin();
+			x.rank = 0;
+			x.mark = false;
+			x.child = null;
+			x.parent = null;
+			x.next = x;
+			x.prev = x;
+			x.key = newKey;
+			insertNode(x); // reinserting the same node
+			return;
+		}
+		x.key = newKey;
+		HeapNode child = x.child;
+		for (int i = x.rank; i > 0; i--) { // the children are passed once, by the original rank
+			HeapNode next = child.next; // saved before child is cut
+			if (child.key < x.key) {
+				cut(child);
+				cutNode(x); // x lost a child, mark it or cut it
+			}
+			child = next;
+		}
+	}
+
 	/**
 	 * private void cutNode(HeapNode x) recieves a node and performs cuts from it
 	 * and up to the root, recursively. checks the marks of the nodes and updates
-	 * them. uses insertNode (HeapNode x) in order to insert the node in its new
-	 * place. runs in O(logn) complexity at worst case.
+	 * them. uses cut (HeapNode x) in order to move the node to the root list.
+	 * runs in O(logn) complexity at worst case.
 	 */
 	//@pre x.parent != null
 	private void cutNode(HeapNode x) {
@@ -276,7 +459,19 @@ public class FibonacciHeap {
 			}
 			return; // no cut is made
 		}
-		cuts++; // this iteration will perform a cut
+		HeapNode parent = x.parent;
+		cut(x);
+		cutNode(parent); // recursively up the tree, perhaps we need to keep cutting until the root.
+	}
+
+	/**
+	 * private void cut(HeapNode x) disconnects x (with its subtree) from its
+	 * parent, and reinserts it as a new unmarked root using insertNode (HeapNode
+	 * x). the parent is not marked. runs in O(1) complexity.
+	 */
+	//@pre x.parent != null
+	private void cut(HeapNode x) {
+		cuts++;
 		HeapNode parent = x.parent;
 		parent.rank--; // due to the cut, rank is degraded
 		if (x.next == x) // x has no siblings, therefore its parent remains with no children
@@ -291,11 +486,11 @@ public class FibonacciHeap {
 		x.next = x;
 		x.prev = x;
 		x.parent = null;
-		x.mark = false; // canceling the mark, the cut was made
-		markedNodes--;
+		if (x.mark)
+			markedNodes--;
+		x.mark = false; // roots are not marked
 		size--; // insertNode will increase the size, so we decrease it
 		insertNode(x); // reinserting x as a new node
-		cutNode(parent); // recursively up the tree, perhaps we need to keep cutting until the root.
 	}
 
 	/**
@@ -333,6 +528,204 @@ public class FibonacciHeap {
 		return cuts; // should be replaced by student code
 	}
 
+	private static final int SNAPSHOT_MAGIC = 0x46494248; // "FIBH"
+	private static final int SNAPSHOT_VERSION = 1;
+	private static final int SNAPSHOT_NODE = 2 * 4 + 1; // bytes of key, rank, mark
+	private static final int SNAPSHOT_BUFFER = 1 << 16;
+
+	/**
+	 * public void writeTo(WritableByteChannel channel, HeapNode[] ordinals)
+	 * throws IOException
+	 *
+	 * Writes a snapshot of the forest to channel: a header with the size,
+	 * treeNum and markedNodes, the key, rank and mark of every node in preorder -
+	 * the roots from first, and the children of every node from child, right
+	 * after it - and the ordinal of min. The ordinal of a node is its place in
+	 * that order, and if ordinals isn't null, ordinals[i] is set to the node of
+	 * ordinal i, so the handles can be matched with the ones of readFrom. The
+	 * heap isn't changed. The walk goes down by child and up by parent, with no
+	 * stack. runs in O(n) complexity.
+	 */
+	public void writeTo(WritableByteChannel channel, HeapNode[] ordinals) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(SNAPSHOT_BUFFER);
+		buf.putInt(SNAPSHOT_MAGIC).putInt(SNAPSHOT_VERSION).putInt(size).putInt(treeNum).putInt(markedNodes);
+		int minOrdinal = -1;
+		int ordinal = 0;
+		HeapNode pointer = first;
+		while (pointer != null) {
+			if (buf.remaining() < SNAPSHOT_NODE)
+				flush(channel, buf);
+			if (pointer == min)
+				minOrdinal = ordinal;
+			if (ordinals != null)
+				ordinals[ordinal] = pointer;
+			ordinal++;
+			buf.putInt(pointer.key).putInt(pointer.rank).put((byte) (pointer.mark ? 1 : 0));
+			if (pointer.child != null) { // the children come right after the node
+				pointer = pointer.child;
+				continue;
+			}
+			while (pointer != null) { // climbing while pointer is the last in its level
+				HeapNode start = pointer.parent == null ? first : pointer.parent.child;
+				if (pointer.next != start) {
+					pointer = pointer.next;
+					break;
+				}
+				pointer = pointer.parent;
+			}
+		}
+		if (buf.remaining() < 4)
+			flush(channel, buf);
+		buf.putInt(minOrdinal);
+		flush(channel, buf);
+	}
+
+	/**
+	 * public static FibonacciHeap readFrom(ReadableByteChannel channel,
+	 * HeapNode[] handles) throws IOException
+	 *
+	 * Reads a snapshot written by writeTo and rebuilds the same forest: every
+	 * node gets its key, rank and mark, and the next rank nodes of the preorder
+	 * are its children, in their order. No links are made, so treeNum,
+	 * markedNodes and the potential are the same as in the written heap. If
+	 * handles isn't null, handles[i] is set to the node of ordinal i. The
+	 * parents whose children are still being read are kept in an explicit
+	 * stack. Throws IOException if the channel doesn't hold a valid snapshot;
+	 * the node count of the header is checked against the size of a seekable
+	 * channel before anything is allocated for it, and for other channels the
+	 * array of nodes grows as they are read. The forest is checked as it is
+	 * read: ranks are not negative, no key is smaller than the key of its
+	 * parent, roots are not marked, the roots and the marked nodes match the
+	 * counts of the header, and the minimum is a root with the smallest key.
+	 * Throws IllegalArgumentException if handles is shorter than the snapshot.
+	 * runs in O(n) complexity.
+	 */
+	public static FibonacciHeap readFrom(ReadableByteChannel channel, HeapNode[] handles) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(SNAPSHOT_BUFFER);
+		buf.flip(); // empty, filled by fill
+		fill(channel, buf, 5 * 4);
+		if (buf.getInt() != SNAPSHOT_MAGIC)
+			throw new IOException("not a FibonacciHeap snapshot");
+		int version = buf.getInt();
+		if (version != SNAPSHOT_VERSION)
+			throw new IOException("unsupported snapshot version " + version);
+		int n = buf.getInt();
+		int trees = buf.getInt();
+		int marked = buf.getInt();
+		if (n < 0)
+			throw new IOException("corrupt FibonacciHeap snapshot: " + n + " nodes");
+		if (channel instanceof SeekableByteChannel) { // the nodes and the trailer must be in the channel
+			SeekableByteChannel seekable = (SeekableByteChannel) channel;
+			long left = seekable.size() - seekable.position() + buf.remaining();
+			if ((long) n * SNAPSHOT_NODE + 4 > left)
+				throw new EOFException("FibonacciHeap snapshot is truncated: " + n + " nodes in " + left + " bytes");
+		}
+		if (handles != null && handles.length < n)
+			throw new IllegalArgumentException("the snapshot has " + n + " nodes, more than handles can hold");
+		FibonacciHeap heap = new FibonacciHeap();
+		HeapNode[] nodes = handles != null ? handles : new HeapNode[Math.min(n, SNAPSHOT_BUFFER / SNAPSHOT_NODE)];
+		HeapNode[] parents = new HeapNode[16]; // stack of nodes whose children are being read
+		int[] missing = new int[16]; // missing[i] is the number of children of parents[i] still to read
+		int depth = 0;
+		int roots = 0;
+		int marks = 0;
+		HeapNode minRoot = null; // the first root with the smallest key
+		for (int i = 0; i < n; i++) {
+			fill(channel, buf, SNAPSHOT_NODE);
+			HeapNode node = new HeapNode(buf.getInt());
+			node.rank = buf.getInt();
+			node.mark = buf.get() != 0;
+			if (node.rank < 0)
+				throw new IOException("corrupt FibonacciHeap snapshot: node " + i + " has rank " + node.rank);
+			if (node.mark)
+				marks++;
+			if (i == nodes.length) // only without handles, when the size of the channel is not known
+				nodes = Arrays.copyOf(nodes, 2 * i);
+			nodes[i] = node;
+			if (depth == 0) { // a root, added last to the root list
+				if (node.mark)
+					throw new IOException("corrupt FibonacciHeap snapshot: root " + i + " is marked");
+				roots++;
+				if (minRoot == null || node.key < minRoot.key)
+					minRoot = node;
+				if (heap.first == null)
+					heap.first = node;
+				else
+					append(heap.first, node);
+			} else {
+				HeapNode parent = parents[depth - 1];
+				if (node.key < parent.key)
+					throw new IOException("corrupt FibonacciHeap snapshot: node " + i + " is smaller than its parent");
+				node.parent = parent;
+				if (parent.child == null)
+					parent.child = node;
+				else
+					append(parent.child, node);
+				if (--missing[depth - 1] == 0)
+					depth--;
+			}
+			if (node.rank > 0) { // its children are the next nodes
+				if (depth == parents.length) {
+					parents = Arrays.copyOf(parents, 2 * depth);
+					missing = Arrays.copyOf(missing, 2 * depth);
+				}
+				parents[depth] = node;
+				missing[depth++] = node.rank;
+			}
+		}
+		fill(channel, buf, 4);
+		int minOrdinal = buf.getInt();
+		if (depth != 0 || (n == 0) != (minOrdinal == -1) || minOrdinal < -1 || minOrdinal >= n)
+			throw new IOException("corrupt FibonacciHeap snapshot");
+		if (roots != trees || marks != marked)
+			throw new IOException("corrupt FibonacciHeap snapshot: " + roots + " trees and " + marks
+					+ " marked nodes, the header has " + trees + " and " + marked);
+		if (n > 0 && (nodes[minOrdinal].parent != null || nodes[minOrdinal].key != minRoot.key))
+			throw new IOException("corrupt FibonacciHeap snapshot: the minimum is not the smallest root");
+		heap.size = n;
+		heap.treeNum = trees;
+		heap.markedNodes = marked;
+		heap.min = n == 0 ? null : nodes[minOrdinal];
+		return heap;
+	}
+
+	/**
+	 * private static void append(HeapNode start, HeapNode node) adds the
+	 * detached node as the last in the level of start. runs in O(1) complexity.
+	 */
+	private static void append(HeapNode start, HeapNode node) {
+		node.next = start;
+		node.prev = start.prev;
+		start.prev.next = node;
+		start.prev = node;
+	}
+
+	/**
+	 * private static void flush(WritableByteChannel channel, ByteBuffer buf)
+	 * writes the content of buf to channel and clears it.
+	 */
+	private static void flush(WritableByteChannel channel, ByteBuffer buf) throws IOException {
+		buf.flip();
+		while (buf.hasRemaining())
+			channel.write(buf);
+		buf.clear();
+	}
+
+	/**
+	 * private static void fill(ReadableByteChannel channel, ByteBuffer buf, int
+	 * bytes) reads from channel until buf has at least the given number of bytes
+	 * to get. Throws EOFException if the channel ends before.
+	 */
+	private static void fill(ReadableByteChannel channel, ByteBuffer buf, int bytes) throws IOException {
+		if (buf.remaining() >= bytes)
+			return;
+		buf.compact();
+		while (buf.position() < bytes)
+			if (channel.read(buf) < 0)
+				throw new EOFException("FibonacciHeap snapshot is truncated");
+		buf.flip();
+	}
+
 	/**
 	 * public static int[] kMin(FibonacciHeap H, int k)
 	 *
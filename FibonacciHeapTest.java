@@ -0,0 +1,322 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * FibonacciHeapTest Checks of FibonacciHeap and of the classes built on it, run
+ * by main (java FibonacciHeapTest); a failed check throws an AssertionError.
+ */
+public class FibonacciHeapTest {
+
+	public static void main(String[] args) throws IOException {
+		maxValueKeys();
+		mergeMaxValueKeys();
+		corruptSnapshotHeader();
+		corruptSnapshotForest();
+		snapshotRoundTrip();
+		externalMaxValueKeys();
+		updateKey();
+		System.out.println("FibonacciHeapTest: ok");
+	}
+
+	/**
+	 * deleteMin must leave min at a real root when every remaining root has the
+	 * key Integer.MAX_VALUE, not at the sentinel it links the roots with.
+	 */
+	static void maxValueKeys() {
+		FibonacciHeap heap = new FibonacciHeap();
+		FibonacciHeap.HeapNode[] nodes = new FibonacciHeap.HeapNode[9];
+		nodes[0] = heap.insert(1);
+		for (int i = 1; i < nodes.length; i++)
+			nodes[i] = heap.insert(Integer.MAX_VALUE);
+		heap.deleteMin();
+		for (int left = nodes.length - 1; left > 0; left--) {
+			check(heap.size() == left, "size " + heap.size() + " instead of " + left);
+			FibonacciHeap.HeapNode min = heap.findMin();
+			check(min.getKey() == Integer.MAX_VALUE, "min key " + min.getKey());
+			boolean inserted = false;
+			for (FibonacciHeap.HeapNode node : nodes)
+				inserted |= node == min;
+			check(inserted, "min is not a node of the heap");
+			heap.deleteMin();
+		}
+		check(heap.isEmpty() && heap.findMin() == null, "the heap is not empty");
+	}
+
+	/**
+	 * MergeIterator casts the nodes of its heap, so it fails on the sentinel of
+	 * deleteMin if trees hold Integer.MAX_VALUE.
+	 */
+	static void mergeMaxValueKeys() {
+		AVLTree a = new AVLTree();
+		AVLTree b = new AVLTree();
+		AVLTree c = new AVLTree();
+		a.insert(1, "a1");
+		a.insert(Integer.MAX_VALUE, "a");
+		b.insert(Integer.MAX_VALUE, "b");
+		c.insert(Integer.MAX_VALUE, "c");
+		MergeIterator items = new MergeIterator(a, b, c);
+		int n = 0;
+		int last = Integer.MIN_VALUE;
+		while (items.hasNext()) {
+			Map.Entry<Integer, String> item = items.next();
+			check(item.getKey() >= last, "out of order: " + item.getKey() + " after " + last);
+			last = item.getKey();
+			n++;
+		}
+		check(n == 4, n + " items instead of 4");
+		check(MergeIterator.merge(a, b, c).size() == 2, "merge kept a duplicate");
+	}
+
+	/**
+	 * A snapshot header with a negative or huge node count must fail with an
+	 * IOException, from a stream as from a file, before the nodes are allocated.
+	 */
+	static void corruptSnapshotHeader() throws IOException {
+		for (int n : new int[] { -1, Integer.MIN_VALUE, Integer.MAX_VALUE, 1 << 20 }) {
+			ByteBuffer header = ByteBuffer.allocate(24);
+			header.putInt(0x46494248).putInt(1).putInt(n).putInt(1).putInt(0).putInt(0);
+			try {
+				FibonacciHeap.readFrom(Channels.newChannel(new ByteArrayInputStream(header.array())), null);
+				throw new AssertionError("a snapshot of " + n + " nodes was read from a stream");
+			} catch (IOException e) { // expected
+			}
+			Path file = Files.createTempFile("snapshot", ".bin");
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+					StandardOpenOption.DELETE_ON_CLOSE)) {
+				header.flip();
+				channel.write(header);
+				channel.position(0);
+				FibonacciHeap.readFrom(channel, null);
+				throw new AssertionError("a snapshot of " + n + " nodes was read from a file");
+			} catch (IOException e) { // expected
+			}
+		}
+	}
+
+	/**
+	 * A snapshot whose header counts don't match its forest, or whose forest
+	 * breaks a heap invariant (a negative rank, a child smaller than its
+	 * parent, a minimum that isn't the smallest root) must fail with an
+	 * IOException.
+	 */
+	static void corruptSnapshotForest() throws IOException {
+		FibonacciHeap heap = new FibonacciHeap();
+		for (int key = 0; key < 20; key++)
+			heap.insert(key);
+		heap.deleteMin(); // consolidates the keys 1..19 into trees
+		heap.insert(100); // a second root that is not the minimum
+		FibonacciHeap.HeapNode[] ordinals = new FibonacciHeap.HeapNode[heap.size()];
+		byte[] snapshot = snapshot(heap, ordinals);
+		int child = 0; // the ordinals of a child, a leaf and of the root that isn't the minimum
+		int leaf = 0;
+		int otherRoot = 0;
+		for (int i = 0; i < ordinals.length; i++) {
+			if (ordinals[i].parent != null)
+				child = i;
+			if (ordinals[i].rank == 0)
+				leaf = i;
+			if (ordinals[i].parent == null && ordinals[i] != heap.findMin())
+				otherRoot = i;
+		}
+		int[][] corruptions = { // the offset of an int in the snapshot, and its new value
+				{ 12, heap.treeNum + 1 }, // the tree count of the header
+				{ 16, heap.markedNodes + 1 }, // the marked count of the header
+				{ 20 + 9 * leaf + 4, -1 }, // a negative rank
+				{ 20 + 9 * child, ordinals[child].parent.key - 1 }, // a child smaller than its parent
+				{ snapshot.length - 4, otherRoot }, // a minimum that isn't the smallest root
+				{ snapshot.length - 4, child } }; // a minimum that isn't a root
+		FibonacciHeap.readFrom(Channels.newChannel(new ByteArrayInputStream(snapshot)), null);
+		for (int[] corruption : corruptions) {
+			byte[] corrupt = snapshot.clone();
+			ByteBuffer.wrap(corrupt).putInt(corruption[0], corruption[1]);
+			try {
+				FibonacciHeap.readFrom(Channels.newChannel(new ByteArrayInputStream(corrupt)), null);
+				throw new AssertionError("a snapshot with " + corruption[1] + " at " + corruption[0] + " was read");
+			} catch (IOException e) { // expected
+			}
+		}
+	}
+
+	/**
+	 * readFrom must rebuild the forest that writeTo wrote: the same size,
+	 * counters, minimum and handles, and the same keys from deleteMin after the
+	 * same operations on both heaps.
+	 */
+	static void snapshotRoundTrip() throws IOException {
+		Random random = new Random(3);
+		for (int round = 0; round < 50; round++) {
+			FibonacciHeap heap = new FibonacciHeap();
+			List<FibonacciHeap.HeapNode> nodes = new ArrayList<>();
+			for (int op = random.nextInt(2000); op > 0; op--) {
+				int choice = random.nextInt(10);
+				if (choice < 5 || nodes.isEmpty())
+					nodes.add(heap.insert(random.nextInt(100000)));
+				else if (choice < 8) // decreaseKey cuts and marks nodes
+					heap.decreaseKey(nodes.get(random.nextInt(nodes.size())), random.nextInt(5000));
+				else {
+					nodes.remove(heap.findMin());
+					heap.deleteMin();
+				}
+			}
+			FibonacciHeap.HeapNode[] ordinals = new FibonacciHeap.HeapNode[heap.size()];
+			FibonacciHeap.HeapNode[] handles = new FibonacciHeap.HeapNode[heap.size()];
+			byte[] snapshot = snapshot(heap, ordinals);
+			FibonacciHeap copy = FibonacciHeap.readFrom(Channels.newChannel(new ByteArrayInputStream(snapshot)),
+					handles);
+			check(copy.size() == heap.size() && copy.potential() == heap.potential(), "size or potential");
+			check(copy.treeNum == heap.treeNum && copy.markedNodes == heap.markedNodes, "counters");
+			for (int i = 0; i < ordinals.length; i++)
+				check(handles[i].getKey() == ordinals[i].getKey() && handles[i].rank == ordinals[i].rank
+						&& handles[i].mark == ordinals[i].mark, "node " + i);
+			for (int i = 0; i < ordinals.length; i++) // the same operations through the handles
+				if (random.nextInt(4) == 0) {
+					int delta = random.nextInt(1000);
+					heap.decreaseKey(ordinals[i], delta);
+					copy.decreaseKey(handles[i], delta);
+				}
+			while (!heap.isEmpty()) {
+				check(copy.findMin().getKey() == heap.findMin().getKey(), "a different minimum");
+				heap.deleteMin();
+				copy.deleteMin();
+				check(copy.potential() == heap.potential(), "a different potential");
+			}
+			check(copy.isEmpty(), "the copy has more nodes");
+		}
+	}
+
+	/**
+	 * Returns a snapshot of heap, written by writeTo with ordinals.
+	 */
+	static byte[] snapshot(FibonacciHeap heap, FibonacciHeap.HeapNode[] ordinals) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		heap.writeTo(Channels.newChannel(out), ordinals);
+		return out.toByteArray();
+	}
+
+	/**
+	 * ExternalPriorityQueue must keep the order of Integer.MAX_VALUE keys that
+	 * are spilled and merged back, as a PriorityQueue does.
+	 */
+	static void externalMaxValueKeys() throws IOException {
+		Path dir = Files.createTempDirectory("runs");
+		Random random = new Random(1);
+		try (ExternalPriorityQueue queue = new ExternalPriorityQueue(8, dir)) {
+			PriorityQueue<Integer> expected = new PriorityQueue<>();
+			for (int i = 0; i < 20000; i++) {
+				if (random.nextInt(10) < 6) {
+					int key = random.nextInt(3) == 0 ? Integer.MAX_VALUE : random.nextInt(100);
+					queue.insert(key);
+					expected.add(key);
+				} else {
+					queue.deleteMin();
+					expected.poll();
+				}
+				FibonacciHeap.HeapNode min = queue.findMin();
+				check(expected.isEmpty() ? min == null : min.getKey() == expected.peek(), "wrong minimum at " + i);
+			}
+			while (!expected.isEmpty()) {
+				check(queue.findMin().getKey() == expected.poll(), "wrong minimum while draining");
+				queue.deleteMin();
+			}
+		}
+		Files.delete(dir);
+	}
+
+	/**
+	 * updateKey must move keys in both directions, keep every node the handle
+	 * of its key, and keep the minimum of a PriorityQueue and the structure of
+	 * the heap: heap order, ranks, marks and the counters.
+	 */
+	static void updateKey() {
+		Random random = new Random(2);
+		FibonacciHeap heap = new FibonacciHeap();
+		PriorityQueue<Integer> expected = new PriorityQueue<>();
+		List<FibonacciHeap.HeapNode> nodes = new ArrayList<>();
+		List<Integer> keys = new ArrayList<>();
+		for (int op = 0; op < 50000; op++) {
+			int choice = random.nextInt(10);
+			if (choice < 3 || nodes.isEmpty()) {
+				int key = random.nextInt(10000);
+				nodes.add(heap.insert(key));
+				keys.add(key);
+				expected.add(key);
+			} else if (choice < 4) {
+				FibonacciHeap.HeapNode min = heap.findMin();
+				check(min.getKey() == expected.poll(), "wrong minimum at " + op);
+				heap.deleteMin();
+				int i = nodes.indexOf(min);
+				nodes.remove(i);
+				keys.remove(i);
+			} else {
+				int i = choice < 6 ? nodes.indexOf(heap.findMin()) : random.nextInt(nodes.size());
+				FibonacciHeap.HeapNode node = nodes.get(i);
+				int key = Math.max(0, keys.get(i) + random.nextInt(2000) - 1000);
+				heap.updateKey(node, key);
+				expected.remove(keys.get(i));
+				expected.add(key);
+				keys.set(i, key);
+				check(node.getKey() == key, "the handle lost its key");
+			}
+			check(heap.size() == expected.size(), "size " + heap.size() + " instead of " + expected.size());
+			check(heap.isEmpty() || heap.findMin().getKey() == expected.peek(), "wrong minimum at " + op);
+			if (op % 100 == 0)
+				valid(heap);
+		}
+	}
+
+	/**
+	 * Checks the structure of the heap: the circular lists, parents, heap order,
+	 * ranks, the minimum, and the size, tree and mark counters.
+	 */
+	static void valid(FibonacciHeap heap) {
+		int[] counts = new int[3]; // nodes, trees, marked
+		if (!heap.isEmpty()) {
+			FibonacciHeap.HeapNode root = heap.first;
+			do {
+				check(root.parent == null && !root.mark, "a root with a parent or a mark");
+				check(root.key >= heap.min.key, "a root below the minimum");
+				counts[1]++;
+				valid(root, counts);
+				root = root.next;
+			} while (root != heap.first);
+		}
+		check(counts[0] == heap.size(), counts[0] + " nodes instead of " + heap.size());
+		check(counts[1] == heap.treeNum, counts[1] + " trees instead of " + heap.treeNum);
+		check(counts[2] == heap.markedNodes, counts[2] + " marked nodes instead of " + heap.markedNodes);
+	}
+
+	private static void valid(FibonacciHeap.HeapNode node, int[] counts) {
+		counts[0]++;
+		if (node.mark)
+			counts[2]++;
+		int children = 0;
+		if (node.child != null) {
+			FibonacciHeap.HeapNode child = node.child;
+			do {
+				check(child.parent == node && child.key >= node.key, "heap order or parent broken at " + child.key);
+				check(child.next.prev == child && child.prev.next == child, "a broken list");
+				children++;
+				valid(child, counts);
+				child = child.next;
+			} while (child != node.child);
+		}
+		check(node.rank == children, "rank " + node.rank + " of a node with " + children + " children");
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition)
+			throw new AssertionError(message);
+	}
+}
@@ -0,0 +1,190 @@
+/**
+ *
+ * FrozenAVLTree
+ *
+ * An immutable, lookup-only copy of an AVL tree with distinct integer keys and info.
+ * The keys are stored in an int array in Eytzinger (BFS) order: the root is at index 1 and the
+ * children of the node at index k are at 2k and 2k+1 (index 0 is unused). The info is stored
+ * in a parallel array. A search is a walk down the array with no pointers to follow, and the
+ * nodes of the first levels below a node share its cache lines.
+ *
+ */
+
+public class FrozenAVLTree {
+
+	private final int n; //number of keys
+	private final int depth; //depth of the deepest level of the implicit tree, floor(log2(n))
+	private final int[] keys; //keys[1..n] in Eytzinger order
+	private final String[] values; //values[k] is the info of keys[k]
+
+	/**
+	 * public FrozenAVLTree(int[] sortedKeys, String[] values)
+	 *
+	 * Builds the tree from the keys, sorted in ascending order without duplicates,
+	 * and their respective info (as returned by AVLTree.keysToArray() and AVLTree.infoToArray()).
+	 * runs in O(n) complexity
+	 */
+	public FrozenAVLTree(int[] sortedKeys, String[] values) {
+		this.n = sortedKeys.length;
+		this.depth = n == 0 ? 0 : 31 - Integer.numberOfLeadingZeros(n);
+		this.keys = new int[n + 1];
+		this.values = new String[n + 1];
+		int k = first(); //the in-order walk of the implicit tree visits the indexes in key order
+		for (int i = 0; i < n; i++) {
+			keys[k] = sortedKeys[i];
+			this.values[k] = values[i];
+			k = successor(k);
+		}
+	}
+
+	/**
+	 * public String search(int x)
+	 *
+	 * Returns the info of the item with key x if it exists in the tree, otherwise returns null.
+	 * runs in O(logn) complexity
+	 */
+	public String search(int x) {
+		int k = lowerBound(x);
+		if (k != 0 && keys[k] == x)
+			return values[k];
+		return null;
+	}
+
+	/**
+	 * public int ceiling(int x)
+	 *
+	 * Returns the smallest key in the tree that is bigger than or equal to x, or -1 if there is no such key.
+	 * runs in O(logn) complexity
+	 */
+	public int ceiling(int x) {
+		int k = lowerBound(x);
+		return k == 0 ? -1 : keys[k];
+	}
+
+	/**
+	 * public int floor(int x)
+	 *
+	 * Returns the largest key in the tree that is smaller than or equal to x, or -1 if there is no such key.
+	 * runs in O(logn) complexity
+	 */
+	public int floor(int x) {
+		int k = lowerBound(x);
+		if (k != 0 && keys[k] == x)
+			return x;
+		k = (k == 0) ? last() : predecessor(k); //the key before the first key >= x
+		return k == 0 ? -1 : keys[k];
+	}
+
+	/**
+	 * public int rank(int x)
+	 *
+	 * Returns the number of keys in the tree that are smaller than x.
+	 * runs in O(logn) complexity
+	 */
+	public int rank(int x) {
+		int res = 0;
+		int k = 1;
+		while (k <= n) {
+			int right = keys[k] < x ? 1 : 0; //going right passes k and its left subtree
+			res += right * (subtreeSize(2 * k) + 1);
+			k = 2 * k + right;
+		}
+		return res;
+	}
+
+	/**
+	 * public int size()
+	 *
+	 * Returns the number of keys in the tree.
+	 * runs in O(1) complexity
+	 */
+	public int size() {
+		return n;
+	}
+
+	/**private int lowerBound(int x)
+	 * returns the index of the smallest key that is bigger than or equal to x, or 0 if there is no such key.
+	 * the walk down has no branch on the comparison: it only appends the result of the comparison to the
+	 * index. the answer is the last node where the walk turned left, found by removing the trailing ones
+	 * (the right turns after it) and the left turn itself from the final index.
+	 * runs in O(logn) complexity
+	 */
+	private int lowerBound(int x) {
+		int k = 1;
+		while (k <= n)
+			k = 2 * k + (keys[k] < x ? 1 : 0);
+		return k >>> (Integer.numberOfTrailingZeros(~k) + 1);
+	}
+
+	/**private int subtreeSize(int k)
+	 * returns the number of nodes in the subtree of index k. the implicit tree is complete, so all levels
+	 * of the subtree are full except its last one, which holds the indexes [k << h, n] of that level.
+	 * runs in O(1) complexity
+	 */
+	private int subtreeSize(int k) {
+		if (k > n)
+			return 0;
+		int h = depth - (31 - Integer.numberOfLeadingZeros(k)); //levels of the subtree below k
+		long firstOnLast = (long) k << h; //leftmost index of the subtree on the deepest level
+		long onLast = Math.min(Math.max(n - firstOnLast + 1, 0), 1L << h);
+		return (int) ((1L << h) - 1 + onLast);
+	}
+
+	/**private int first()
+	 * returns the index of the smallest key (the leftmost node), or 0 if the tree is empty.
+	 * runs in O(logn) complexity
+	 */
+	private int first() {
+		if (n == 0)
+			return 0;
+		int k = 1;
+		while (2 * k <= n)
+			k = 2 * k;
+		return k;
+	}
+
+	/**private int last()
+	 * returns the index of the largest key (the rightmost node), or 0 if the tree is empty.
+	 * runs in O(logn) complexity
+	 */
+	private int last() {
+		if (n == 0)
+			return 0;
+		int k = 1;
+		while (2 * k + 1 <= n)
+			k = 2 * k + 1;
+		return k;
+	}
+
+	/**private int successor(int k)
+	 * returns the index of the next key after keys[k], or 0 if keys[k] is the largest key.
+	 * runs in O(logn) complexity, and in O(1) amortized complexity over an in-order walk.
+	 */
+	private int successor(int k) {
+		if (2 * k + 1 <= n) { //the minimum of the right subtree
+			k = 2 * k + 1;
+			while (2 * k <= n)
+				k = 2 * k;
+			return k;
+		}
+		while ((k & 1) == 1) //climbing while k is a right son
+			k >>>= 1;
+		return k >>> 1;
+	}
+
+	/**private int predecessor(int k)
+	 * returns the index of the key before keys[k], or 0 if keys[k] is the smallest key.
+	 * runs in O(logn) complexity
+	 */
+	private int predecessor(int k) {
+		if (2 * k <= n) { //the maximum of the left subtree
+			k = 2 * k;
+			while (2 * k + 1 <= n)
+				k = 2 * k + 1;
+			return k;
+		}
+		while (k > 1 && (k & 1) == 0) //climbing while k is a left son
+			k >>>= 1;
+		return k >>> 1;
+	}
+}
@@ -0,0 +1,121 @@
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * MergeIterator An iterator over the items of several AVLTrees together, in
+ * ascending order of their keys. Every tree has a cursor, which walks its items
+ * in order, and the cursors are the nodes of a FibonacciHeap, keyed by the key
+ * of their current item. The next item is the one of the minimal cursor, which
+ * then moves to its next item with updateKey, or leaves the heap with deleteMin
+ * when its tree is done. The items are produced lazily, one at a time. If a key
+ * is in several trees, its items come one after the other, in no particular
+ * order. The trees must not be modified while the iterator is used.
+ */
+public class MergeIterator implements Iterator<Map.Entry<Integer, String>> {
+	private final FibonacciHeap cursors = new FibonacciHeap();
+	private int remaining = 0;
+
+	/**
+	 * public MergeIterator(AVLTree... trees)
+	 *
+	 * Creates an iterator over the items of all the given trees. runs in O(k)
+	 * complexity for k trees.
+	 */
+	public MergeIterator(AVLTree... trees) {
+		for (AVLTree tree : trees) {
+			remaining += tree.size();
+			Iterator<Map.Entry<Integer, String>> items = tree.entries().iterator();
+			if (items.hasNext())
+				cursors.insertNode(new Cursor(items));
+		}
+	}
+
+	/**
+	 * public boolean hasNext()
+	 *
+	 * Returns true if there are more items. runs in O(1) complexity.
+	 */
+	public boolean hasNext() {
+		return !cursors.isEmpty();
+	}
+
+	/**
+	 * public Map.Entry<Integer, String> next()
+	 *
+	 * Returns the item with the minimal key among the remaining items. runs in
+	 * O(logk) amortized complexity for k trees.
+	 */
+	public Map.Entry<Integer, String> next() {
+		if (cursors.isEmpty())
+			throw new NoSuchElementException();
+		Cursor cursor = (Cursor) cursors.findMin();
+		Map.Entry<Integer, String> res = cursor.current;
+		remaining--;
+		if (cursor.items.hasNext()) { // the key of the cursor only grows
+			cursor.current = cursor.items.next();
+			cursors.updateKey(cursor, cursor.current.getKey());
+		} else // the tree of the cursor is done
+			cursors.deleteMin();
+		return res;
+	}
+
+	/**
+	 * public int remaining()
+	 *
+	 * Returns the number of items that weren't returned yet. runs in O(1)
+	 * complexity.
+	 */
+	public int remaining() {
+		return remaining;
+	}
+
+	/**
+	 * public static AVLTree merge(AVLTree... trees)
+	 *
+	 * Returns a new balanced tree of the items of all the given trees, built by
+	 * AVLTree.fromSorted from the merged items. If a key is in several trees,
+	 * only one of its items is kept. The given trees aren't changed. runs in
+	 * O(Nlogk) complexity for N items in k trees, and the build itself in O(N).
+	 */
+	public static AVLTree merge(AVLTree... trees) {
+		MergeIterator items = new MergeIterator(trees);
+		int[] keys = new int[items.remaining()];
+		String[] values = new String[keys.length];
+		int n = 0;
+		while (items.hasNext()) {
+			Map.Entry<Integer, String> item = items.next();
+			if (n > 0 && keys[n - 1] == item.getKey()) // a duplicate of the previous key
+				continue;
+			keys[n] = item.getKey();
+			values[n++] = item.getValue();
+		}
+		if (n < keys.length) { // trimming the places of the duplicates
+			keys = Arrays.copyOf(keys, n);
+			values = Arrays.copyOf(values, n);
+		}
+		return AVLTree.fromSorted(keys, values);
+	}
+
+	/**
+	 * private static class Cursor
+	 *
+	 * A heap node whose key is the key of the current item of a tree, with the
+	 * iterator over the rest of its items.
+	 */
+	private static class Cursor extends FibonacciHeap.HeapNode {
+		final Iterator<Map.Entry<Integer, String>> items;
+		Map.Entry<Integer, String> current;
+
+		Cursor(Iterator<Map.Entry<Integer, String>> items) {
+			this(items, items.next());
+		}
+
+		private Cursor(Iterator<Map.Entry<Integer, String>> items, Map.Entry<Integer, String> current) {
+			super(current.getKey());
+			this.items = items;
+			this.current = current;
+		}
+	}
+}
@@ -0,0 +1,500 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * OffHeapFibonacciHeap An implementation of a Fibonacci Heap over Integers,
+ * with the same structure and operations as FibonacciHeap, that keeps its
+ * nodes outside of the Java heap. Every node is a fixed-width record of 7 ints
+ * in an Arena of direct ByteBuffers: its key, rank, mark, and the indexes of
+ * its parent, child, next and prev nodes (NIL for none). A node is identified
+ * by the index of its record, which is the handle returned by insert. Records
+ * of deleted nodes are kept in a free list of the arena and reused by later
+ * insertions, so in steady state the heap creates no objects at all. A heap
+ * is not thread safe, and must be closed to give its records back: its own
+ * arena is dropped, or its records return to a shared arena. A handle is only
+ * valid while its node is in the heap, since its record is reused after.
+ */
+public class OffHeapFibonacciHeap implements AutoCloseable {
+	public static final int NIL = -1; // no node
+
+	private static final int KEY = 0; // offsets of the fields in a record, in ints
+	private static final int RANK = 1;
+	private static final int MARK = 2;
+	private static final int PARENT = 3;
+	private static final int CHILD = 4;
+	private static final int NEXT = 5;
+	private static final int PREV = 6;
+	private static final int MAX_RANK = 64; // ranks of a heap of int size are less than 1.5 * 32
+
+	private final Arena arena;
+	private final boolean ownsArena;
+	private final int[] ranks = new int[MAX_RANK]; // trees by rank during deleteMin, reused
+	private int min = NIL;
+	private int first = NIL;
+	private int size = 0;
+	private int treeNum = 0;
+	private int markedNodes = 0;
+	private long links = 0;
+	private long cuts = 0;
+
+	/**
+	 * public OffHeapFibonacciHeap()
+	 *
+	 * Creates an empty heap with its own arena, which is freed by close().
+	 */
+	public OffHeapFibonacciHeap() {
+		this.arena = new Arena();
+		this.ownsArena = true;
+	}
+
+	/**
+	 * public OffHeapFibonacciHeap(Arena arena)
+	 *
+	 * Creates an empty heap that keeps its nodes in the given arena. Heaps can
+	 * only be melded if they share an arena. The arena is closed by its creator,
+	 * and close() of the heap only returns its records to the arena.
+	 */
+	public OffHeapFibonacciHeap(Arena arena) {
+		this.arena = arena;
+		this.ownsArena = false;
+	}
+
+	/**
+	 * public boolean isEmpty()
+	 *
+	 * Returns true if and only if the heap is empty. runs in O(1) complexity.
+	 */
+	public boolean isEmpty() {
+		return first == NIL;
+	}
+
+	/**
+	 * public int insert(int key)
+	 *
+	 * Creates a node which contains the given key, in a free record of the
+	 * arena, and inserts it as the first root in the heap. Returns the handle of
+	 * the node. Runs in O(1) amortized complexity.
+	 */
+	public int insert(int key) {
+		int node = arena.allocate();
+		arena.set(node, KEY, key);
+		arena.set(node, RANK, 0);
+		arena.set(node, MARK, 0);
+		arena.set(node, PARENT, NIL);
+		arena.set(node, CHILD, NIL);
+		arena.set(node, NEXT, node);
+		arena.set(node, PREV, node);
+		insertNode(node);
+		return node;
+	}
+
+	/**
+	 * private void insertNode(int node) inserts a detached node (whose next and
+	 * prev are itself) as the first root in the heap, and updates the fields
+	 * size, min and treeNum. Runs in O(1) complexity.
+	 */
+	private void insertNode(int node) {
+		size++;
+		treeNum++;
+		if (isEmpty()) {
+			min = node;
+			first = node;
+			return;
+		}
+		int last = arena.get(first, PREV);
+		arena.set(node, NEXT, first); // insertion before the current first node
+		arena.set(node, PREV, last);
+		arena.set(last, NEXT, node);
+		arena.set(first, PREV, node);
+		first = node;
+		if (arena.get(node, KEY) < arena.get(min, KEY))
+			min = node;
+	}
+
+	/**
+	 * public int findMin()
+	 *
+	 * Returns the handle of the node whose key is minimal, or NIL if the heap is
+	 * empty. runs in O(1) complexity
+	 */
+	public int findMin() {
+		return min;
+	}
+
+	/**
+	 * public int getKey(int node)
+	 *
+	 * Returns the key of the node with the given handle. runs in O(1) complexity
+	 */
+	public int getKey(int node) {
+		return arena.get(node, KEY);
+	}
+
+	/**
+	 * public void deleteMin()
+	 *
+	 * Deletes the node containing the minimum key, and links trees with the
+	 * same ranks, as FibonacciHeap.deleteMin. The record of the node is returned
+	 * to the arena. runs in O(logn) amortized complexity.
+	 */
+	public void deleteMin() {
+		if (isEmpty())
+			return;
+		int z = min;
+		removeRoot(z);
+		arena.release(z);
+		if (size == 0) {
+			min = NIL;
+			treeNum = 0;
+			return;
+		}
+		Arrays.fill(ranks, NIL);
+		int pointer = first;
+		int nextpointer;
+		do {
+			nextpointer = arena.get(pointer, NEXT); // saved before pointer is linked
+			arena.set(pointer, PARENT, NIL);
+			if (arena.get(pointer, MARK) != 0) // roots are not marked
+				markedNodes--;
+			arena.set(pointer, MARK, 0);
+			int rnk = arena.get(pointer, RANK);
+			while (ranks[rnk] != NIL) { // a tree with the same rank, link them
+				pointer = link(pointer, ranks[rnk]);
+				ranks[rnk] = NIL;
+				rnk++;
+			}
+			ranks[rnk] = pointer;
+			pointer = nextpointer;
+		} while (nextpointer != first);
+
+		first = NIL; // the roots are connected again, in order of rank
+		min = NIL;
+		treeNum = 0;
+		int last = NIL;
+		for (int rnk = 0; rnk < MAX_RANK; rnk++) {
+			int node = ranks[rnk];
+			if (node == NIL)
+				continue;
+			if (first == NIL)
+				first = node;
+			else {
+				arena.set(last, NEXT, node);
+				arena.set(node, PREV, last);
+			}
+			last = node;
+			treeNum++;
+			if (min == NIL || arena.get(node, KEY) < arena.get(min, KEY))
+				min = node;
+		}
+		arena.set(last, NEXT, first);
+		arena.set(first, PREV, last);
+	}
+
+	/**
+	 * private void removeRoot(int z) removes the root z from the root list, puts
+	 * its children in its place, and decreases size. first becomes a root next to
+	 * z, or NIL if the heap is now empty. runs in O(1) complexity.
+	 */
+	private void removeRoot(int z) {
+		int child = arena.get(z, CHILD);
+		int next = arena.get(z, NEXT);
+		int prev = arena.get(z, PREV);
+		if (next == z) // z has no siblings, its children are the root list
+			first = child;
+		else if (child == NIL) { // z is skipped in the root list
+			arena.set(prev, NEXT, next);
+			arena.set(next, PREV, prev);
+			first = next;
+		} else { // the children of z replace it in the root list
+			int lastChild = arena.get(child, PREV);
+			arena.set(prev, NEXT, child);
+			arena.set(child, PREV, prev);
+			arena.set(lastChild, NEXT, next);
+			arena.set(next, PREV, lastChild);
+			first = next;
+		}
+		size--;
+		treeNum += arena.get(z, RANK) - 1;
+	}
+
+	/**
+	 * private int link(int a, int b) hangs the root with the bigger key under
+	 * the other root, as its first child, and returns the root of the linked
+	 * tree. runs in O(1) complexity.
+	 */
+	private int link(int a, int b) {
+		links++;
+		int small = a;
+		int big = b;
+		if (arena.get(b, KEY) <= arena.get(a, KEY)) {
+			small = b;
+			big = a;
+		}
+		arena.set(small, RANK, arena.get(small, RANK) + 1);
+		int child = arena.get(small, CHILD);
+		if (child == NIL) {
+			arena.set(big, NEXT, big);
+			arena.set(big, PREV, big);
+		} else { // big is added before the first child
+			int last = arena.get(child, PREV);
+			arena.set(big, NEXT, child);
+			arena.set(big, PREV, last);
+			arena.set(last, NEXT, big);
+			arena.set(child, PREV, big);
+		}
+		arena.set(big, PARENT, small);
+		arena.set(small, CHILD, big);
+		return small;
+	}
+
+	/**
+	 * public void decreaseKey(int node, int delta)
+	 *
+	 * Decreases the key of the node by a non-negative value delta, and performs
+	 * the needed cuts, as FibonacciHeap.decreaseKey. runs in O(1) amortized
+	 * complexity.
+	 */
+	public void decreaseKey(int node, int delta) {
+		int key = arena.get(node, KEY) - delta;
+		arena.set(node, KEY, key);
+		int parent = arena.get(node, PARENT);
+		if (parent == NIL) { // a root; only min may change
+			if (key < arena.get(min, KEY))
+				min = node;
+			return;
+		}
+		if (key >= arena.get(parent, KEY)) // no need to cut, structure is legal
+			return;
+		if (arena.get(node, MARK) == 0)
+			markedNodes++;
+		arena.set(node, MARK, 1);
+		cutNode(node);
+	}
+
+	/**
+	 * public void delete(int node)
+	 *
+	 * Deletes the node from the heap, by decreasing its key below all keys and
+	 * deleting the minimum. runs in O(logn) amortized complexity.
+	 */
+	public void delete(int node) {
+		arena.set(node, KEY, Integer.MIN_VALUE);
+		if (arena.get(node, PARENT) != NIL) {
+			if (arena.get(node, MARK) == 0)
+				markedNodes++;
+			arena.set(node, MARK, 1);
+			cutNode(node);
+		}
+		min = node;
+		deleteMin();
+	}
+
+	/**
+	 * private void cutNode(int x) performs cuts from x up, as long as the nodes
+	 * are marked, and marks the first unmarked non-root node, as
+	 * FibonacciHeap.cutNode. runs in O(logn) complexity at worst case.
+	 */
+	private void cutNode(int x) {
+		while (arena.get(x, MARK) != 0) {
+			cuts++;
+			int parent = arena.get(x, PARENT);
+			arena.set(parent, RANK, arena.get(parent, RANK) - 1);
+			int next = arena.get(x, NEXT);
+			if (next == x) // x has no siblings
+				arena.set(parent, CHILD, NIL);
+			else {
+				int prev = arena.get(x, PREV);
+				if (arena.get(parent, CHILD) == x)
+					arena.set(parent, CHILD, next);
+				arena.set(next, PREV, prev);
+				arena.set(prev, NEXT, next);
+			}
+			arena.set(x, NEXT, x);
+			arena.set(x, PREV, x);
+			arena.set(x, PARENT, NIL);
+			arena.set(x, MARK, 0);
+			markedNodes--;
+			size--; // insertNode will increase the size
+			insertNode(x);
+			x = parent;
+		}
+		if (arena.get(x, PARENT) != NIL) { // a root can't be marked
+			arena.set(x, MARK, 1);
+			markedNodes++;
+		}
+	}
+
+	/**
+	 * public void meld(OffHeapFibonacciHeap heap2)
+	 *
+	 * Melds heap2 into the current heap by connecting their root lists. Both
+	 * heaps must share an arena. heap2 is left empty. runs in O(1) complexity.
+	 */
+	public void meld(OffHeapFibonacciHeap heap2) {
+		if (heap2.arena != this.arena)
+			throw new IllegalArgumentException("heaps in different arenas can't be melded");
+		if (heap2.isEmpty())
+			return;
+		if (this.isEmpty()) {
+			first = heap2.first;
+			min = heap2.min;
+		} else {
+			int last = arena.get(first, PREV);
+			int last2 = arena.get(heap2.first, PREV);
+			arena.set(last, NEXT, heap2.first);
+			arena.set(heap2.first, PREV, last);
+			arena.set(last2, NEXT, first);
+			arena.set(first, PREV, last2);
+			if (arena.get(heap2.min, KEY) < arena.get(min, KEY))
+				min = heap2.min;
+		}
+		size += heap2.size;
+		treeNum += heap2.treeNum;
+		markedNodes += heap2.markedNodes;
+		links += heap2.links;
+		cuts += heap2.cuts;
+		heap2.first = NIL;
+		heap2.min = NIL;
+		heap2.size = 0;
+		heap2.treeNum = 0;
+		heap2.markedNodes = 0;
+	}
+
+	/**
+	 * public int size()
+	 *
+	 * Returns the number of elements in the heap. runs in O(1) complexity.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * public int potential()
+	 *
+	 * Returns #trees + 2*#marked, as FibonacciHeap.potential. runs in O(1)
+	 * complexity.
+	 */
+	public int potential() {
+		return treeNum + 2 * markedNodes;
+	}
+
+	/**
+	 * public long totalLinks()
+	 *
+	 * Returns the number of link operations made by this heap (and by the heaps
+	 * melded into it). runs in O(1) complexity.
+	 */
+	public long totalLinks() {
+		return links;
+	}
+
+	/**
+	 * public long totalCuts()
+	 *
+	 * Returns the number of cut operations made by this heap (and by the heaps
+	 * melded into it). runs in O(1) complexity.
+	 */
+	public long totalCuts() {
+		return cuts;
+	}
+
+	/**
+	 * public void close()
+	 *
+	 * Frees the heap: closes its arena if the heap created it, otherwise
+	 * returns all of its records to the shared arena, by removing the roots one
+	 * by one with their children taking their place. The heap is left empty.
+	 * runs in O(n) complexity.
+	 */
+	public void close() {
+		if (ownsArena)
+			arena.close();
+		else
+			while (!isEmpty()) {
+				int z = first;
+				removeRoot(z);
+				arena.release(z);
+			}
+		first = NIL;
+		min = NIL;
+		size = 0;
+		treeNum = 0;
+		markedNodes = 0;
+	}
+
+	/**
+	 * public static class Arena
+	 *
+	 * Fixed-width node records in direct ByteBuffers of CHUNK records each,
+	 * which are added as needed. A record index is split into a chunk number
+	 * and an offset in the chunk. Released records are kept in a free list
+	 * (linked through their NEXT field) and reused before new records.
+	 * The JDK has no way to free a direct buffer on demand, so close() drops the
+	 * buffers and their memory is released when they are collected.
+	 */
+	public static class Arena implements AutoCloseable {
+		private static final int RECORD = 7 * Integer.BYTES; // bytes in a record
+		private static final int CHUNK_BITS = 16;
+		private static final int CHUNK = 1 << CHUNK_BITS; // records in a chunk
+		private static final int CHUNK_MASK = CHUNK - 1;
+
+		private ByteBuffer[] chunks = new ByteBuffer[16];
+		private int chunkNum = 0;
+		private int used = 0; // records that were ever allocated
+		private int free = NIL; // first record of the free list
+		private boolean closed = false;
+
+		/**
+		 * int allocate() returns the index of a free record, from the free list
+		 * or a new one. runs in O(1) amortized complexity.
+		 */
+		int allocate() {
+			if (closed)
+				throw new IllegalStateException("arena is closed");
+			if (free != NIL) {
+				int node = free;
+				free = get(node, NEXT);
+				return node;
+			}
+			if (used == chunkNum * CHUNK) { // all chunks are full
+				if (chunkNum == chunks.length)
+					chunks = Arrays.copyOf(chunks, 2 * chunks.length);
+				chunks[chunkNum++] = ByteBuffer.allocateDirect(CHUNK * RECORD).order(ByteOrder.nativeOrder());
+			}
+			return used++;
+		}
+
+		/**
+		 * void release(int node) adds the record to the free list. runs in O(1)
+		 * complexity.
+		 */
+		void release(int node) {
+			set(node, NEXT, free);
+			free = node;
+		}
+
+		int get(int node, int field) {
+			return chunks[node >>> CHUNK_BITS].getInt((node & CHUNK_MASK) * RECORD + field * Integer.BYTES);
+		}
+
+		void set(int node, int field, int value) {
+			chunks[node >>> CHUNK_BITS].putInt((node & CHUNK_MASK) * RECORD + field * Integer.BYTES, value);
+		}
+
+		/**
+		 * public void close()
+		 *
+		 * Drops all the chunks. The heaps that use the arena must not be used
+		 * afterwards. runs in O(1) complexity.
+		 */
+		public void close() {
+			closed = true;
+			chunks = new ByteBuffer[0];
+			chunkNum = 0;
+			used = 0;
+			free = NIL;
+		}
+	}
+}
@@ -0,0 +1,132 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * OffHeapFibonacciHeapTest Checks of OffHeapFibonacciHeap against a
+ * PriorityQueue, and against a FibonacciHeap that gets the same operations,
+ * run by main (java OffHeapFibonacciHeapTest); a failed check throws an
+ * AssertionError.
+ */
+public class OffHeapFibonacciHeapTest {
+
+	public static void main(String[] args) {
+		randomOperations();
+		sharedArena();
+		System.out.println("OffHeapFibonacciHeapTest: ok");
+	}
+
+	/**
+	 * Random inserts, deleteMins, decreaseKeys, deletes and melds must keep the
+	 * minimum and size of a PriorityQueue, and the potential of a FibonacciHeap
+	 * with the same operations, since both heaps link and cut the same nodes.
+	 */
+	static void randomOperations() {
+		Random random = new Random(1);
+		try (OffHeapFibonacciHeap.Arena arena = new OffHeapFibonacciHeap.Arena()) {
+			OffHeapFibonacciHeap heap = new OffHeapFibonacciHeap(arena);
+			FibonacciHeap mirror = new FibonacciHeap();
+			PriorityQueue<Integer> expected = new PriorityQueue<>();
+			List<Item> items = new ArrayList<>();
+			for (int op = 0; op < 100000; op++) {
+				int choice = random.nextInt(10);
+				if (choice < 4 || items.isEmpty()) {
+					int key = random.nextInt(100000);
+					items.add(new Item(heap.insert(key), mirror.insert(key), key));
+					expected.add(key);
+				} else if (choice < 6) {
+					Item item = items.get(random.nextInt(items.size()));
+					int delta = random.nextInt(1000);
+					heap.decreaseKey(item.handle, delta);
+					mirror.decreaseKey(item.node, delta);
+					expected.remove(item.key);
+					item.key -= delta;
+					expected.add(item.key);
+				} else if (choice < 7) {
+					Item item = items.remove(random.nextInt(items.size()));
+					heap.delete(item.handle);
+					mirror.delete(item.node);
+					expected.remove(item.key);
+				} else if (choice < 9) {
+					int min = heap.findMin();
+					check(heap.getKey(min) == expected.poll(), "wrong minimum at " + op);
+					heap.deleteMin();
+					mirror.deleteMin();
+					items.removeIf(item -> item.handle == min);
+				} else {
+					OffHeapFibonacciHeap other = new OffHeapFibonacciHeap(arena);
+					FibonacciHeap otherMirror = new FibonacciHeap();
+					for (int i = random.nextInt(5); i > 0; i--) {
+						int key = random.nextInt(100000);
+						items.add(new Item(other.insert(key), otherMirror.insert(key), key));
+						expected.add(key);
+					}
+					heap.meld(other);
+					mirror.meld(otherMirror);
+				}
+				check(heap.size() == expected.size(), "size " + heap.size() + " instead of " + expected.size());
+				check(heap.potential() == mirror.potential(), "potential " + heap.potential() + " instead of "
+						+ mirror.potential() + " at " + op);
+				for (Item item : items)
+					if (random.nextInt(1000) == 0)
+						check(heap.getKey(item.handle) == item.key, "wrong key of a handle");
+			}
+			while (!heap.isEmpty()) {
+				check(heap.getKey(heap.findMin()) == expected.poll(), "wrong minimum while draining");
+				heap.deleteMin();
+			}
+			check(expected.isEmpty() && heap.findMin() == OffHeapFibonacciHeap.NIL, "the heap is not empty");
+		}
+	}
+
+	/**
+	 * Heaps on a shared arena must reuse the records of deleted nodes and of
+	 * closed heaps, and meld must reject a heap of another arena.
+	 */
+	static void sharedArena() {
+		try (OffHeapFibonacciHeap.Arena arena = new OffHeapFibonacciHeap.Arena()) {
+			OffHeapFibonacciHeap a = new OffHeapFibonacciHeap(arena);
+			for (int i = 0; i < 100; i++)
+				a.insert(i);
+			a.deleteMin();
+			check(a.insert(1000) == 0, "the record of the deleted node was not reused");
+			a.close();
+			check(a.isEmpty() && a.size() == 0, "a closed heap is not empty");
+			OffHeapFibonacciHeap b = new OffHeapFibonacciHeap(arena);
+			boolean[] seen = new boolean[100];
+			for (int i = 0; i < 100; i++) {
+				int handle = b.insert(i);
+				check(handle < 100 && !seen[handle], "a new record " + handle + " instead of a released one");
+				seen[handle] = true;
+			}
+			try (OffHeapFibonacciHeap other = new OffHeapFibonacciHeap()) {
+				other.insert(1);
+				b.meld(other);
+				throw new AssertionError("a heap of another arena was melded");
+			} catch (IllegalArgumentException e) { // expected
+			}
+			b.close();
+		}
+	}
+
+	/**
+	 * A node in both heaps, and its current key.
+	 */
+	static class Item {
+		final int handle;
+		final FibonacciHeap.HeapNode node;
+		int key;
+
+		Item(int handle, FibonacciHeap.HeapNode node, int key) {
+			this.handle = handle;
+			this.node = node;
+			this.key = key;
+		}
+	}
+
+	static void check(boolean condition, String message) {
+		if (!condition)
+			throw new AssertionError(message);
+	}
+}
@@ -0,0 +1,516 @@
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ *
+ * ShardedAVLTree
+ *
+ * An ordered map with distinct non-negative integer keys and info, for concurrent writers.
+ * The key space is partitioned into ranges (shards), each held by its own AVLTree and guarded
+ * by its own lock, so writers of different ranges do not block each other.
+ * The ranges are kept in an immutable Layout: shard i holds the keys in [lows[i], lows[i+1]).
+ * When a shard becomes much bigger than the average, it is split into two shards at its root key,
+ * and if there are too many shards, the two adjacent shards with the smallest total size are joined.
+ * A writer compares the size of its own shard with a split size kept in the Layout (twice the average
+ * shard when it was last checked), and only a shard that passes it sums the sizes of all shards.
+ * A change of the layout publishes a new Layout with new shards, and retires the old shards under
+ * their write locks. All other operations read the current Layout without a lock, lock their shard,
+ * and start over if it was retired meanwhile, so they share no lock or counter read across shards.
+ * The number of items is kept in a LongAdder, and every shard also counts its own items.
+ * The scaling of writers with the number of cores was not measured: the machine that ran
+ * Benchmarks sharded had a single CPU, so its numbers only show the overhead of the sharding.
+ *
+ */
+
+public class ShardedAVLTree {
+
+	private static final int MIN_SPLIT_SIZE = 1 << 10; //shards smaller than this are never split
+
+	private final ReentrantLock rebalanceLock = new ReentrantLock(); //held by the only thread that changes the layout
+	private final int maxShards;
+	private final LongAdder size = new LongAdder();
+	private volatile Layout layout;
+
+	/**
+	 * public ShardedAVLTree(int shardNum)
+	 *
+	 * Creates an empty map with shardNum shards that divide the key space evenly.
+	 * Adaptive splitting can raise the number of shards up to 4 * shardNum.
+	 */
+	public ShardedAVLTree(int shardNum) {
+		if (shardNum < 1)
+			throw new IllegalArgumentException("shardNum must be positive: " + shardNum);
+		this.maxShards = 4 * shardNum;
+		int[] lows = new int[shardNum];
+		Shard[] shards = new Shard[shardNum];
+		for (int i = 0; i < shardNum; i++) {
+			lows[i] = (int) ((long) Integer.MAX_VALUE * i / shardNum);
+			shards[i] = new Shard(new AVLTree());
+		}
+		this.layout = new Layout(lows, shards);
+	}
+
+	/**
+	 * public String search(int k)
+	 *
+	 * Returns the info of an item with key k if it exists in the map. otherwise, returns null.
+	 * runs in O(logn) complexity.
+	 */
+	public String search(int k) {
+		if (k < 0) //never inserted
+			return null;
+		Shard s = lockShard(k, false);
+		try {
+			return s.tree.search(k);
+		} finally {
+			s.lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * public int insert(int k, String i)
+	 *
+	 * Inserts an item with key k and info i to the map. Returns the number of re-balancing
+	 * operations of the shard (as AVLTree.insert), or -1 if an item with key k already exists.
+	 * If the shard of k became much bigger than the average shard, the layout is rebalanced.
+	 * Throws IllegalArgumentException if k is negative.
+	 * runs in O(logn) complexity, and O(logn + #shards) when the layout is rebalanced.
+	 */
+	public int insert(int k, String i) {
+		if (k < 0) //the shards cover [0, Integer.MAX_VALUE]
+			throw new IllegalArgumentException("negative key: " + k);
+		int res;
+		boolean skewed;
+		Shard s = lockShard(k, true);
+		try {
+			res = s.tree.insert(k, i);
+			if (res != -1) {
+				s.size++;
+				size.increment();
+			}
+			skewed = s.size > layout.splitSize; //only the size of this shard is read
+		} finally {
+			s.lock.writeLock().unlock();
+		}
+		if (skewed) //rebalance() checks again, after other writers may have rebalanced
+			rebalance(k);
+		return res;
+	}
+
+	/**
+	 * public int delete(int k)
+	 *
+	 * Deletes an item with key k from the map, if it is there. Returns the number of re-balancing
+	 * operations of the shard (as AVLTree.delete), or -1 if an item with key k was not found.
+	 * runs in O(logn) complexity.
+	 */
+	public int delete(int k) {
+		if (k < 0) //never inserted
+			return -1;
+		Shard s = lockShard(k, true);
+		try {
+			int res = s.tree.delete(k);
+			if (res != -1) {
+				s.size--;
+				size.decrement();
+			}
+			return res;
+		} finally {
+			s.lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * public String min()
+	 *
+	 * Returns the info of the item with the smallest key in the map, or null if the map is empty.
+	 * runs in O(#shards) complexity.
+	 */
+	public String min() {
+		retry: while (true) {
+			Shard[] shards = layout.shards;
+			for (int i = 0; i < shards.length; i++) { //the first non-empty shard holds the smallest key
+				shards[i].lock.readLock().lock();
+				try {
+					if (shards[i].retired) //the layout changed, the shards are read again
+						continue retry;
+					if (!shards[i].tree.empty())
+						return shards[i].tree.min();
+				} finally {
+					shards[i].lock.readLock().unlock();
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * public String max()
+	 *
+	 * Returns the info of the item with the largest key in the map, or null if the map is empty.
+	 * runs in O(#shards) complexity.
+	 */
+	public String max() {
+		retry: while (true) {
+			Shard[] shards = layout.shards;
+			for (int i = shards.length - 1; i >= 0; i--) { //the last non-empty shard holds the largest key
+				shards[i].lock.readLock().lock();
+				try {
+					if (shards[i].retired) //the layout changed, the shards are read again
+						continue retry;
+					if (!shards[i].tree.empty())
+						return shards[i].tree.max();
+				} finally {
+					shards[i].lock.readLock().unlock();
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * public int size()
+	 *
+	 * Returns the number of items in the map. While other threads write, the result is
+	 * not a snapshot, but it counts every completed insert and delete.
+	 * runs in O(1) complexity
+	 */
+	public int size() {
+		return (int) size.sum();
+	}
+
+	/**
+	 * public int shardNum()
+	 *
+	 * Returns the current number of shards.
+	 * runs in O(1) complexity
+	 */
+	public int shardNum() {
+		return layout.shards.length;
+	}
+
+	/**
+	 * public int[] keysToArray()
+	 *
+	 * Returns a sorted array which contains all keys in the map, or an empty array if the map is empty.
+	 * All shards are locked (in order) while the array is built, so it is a consistent snapshot.
+	 * runs in O(n) complexity
+	 */
+	public int[] keysToArray() {
+		Shard[] shards = lockAll();
+		try {
+			int total = 0;
+			for (Shard shard : shards)
+				total += shard.size;
+			int[] arr = new int[total];
+			int j = 0;
+			for (Shard shard : shards) { //the shards are ordered by their ranges
+				int[] part = shard.tree.keysToArray();
+				System.arraycopy(part, 0, arr, j, part.length);
+				j += part.length;
+			}
+			return arr;
+		} finally {
+			unlockAll(shards, shards.length);
+		}
+	}
+
+	/**
+	 * public String[] infoToArray()
+	 *
+	 * Returns an array which contains all info in the map, sorted by their respective keys,
+	 * or an empty array if the map is empty. A consistent snapshot, as keysToArray().
+	 * runs in O(n) complexity
+	 */
+	public String[] infoToArray() {
+		Shard[] shards = lockAll();
+		try {
+			int total = 0;
+			for (Shard shard : shards)
+				total += shard.size;
+			String[] arr = new String[total];
+			int j = 0;
+			for (Shard shard : shards) { //the shards are ordered by their ranges
+				String[] part = shard.tree.infoToArray();
+				System.arraycopy(part, 0, arr, j, part.length);
+				j += part.length;
+			}
+			return arr;
+		} finally {
+			unlockAll(shards, shards.length);
+		}
+	}
+
+	/**
+	 * public Stream<Map.Entry<Integer, String>> entries()
+	 *
+	 * Returns a sequential stream of the items of the map, sorted by their keys, that goes over the
+	 * shards in the order of their ranges. The items of a shard are copied under its read lock when the
+	 * stream reaches it, so the stream holds one lock at a time and is weakly consistent: it returns every
+	 * item that is in the map during the whole traversal, and may or may not return concurrent updates.
+	 * runs in O(n) complexity for the whole stream, with O(the size of a shard) extra space.
+	 */
+	public Stream<Map.Entry<Integer, String>> entries() {
+		return Stream.iterate(copyShard(0), part -> part != null, part -> part.next < 0 ? null : copyShard(part.next))
+				.flatMap(part -> part.items.stream());
+	}
+
+	/**
+	 * public IntStream keys()
+	 *
+	 * Returns a sequential stream of the keys of the map in ascending order, as entries().
+	 * runs in O(n) complexity for the whole stream
+	 */
+	public IntStream keys() {
+		return entries().mapToInt(Map.Entry::getKey);
+	}
+
+	/**private Part copyShard(int lo)
+	 * returns a copy of the items with keys of at least lo in the shard whose range contains lo, taken under
+	 * its read lock, with the smallest key of the next shard. the range of the shard is read from the current
+	 * layout, which holds the shard while it is locked and not retired.
+	 * runs in O(log(shard size) + the number of copied items) complexity
+	 */
+	private Part copyShard(int lo) {
+		Shard s = lockShard(lo, false);
+		try {
+			Layout l = layout;
+			int i = l.shardOf(lo); //l.shards[i] == s
+			int next = i + 1 < l.lows.length ? l.lows[i + 1] : -1;
+			return new Part(s.tree.entries(lo, next < 0 ? Integer.MAX_VALUE : next - 1).toList(), next);
+		} finally {
+			s.lock.readLock().unlock();
+		}
+	}
+
+	/**private Shard lockShard(int k, boolean write)
+	 * returns the shard whose range contains k in the current layout, locked for reading or writing.
+	 * a shard that was retired before it was locked is unlocked, and the new layout is read.
+	 * runs in O(log(#shards)) complexity, per change of the layout that it meets
+	 */
+	private Shard lockShard(int k, boolean write) {
+		while (true) {
+			Layout l = layout;
+			Shard s = l.shards[l.shardOf(k)];
+			Lock lock = write ? s.lock.writeLock() : s.lock.readLock();
+			lock.lock();
+			if (!s.retired) //the layout can't change the range of s while s is locked
+				return s;
+			lock.unlock();
+		}
+	}
+
+	/**private static int splitSize(Shard[] shards)
+	 * returns the size above which a shard is skewed and should be split: twice the average size of the
+	 * shards, and at least MIN_SPLIT_SIZE. the shard sizes are read without their locks.
+	 * runs in O(#shards) complexity
+	 */
+	private static int splitSize(Shard[] shards) {
+		long total = 0;
+		for (Shard shard : shards)
+			total += shard.size;
+		return (int) Math.max(MIN_SPLIT_SIZE, 2 * total / shards.length);
+	}
+
+	/**private void rebalance(int k)
+	 * splits the shard of k at its root key if it is still skewed. if there are already maxShards shards,
+	 * first joins the two adjacent shards with the smallest total size, to make room for the new shard.
+	 * if the shard is not skewed, since the other shards grew as well, the split size of the layout is
+	 * raised instead. holds the rebalance lock, so the layout changes only here. the shard sizes are read
+	 * without their locks, which is enough for choosing the shards.
+	 * runs in O(logn + #shards) complexity
+	 */
+	private void rebalance(int k) {
+		rebalanceLock.lock();
+		try {
+			Layout l = layout;
+			int splitSize = splitSize(l.shards);
+			if (l.shards[l.shardOf(k)].size <= splitSize) { //another writer already rebalanced, or all shards grew
+				l.splitSize = splitSize;
+				return;
+			}
+			if (l.shards.length == maxShards) {
+				Shard[] shards = l.shards;
+				int best = 0;
+				for (int i = 1; i < shards.length - 1; i++) //finding the smallest adjacent pair
+					if (shards[i].size + shards[i + 1].size < shards[best].size + shards[best + 1].size)
+						best = i;
+				l = mergeShards(l, best);
+			}
+			splitShard(l, l.shardOf(k));
+		} finally {
+			rebalanceLock.unlock();
+		}
+	}
+
+	/**private void splitShard(Layout l, int s)
+	 * @pre: the rebalance lock is held, l is the current layout
+	 * splits shard s into two new shards at its root key, which becomes the smallest key of the new right shard,
+	 * and publishes the new layout. shard s is write locked meanwhile, and retired.
+	 * runs in O(logn + #shards) complexity
+	 */
+	private void splitShard(Layout l, int s) {
+		Shard old = l.shards[s];
+		old.lock.writeLock().lock();
+		try {
+			if (old.tree.empty()) //emptied since it was found skewed
+				return;
+			AVLTree.IAVLNode pivot = old.tree.getRoot(); //the root splits the shard into two parts of similar sizes
+			AVLTree[] parts = old.tree.split(pivot.getKey()); //the pivot belongs to neither of the parts
+			parts[1].join(pivot, new AVLTree()); //the pivot is smaller than all keys of the right part
+			int n = l.shards.length;
+			int[] newLows = new int[n + 1];
+			Shard[] newShards = new Shard[n + 1];
+			System.arraycopy(l.lows, 0, newLows, 0, s + 1);
+			System.arraycopy(l.shards, 0, newShards, 0, s);
+			newShards[s] = new Shard(parts[0]);
+			newLows[s + 1] = pivot.getKey();
+			newShards[s + 1] = new Shard(parts[1]);
+			System.arraycopy(l.lows, s + 1, newLows, s + 2, n - s - 1);
+			System.arraycopy(l.shards, s + 1, newShards, s + 2, n - s - 1);
+			layout = new Layout(newLows, newShards);
+			old.retired = true; //after the new layout is published, so threads that wait for old read it
+		} finally {
+			old.lock.writeLock().unlock();
+		}
+	}
+
+	/**private Layout mergeShards(Layout l, int s)
+	 * @pre: the rebalance lock is held, l is the current layout, s + 1 < l.shards.length
+	 * joins shards s and s + 1 into one new shard, using the minimal node of shard s + 1 as the joining node,
+	 * and publishes and returns the new layout. both shards are write locked meanwhile, and retired.
+	 * runs in O(logn + #shards) complexity
+	 */
+	private Layout mergeShards(Layout l, int s) {
+		Shard left = l.shards[s];
+		Shard right = l.shards[s + 1];
+		left.lock.writeLock().lock(); //in the order of the shards, as lockAll
+		right.lock.writeLock().lock();
+		try {
+			if (!right.tree.empty()) {
+				AVLTree.IAVLNode x = right.tree.getRoot().getMin();
+				right.tree.delete(x.getKey()); //x is unlinked from right and can be used to join
+				left.tree.join(x, right.tree);
+			}
+			int n = l.shards.length;
+			int[] newLows = new int[n - 1];
+			Shard[] newShards = new Shard[n - 1];
+			System.arraycopy(l.lows, 0, newLows, 0, s + 1);
+			System.arraycopy(l.shards, 0, newShards, 0, s);
+			newShards[s] = new Shard(left.tree);
+			System.arraycopy(l.lows, s + 2, newLows, s + 1, n - s - 2);
+			System.arraycopy(l.shards, s + 2, newShards, s + 1, n - s - 2);
+			layout = new Layout(newLows, newShards);
+			left.retired = true;
+			right.retired = true;
+			return layout;
+		} finally {
+			right.lock.writeLock().unlock();
+			left.lock.writeLock().unlock();
+		}
+	}
+
+	/**private Shard[] lockAll()
+	 * takes the read locks of all shards of the current layout, in the order of the shards, and returns them.
+	 * if one of them was retired, the locks are released and the new layout is locked. since every change of
+	 * the layout retires a shard, the returned shards are the current layout until they are unlocked.
+	 */
+	private Shard[] lockAll() {
+		retry: while (true) {
+			Shard[] shards = layout.shards;
+			for (int i = 0; i < shards.length; i++) {
+				shards[i].lock.readLock().lock();
+				if (shards[i].retired) {
+					unlockAll(shards, i + 1);
+					continue retry;
+				}
+			}
+			return shards;
+		}
+	}
+
+	/**private static void unlockAll(Shard[] shards, int n)
+	 * @pre: the read locks of the first n shards are held
+	 * releases the read locks of the first n shards.
+	 */
+	private static void unlockAll(Shard[] shards, int n) {
+		for (int i = 0; i < n; i++)
+			shards[i].lock.readLock().unlock();
+	}
+
+	/**
+	 * private static class Shard
+	 *
+	 * A range of the map: its tree, the lock that guards it, and the number of its items, which is
+	 * written under the write lock and may be read without it. A retired shard was replaced in a
+	 * newer layout, and its tree may be part of another shard or gone.
+	 */
+	private static class Shard {
+		final AVLTree tree;
+		final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+		volatile int size;
+		boolean retired = false; //guarded by lock
+
+		Shard(AVLTree tree) {
+			this.tree = tree;
+			this.size = tree.size();
+		}
+	}
+
+	/**
+	 * private static class Part
+	 *
+	 * The items of one shard that entries() copied, and the smallest key of the next shard (-1 after the last).
+	 */
+	private static class Part {
+		final List<Map.Entry<Integer, String>> items;
+		final int next;
+
+		Part(List<Map.Entry<Integer, String>> items, int next) {
+			this.items = items;
+			this.next = next;
+		}
+	}
+
+	/**
+	 * private static class Layout
+	 *
+	 * An immutable version of the layout: lows[i] is the smallest key of shards[i], lows[0] = 0.
+	 * Only splitSize changes: it is the split size of the shards when the layout was made, and it is
+	 * raised by rebalance when all shards grew.
+	 */
+	private static class Layout {
+		final int[] lows;
+		final Shard[] shards;
+		volatile int splitSize;
+
+		Layout(int[] lows, Shard[] shards) {
+			this.lows = lows;
+			this.shards = shards;
+			this.splitSize = splitSize(shards);
+		}
+
+		/**int shardOf(int k)
+		 * returns the index of the shard whose range contains k, by binary search on lows.
+		 * runs in O(log(#shards)) complexity
+		 */
+		int shardOf(int k) {
+			int lo = 0;
+			int hi = lows.length - 1;
+			while (lo < hi) { //the last shard with lows[i] <= k
+				int mid = (lo + hi + 1) >>> 1;
+				if (lows[mid] <= k)
+					lo = mid;
+				else
+					hi = mid - 1;
+			}
+			return lo;
+		}
+	}
+}
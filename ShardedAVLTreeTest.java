@@ -0,0 +1,137 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ *
+ * ShardedAVLTreeTest
+ *
+ * Checks of ShardedAVLTree against a TreeMap, run by main (java ShardedAVLTreeTest);
+ * a failed check throws an AssertionError.
+ *
+ */
+
+public class ShardedAVLTreeTest {
+
+	public static void main(String[] args) throws InterruptedException {
+		skewedKeys();
+		negativeKeys();
+		concurrentWriters();
+		System.out.println("ShardedAVLTreeTest: ok");
+	}
+
+	/**
+	 * Keys crowded in a few ranges must split the hot shards and merge the cold
+	 * ones, and the map must keep the items of a TreeMap through the changes.
+	 */
+	static void skewedKeys() {
+		Random random = new Random(1);
+		ShardedAVLTree map = new ShardedAVLTree(4);
+		TreeMap<Integer, String> expected = new TreeMap<>();
+		int maxShards = 0;
+		for (int op = 0; op < 200000; op++) {
+			int base = (op / 20000) * 200000000; //the hot range moves over the key space
+			int k = base + random.nextInt(50000);
+			if (random.nextInt(4) == 0) {
+				check((map.delete(k) != -1) == (expected.remove(k) != null), "delete " + k);
+			} else {
+				check((map.insert(k, "v" + k) != -1) == (expected.put(k, "v" + k) == null), "insert " + k);
+			}
+			if (op % 20000 == 0)
+				same(map, expected);
+			maxShards = Math.max(maxShards, map.shardNum());
+			check(Objects.equals(map.search(k), expected.get(k)), "search " + k);
+		}
+		check(maxShards == 16, "the shards were not split up to the limit: " + maxShards);
+		same(map, expected);
+	}
+
+	/**
+	 * insert must reject a negative key, and search and delete must not find it.
+	 */
+	static void negativeKeys() {
+		ShardedAVLTree map = new ShardedAVLTree(4);
+		map.insert(0, "zero");
+		try {
+			map.insert(-1, "x");
+			throw new AssertionError("a negative key was inserted");
+		} catch (IllegalArgumentException e) { // expected
+		}
+		check(map.search(-1) == null && map.delete(-1) == -1, "a negative key was found");
+		check(map.size() == 1 && "zero".equals(map.min()), "the map changed");
+	}
+
+	/**
+	 * Writers of disjoint key sets, one per thread, while readers stream the
+	 * map, must end with the union of their items; every stream must be sorted.
+	 */
+	static void concurrentWriters() throws InterruptedException {
+		int threads = 4;
+		ShardedAVLTree map = new ShardedAVLTree(2);
+		List<TreeMap<Integer, String>> parts = new ArrayList<>();
+		Thread[] writers = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			TreeMap<Integer, String> part = new TreeMap<>();
+			parts.add(part);
+			int id = t;
+			writers[t] = new Thread(() -> {
+				Random random = new Random(id);
+				for (int op = 0; op < 100000; op++) {
+					int k = random.nextInt(1 << 18) * threads + id; //the keys of thread id
+					if (random.nextInt(3) == 0) {
+						map.delete(k);
+						part.remove(k);
+					} else {
+						map.insert(k, "v" + k);
+						part.put(k, "v" + k);
+					}
+				}
+			});
+			writers[t].start();
+		}
+		boolean running = true;
+		while (running) {
+			int[] keys = map.keys().toArray();
+			for (int j = 1; j < keys.length; j++)
+				check(keys[j - 1] < keys[j], "the stream is not sorted at " + j);
+			running = false;
+			for (Thread writer : writers)
+				running |= writer.isAlive();
+		}
+		for (Thread writer : writers)
+			writer.join();
+		TreeMap<Integer, String> expected = new TreeMap<>();
+		for (TreeMap<Integer, String> part : parts)
+			expected.putAll(part);
+		same(map, expected);
+	}
+
+	/**
+	 * Checks that the map holds exactly the items of expected, through every
+	 * way of reading them.
+	 */
+	static void same(ShardedAVLTree map, TreeMap<Integer, String> expected) {
+		check(map.size() == expected.size(), "size " + map.size() + " instead of " + expected.size());
+		int[] keys = map.keysToArray();
+		String[] info = map.infoToArray();
+		check(keys.length == expected.size() && info.length == expected.size(), "array length");
+		int j = 0;
+		for (Map.Entry<Integer, String> e : expected.entrySet()) {
+			check(keys[j] == e.getKey() && e.getValue().equals(info[j]), "item " + j + " is " + keys[j]);
+			j++;
+		}
+		check(map.entries().collect(Collectors.toList()).equals(expected.entrySet().stream().toList()), "entries");
+		check(map.keys().boxed().toList().equals(expected.keySet().stream().toList()), "keys");
+		check(expected.isEmpty() ? map.min() == null : expected.firstEntry().getValue().equals(map.min()), "min");
+		check(expected.isEmpty() ? map.max() == null : expected.lastEntry().getValue().equals(map.max()), "max");
+	}
+
+	static void check(boolean condition, String message) {
+		if (!condition)
+			throw new AssertionError(message);
+	}
+}
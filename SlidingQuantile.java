@@ -0,0 +1,97 @@
+/**
+ * SlidingQuantile A streaming operator that answers quantiles over the last
+ * windowSize samples of a stream of non-negative integers. The samples of the
+ * window are kept in order of arrival in a ring buffer, and as a multiset in an
+ * AVLTree (with insertMulti), where every sample is a node and equal samples
+ * are separate nodes. Every arrival evicts the oldest sample once the window
+ * is full, and a quantile is a select over the size fields of the tree. The
+ * tree reuses the nodes of evicted samples through a NodePool, so a full window
+ * allocates no nodes. Until windowSize samples arrived, quantiles are over the
+ * samples so far. An operator is not thread safe.
+ */
+public class SlidingQuantile {
+	private static final int POOL_CAPACITY = 64;
+
+	private final int[] window; // ring buffer of the samples, oldest at next once full
+	private final AVLTree tree = new AVLTree();
+	private int next = 0; // where the next sample goes
+	private int count = 0; // number of samples in the window
+
+	/**
+	 * public SlidingQuantile(int windowSize)
+	 *
+	 * Creates an operator over windows of the last windowSize samples. runs in
+	 * O(windowSize) complexity, for the ring buffer.
+	 */
+	public SlidingQuantile(int windowSize) {
+		if (windowSize <= 0)
+			throw new IllegalArgumentException("windowSize must be positive: " + windowSize);
+		this.window = new int[windowSize];
+		tree.setNodePool(new AVLTree.NodePool(POOL_CAPACITY));
+	}
+
+	/**
+	 * public void add(int sample)
+	 *
+	 * Adds a non-negative sample to the window, and evicts the oldest sample if
+	 * the window is full. runs in O(logn) complexity.
+	 */
+	public void add(int sample) {
+		if (sample < 0)
+			throw new IllegalArgumentException("samples must not be negative: " + sample);
+		if (count == window.length) // the oldest sample is at next, and is overwritten
+			tree.delete(window[next]); // any node of an equal sample will do
+		else
+			count++;
+		window[next] = sample;
+		tree.insertMulti(sample, null);
+		next = next + 1 == window.length ? 0 : next + 1;
+	}
+
+	/**
+	 * public int quantile(double q)
+	 *
+	 * Returns the q-quantile of the window for 0 <= q <= 1, by the nearest rank
+	 * method: the smallest sample that at least q of the samples are smaller
+	 * than or equal to. Returns -1 if the window is empty. runs in O(logn)
+	 * complexity.
+	 */
+	public int quantile(double q) {
+		if (q < 0 || q > 1)
+			throw new IllegalArgumentException("q must be in [0, 1]: " + q);
+		if (count == 0)
+			return -1;
+		int i = (int) Math.ceil(q * count) - 1; // the rank of the answer, starting from 0
+		return tree.select(Math.max(i, 0));
+	}
+
+	/**
+	 * public int median()
+	 *
+	 * Returns the median of the window, as quantile(0.5). runs in O(logn)
+	 * complexity.
+	 */
+	public int median() {
+		return quantile(0.5);
+	}
+
+	/**
+	 * public int rank(int x)
+	 *
+	 * Returns the number of samples in the window that are smaller than x.
+	 * runs in O(logn) complexity.
+	 */
+	public int rank(int x) {
+		return tree.rank(x);
+	}
+
+	/**
+	 * public int size()
+	 *
+	 * Returns the number of samples in the window (at most windowSize). runs in
+	 * O(1) complexity.
+	 */
+	public int size() {
+		return count;
+	}
+}
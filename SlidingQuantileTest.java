@@ -0,0 +1,104 @@
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * SlidingQuantileTest Checks of SlidingQuantile against the sorted samples of a
+ * window kept in an ArrayDeque, run by main (java SlidingQuantileTest); a
+ * failed check throws an AssertionError.
+ */
+public class SlidingQuantileTest {
+	private static final double[] QS = { 0, 0.01, 0.1, 0.25, 0.5, 0.75, 0.9, 0.99, 1 };
+
+	public static void main(String[] args) {
+		stream();
+		arguments();
+		System.out.println("SlidingQuantileTest: ok");
+	}
+
+	/**
+	 * Quantiles, ranks and sizes must match the sorted window, for windows of
+	 * any size over random streams with many equal samples, and over ascending
+	 * and descending streams.
+	 */
+	static void stream() {
+		Random random = new Random(1);
+		for (int windowSize : new int[] { 1, 2, 7, 100, 1000 }) {
+			for (int order = 0; order < 3; order++) {
+				SlidingQuantile operator = new SlidingQuantile(windowSize);
+				ArrayDeque<Integer> window = new ArrayDeque<>();
+				check(operator.quantile(0.5) == -1 && operator.size() == 0, "the empty window");
+				for (int i = 0; i < 20000; i++) {
+					int sample = order == 0 ? random.nextInt(50) : order == 1 ? i / 3 : 20000 - i / 3;
+					operator.add(sample);
+					window.addLast(sample);
+					if (window.size() > windowSize)
+						window.removeFirst();
+					if (i % 7 == 0 || i < 2 * windowSize)
+						same(operator, window, random);
+				}
+			}
+		}
+	}
+
+	/**
+	 * The constructor must reject a window size that is not positive, add a
+	 * negative sample, and quantile a q out of [0, 1].
+	 */
+	static void arguments() {
+		try {
+			new SlidingQuantile(0);
+			throw new AssertionError("an empty window was created");
+		} catch (IllegalArgumentException e) { // expected
+		}
+		SlidingQuantile operator = new SlidingQuantile(3);
+		try {
+			operator.add(-1);
+			throw new AssertionError("a negative sample was added");
+		} catch (IllegalArgumentException e) { // expected
+		}
+		try {
+			operator.quantile(1.5);
+			throw new AssertionError("a quantile above 1 was answered");
+		} catch (IllegalArgumentException e) { // expected
+		}
+		check(operator.size() == 0, "the operator changed");
+	}
+
+	/**
+	 * Checks the size, the quantiles of QS and the ranks of a few samples of
+	 * the operator against the window.
+	 */
+	static void same(SlidingQuantile operator, ArrayDeque<Integer> window, Random random) {
+		int[] sorted = window.stream().mapToInt(Integer::intValue).sorted().toArray();
+		int n = sorted.length;
+		check(operator.size() == n, "size " + operator.size() + " instead of " + n);
+		for (double q : QS) {
+			int expected = sorted[Math.max((int) Math.ceil(q * n) - 1, 0)];
+			check(operator.quantile(q) == expected, q + "-quantile " + operator.quantile(q) + " instead of " + expected);
+		}
+		check(operator.median() == operator.quantile(0.5), "median");
+		for (int j = 0; j < 3; j++) {
+			int x = sorted[random.nextInt(n)] + random.nextInt(3) - 1;
+			int expected = lowerBound(sorted, x);
+			check(operator.rank(x) == expected, "rank(" + x + ") " + operator.rank(x) + " instead of " + expected);
+		}
+	}
+
+	/**
+	 * Returns the number of keys of sorted that are smaller than x.
+	 */
+	static int lowerBound(int[] sorted, int x) {
+		int i = Arrays.binarySearch(sorted, x);
+		if (i < 0)
+			return -i - 1;
+		while (i > 0 && sorted[i - 1] == x)
+			i--;
+		return i;
+	}
+
+	static void check(boolean condition, String message) {
+		if (!condition)
+			throw new AssertionError(message);
+	}
+}
@@ -0,0 +1,335 @@
+import java.util.AbstractMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
+
+/**
+ * TTLCache A key/value cache over non-negative integer keys and String values,
+ * where every entry expires after its own time to live, and the number of
+ * entries is bounded. Every entry is a node of a FibonacciHeap, which holds its
+ * value and whose key is its expiry time, so the entry that expires first is
+ * always at the minimum. The node of a key is found by a HashMap, the only
+ * index for lookups, and the keys are also kept in an AVLTree, the ordered
+ * index for range scans, which holds no values. Each entry has one heap node
+ * for its whole life: a put of an existing key changes the value of the node
+ * in place, and a refresh moves the node with updateKey. Times are kept as
+ * long milliseconds since the creation of the cache, and the key of a heap
+ * node is its expiry time relative to a base time, saturated to fit in an int.
+ * The base moves forward to the current time every REBASE milliseconds (about
+ * 12 days), and the heap is rebuilt with the new relative keys, so the cache
+ * keeps working for as long as it lives. Expiries further than
+ * Integer.MAX_VALUE milliseconds from the base share the maximal key, so they
+ * are evicted in no particular order among themselves. All methods are
+ * synchronized, and the hit, miss, eviction and expiration counters only grow
+ * for the life of the cache.
+ */
+public class TTLCache {
+	private final int maxSize;
+	private final LongSupplier clock; // milliseconds
+	private final long start;
+	private static final long REBASE = 1L << 30; // milliseconds between moves of the base
+	private long base = 0; // the time that the keys of the heap are relative to
+	private final AVLTree index = new AVLTree();
+	private FibonacciHeap expiries = new FibonacciHeap();
+	private final HashMap<Integer, ExpiryNode> nodes = new HashMap<>();
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+	private long expirations = 0;
+
+	/**
+	 * public TTLCache(int maxSize)
+	 *
+	 * Creates an empty cache that holds at most maxSize entries, timed by
+	 * System.currentTimeMillis().
+	 */
+	public TTLCache(int maxSize) {
+		this(maxSize, System::currentTimeMillis);
+	}
+
+	/**
+	 * public TTLCache(int maxSize, LongSupplier clock)
+	 *
+	 * Creates an empty cache that holds at most maxSize entries, timed by the
+	 * given clock of milliseconds.
+	 */
+	public TTLCache(int maxSize, LongSupplier clock) {
+		if (maxSize <= 0)
+			throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+		this.maxSize = maxSize;
+		this.clock = clock;
+		this.start = clock.getAsLong();
+	}
+
+	/**
+	 * public synchronized void put(int key, String value, long ttlMillis)
+	 *
+	 * Maps key to value for the next ttlMillis milliseconds. An existing entry
+	 * of key gets the new value and expiry time in its heap node, and the index
+	 * is not changed. Expired entries are swept first, and if the cache is still
+	 * full, the entry that would expire first is evicted. runs in O(logn)
+	 * amortized complexity, plus O(logn) amortized complexity for every swept
+	 * entry.
+	 */
+	public synchronized void put(int key, String value, long ttlMillis) {
+		if (key < 0)
+			throw new IllegalArgumentException("keys must not be negative: " + key);
+		long now = now();
+		long expiry = expiryOf(now, ttlMillis);
+		expire(now);
+		ExpiryNode node = nodes.get(key);
+		if (node != null) { // updated in place, the key stays in the index
+			node.value = value;
+			node.expiry = expiry;
+			expiries.updateKey(node, keyOf(expiry));
+			return;
+		}
+		if (nodes.size() >= maxSize) { // evicting the entry that would expire first
+			remove((ExpiryNode) expiries.findMin());
+			evictions++;
+		}
+		node = new ExpiryNode(key, value, expiry, keyOf(expiry));
+		expiries.insertNode(node);
+		nodes.put(key, node);
+		index.insert(key, null); // the value is in the node
+	}
+
+	/**
+	 * public synchronized String get(int key)
+	 *
+	 * Returns the value of key, or null if the cache has no live entry of key.
+	 * An expired entry that wasn't swept yet is removed here. runs in O(1)
+	 * expected complexity for a hit.
+	 */
+	public synchronized String get(int key) {
+		ExpiryNode node = nodes.get(key);
+		if (node == null) {
+			misses++;
+			return null;
+		}
+		if (node.expiry <= now()) { // expired, but not swept yet
+			remove(node);
+			expirations++;
+			misses++;
+			return null;
+		}
+		hits++;
+		return node.value;
+	}
+
+	/**
+	 * public synchronized boolean refresh(int key, long ttlMillis)
+	 *
+	 * Sets the expiry time of the live entry of key to ttlMillis milliseconds
+	 * from now, in either direction. Returns false if there is no such entry.
+	 * runs in O(1) amortized complexity when the expiry is earlier, and in
+	 * O(logn) amortized complexity otherwise.
+	 */
+	public synchronized boolean refresh(int key, long ttlMillis) {
+		long now = now();
+		ExpiryNode node = nodes.get(key);
+		if (node == null || node.expiry <= now)
+			return false;
+		node.expiry = expiryOf(now, ttlMillis);
+		expiries.updateKey(node, keyOf(node.expiry));
+		return true;
+	}
+
+	/**
+	 * public synchronized boolean remove(int key)
+	 *
+	 * Removes the entry of key. Returns false if there is no live entry of key;
+	 * an expired entry that wasn't swept yet is removed as an expiration. runs
+	 * in O(logn) amortized complexity.
+	 */
+	public synchronized boolean remove(int key) {
+		ExpiryNode node = nodes.get(key);
+		if (node == null)
+			return false;
+		remove(node);
+		if (node.expiry <= now()) { // expired, but not swept yet
+			expirations++;
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * public synchronized int expire()
+	 *
+	 * Sweeps the expired entries: pops them from the heap with deleteMin while
+	 * the minimal expiry time has passed, and removes them from the index.
+	 * Returns the number of swept entries. runs in O(mlogn) amortized
+	 * complexity for m swept entries.
+	 */
+	public synchronized int expire() {
+		return expire(now());
+	}
+
+	/**
+	 * public synchronized List<Map.Entry<Integer, String>> scan(int lo, int hi)
+	 *
+	 * Returns the live entries with keys k with lo <= k <= hi, sorted by their
+	 * keys. Expired entries are swept first. The keys come from the index, and
+	 * their values from their nodes. runs in O(logn + m) expected complexity
+	 * for m entries in the range, plus the sweep.
+	 */
+	public synchronized List<Map.Entry<Integer, String>> scan(int lo, int hi) {
+		expire(now());
+		return index.keys(lo, hi).mapToObj(k -> new AbstractMap.SimpleImmutableEntry<>(k, nodes.get(k).value))
+				.collect(Collectors.toList());
+	}
+
+	/**
+	 * public synchronized int size()
+	 *
+	 * Returns the number of entries, including expired entries that weren't
+	 * swept yet. runs in O(1) complexity.
+	 */
+	public synchronized int size() {
+		return nodes.size();
+	}
+
+	/**
+	 * public synchronized long hits()
+	 *
+	 * Returns the number of calls to get that found a live entry.
+	 */
+	public synchronized long hits() {
+		return hits;
+	}
+
+	/**
+	 * public synchronized long misses()
+	 *
+	 * Returns the number of calls to get that found no live entry.
+	 */
+	public synchronized long misses() {
+		return misses;
+	}
+
+	/**
+	 * public synchronized long evictions()
+	 *
+	 * Returns the number of live entries removed because the cache was full.
+	 */
+	public synchronized long evictions() {
+		return evictions;
+	}
+
+	/**
+	 * public synchronized long expirations()
+	 *
+	 * Returns the number of entries removed because their time to live passed.
+	 */
+	public synchronized long expirations() {
+		return expirations;
+	}
+
+	/**
+	 * private int expire(long now) pops and removes the entries whose expiry
+	 * time is at most now, and returns their number. While the base is less than
+	 * Integer.MAX_VALUE milliseconds old, the key of an unexpired entry is above
+	 * the key of every expired one, so the expired entries are at the minimum.
+	 * Moves the base to now once it is REBASE milliseconds old (after a longer
+	 * pause, the entries left behind are swept by the next call).
+	 */
+	private int expire(long now) {
+		int res = 0;
+		while (!expiries.isEmpty() && ((ExpiryNode) expiries.findMin()).expiry <= now) {
+			ExpiryNode node = (ExpiryNode) expiries.findMin();
+			expiries.deleteMin();
+			removeEntry(node);
+			res++;
+		}
+		expirations += res;
+		if (now - base >= REBASE)
+			rebase(now);
+		return res;
+	}
+
+	/**
+	 * private void rebase(long now) moves the base to now, and rebuilds the
+	 * heap from the nodes of the live entries with their new keys. The old keys
+	 * can't be shifted in place, since saturated keys become distinct. runs in
+	 * O(n) complexity.
+	 */
+	private void rebase(long now) {
+		base = now;
+		expiries = new FibonacciHeap();
+		for (ExpiryNode node : nodes.values()) {
+			node.key = keyOf(node.expiry);
+			node.rank = 0;
+			node.mark = false;
+			node.child = null;
+			node.parent = null;
+			node.next = node; // detached, as insertNode expects
+			node.prev = node;
+			expiries.insertNode(node);
+		}
+	}
+
+	/**
+	 * private void remove(ExpiryNode node) removes the entry of the node from
+	 * the heap, the index and the map.
+	 */
+	private void remove(ExpiryNode node) {
+		expiries.delete(node);
+		removeEntry(node);
+	}
+
+	/**
+	 * private void removeEntry(ExpiryNode node) removes the entry of the node,
+	 * which is no longer in the heap, from the index and the map.
+	 */
+	private void removeEntry(ExpiryNode node) {
+		index.delete(node.cacheKey);
+		nodes.remove(node.cacheKey);
+	}
+
+	/**
+	 * private long now() returns the milliseconds since the creation of the
+	 * cache.
+	 */
+	private long now() {
+		return clock.getAsLong() - start;
+	}
+
+	/**
+	 * private static long expiryOf(long now, long ttlMillis) returns the expiry
+	 * time of an entry with the given time to live, saturated at Long.MAX_VALUE.
+	 */
+	private static long expiryOf(long now, long ttlMillis) {
+		return now + Math.min(Math.max(ttlMillis, 0), Long.MAX_VALUE - now);
+	}
+
+	/**
+	 * private int keyOf(long expiry) returns the heap key of an expiry time: its
+	 * distance from the base, saturated to [0, Integer.MAX_VALUE]. The
+	 * saturation keeps the order of the keys consistent with the expiry times.
+	 */
+	private int keyOf(long expiry) {
+		return (int) Math.max(0, Math.min(expiry - base, Integer.MAX_VALUE));
+	}
+
+	/**
+	 * private static class ExpiryNode
+	 *
+	 * A heap node of an entry, with the key of the entry in the cache, its value
+	 * and its expiry time. The key of the node is keyOf(expiry).
+	 */
+	private static class ExpiryNode extends FibonacciHeap.HeapNode {
+		final int cacheKey;
+		String value;
+		long expiry;
+
+		ExpiryNode(int cacheKey, String value, long expiry, int key) {
+			super(key);
+			this.cacheKey = cacheKey;
+			this.value = value;
+			this.expiry = expiry;
+		}
+	}
+}
@@ -0,0 +1,91 @@
+import java.util.AbstractMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * TTLCacheTest Checks of TTLCache against a TreeMap of the live entries and
+ * their expiry times, on a clock that the test moves, run by main (java
+ * TTLCacheTest); a failed check throws an AssertionError.
+ */
+public class TTLCacheTest {
+
+	public static void main(String[] args) {
+		randomOperations();
+		System.out.println("TTLCacheTest: ok");
+	}
+
+	/**
+	 * Random puts (new keys and existing ones), gets, refreshes, removes and
+	 * scans, while the clock moves, must return the values of the model, expire
+	 * entries at their times and evict the entry that expires first.
+	 */
+	static void randomOperations() {
+		Random random = new Random(1);
+		long[] time = { 1000 };
+		int maxSize = 50;
+		TTLCache cache = new TTLCache(maxSize, () -> time[0]);
+		TreeMap<Integer, String> values = new TreeMap<>();
+		TreeMap<Integer, Long> expiries = new TreeMap<>(); // times since the creation of the cache
+		Set<Long> used = new HashSet<>(); // expiry times are distinct, so the evicted entry is known
+		long evictions = 0;
+		for (int op = 0; op < 100000; op++) {
+			time[0] += random.nextInt(3);
+			long now = time[0] - 1000;
+			expiries.entrySet().removeIf(e -> e.getValue() <= now);
+			values.keySet().retainAll(expiries.keySet());
+			int key = random.nextInt(100);
+			int choice = random.nextInt(10);
+			if (choice < 4) {
+				long ttl = 1 + random.nextInt(200);
+				while (!used.add(now + ttl))
+					ttl++;
+				String value = "v" + op;
+				if (!values.containsKey(key) && values.size() == maxSize) {
+					int first = expiries.keySet().stream().min((a, b) -> Long.compare(expiries.get(a), expiries.get(b)))
+							.get();
+					values.remove(first);
+					expiries.remove(first);
+					evictions++;
+				}
+				cache.put(key, value, ttl);
+				values.put(key, value);
+				expiries.put(key, now + ttl);
+			} else if (choice < 7) {
+				check(Objects.equals(cache.get(key), values.get(key)), "get " + key + " at " + op);
+			} else if (choice < 8) {
+				long ttl = 1 + random.nextInt(200);
+				boolean live = values.containsKey(key);
+				if (live && !used.add(now + ttl))
+					continue;
+				check(cache.refresh(key, ttl) == live, "refresh " + key);
+				if (live)
+					expiries.put(key, now + ttl);
+			} else if (choice < 9) {
+				boolean live = values.containsKey(key);
+				check(cache.remove(key) == live, "remove " + key);
+				values.remove(key);
+				expiries.remove(key);
+			} else {
+				int lo = random.nextInt(100);
+				int hi = lo + random.nextInt(30);
+				List<Map.Entry<Integer, String>> expected = values.subMap(lo, true, hi, true).entrySet().stream()
+						.map(e -> new AbstractMap.SimpleImmutableEntry<>(e.getKey(), e.getValue()))
+						.collect(Collectors.toList());
+				check(cache.scan(lo, hi).equals(expected), "scan " + lo + ".." + hi + " at " + op);
+				check(cache.size() == values.size(), "size " + cache.size() + " instead of " + values.size());
+			}
+		}
+		check(cache.evictions() == evictions, cache.evictions() + " evictions instead of " + evictions);
+	}
+
+	static void check(boolean condition, String message) {
+		if (!condition)
+			throw new AssertionError(message);
+	}
+}
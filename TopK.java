@@ -0,0 +1,104 @@
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * TopK A streaming operator that keeps the k largest keys of a stream of
+ * integers. The keys are held in a FibonacciHeap of at most k nodes, so the
+ * root with the minimal key is the smallest of the top k, and the first to be
+ * evicted when a bigger key arrives. An operator is not thread safe: parallel
+ * workers each fill their own TopK over their part of the stream, and the
+ * partial results are combined with meld. A key equal to the smallest kept key
+ * is rejected, so of equal keys at the boundary, the first ones are kept.
+ */
+public class TopK {
+	private final int k;
+	private final FibonacciHeap heap = new FibonacciHeap();
+
+	/**
+	 * public TopK(int k)
+	 *
+	 * Creates an operator that keeps the k largest keys. runs in O(1) complexity.
+	 */
+	public TopK(int k) {
+		if (k < 0)
+			throw new IllegalArgumentException("k must not be negative: " + k);
+		this.k = k;
+	}
+
+	/**
+	 * public void offer(int key)
+	 *
+	 * Adds key to the top k if there are less than k keys, or if it is bigger
+	 * than the smallest of them, which is then evicted. A key that is not
+	 * bigger is rejected in O(1) complexity, by comparing it to the minimum of
+	 * the heap. An eviction is a deleteMin, and runs in O(logk) amortized
+	 * complexity.
+	 */
+	public void offer(int key) {
+		if (heap.size() < k) {
+			heap.insert(key);
+			return;
+		}
+		if (k == 0 || key <= heap.findMin().getKey()) // not better than the current top k
+			return;
+		heap.deleteMin(); // evicting the smallest of the top k
+		heap.insert(key);
+	}
+
+	/**
+	 * public void meld(TopK other)
+	 *
+	 * Adds the keys of other to this operator, and keeps the k largest of all
+	 * of them. other must not be used afterwards, since its heap is melded into
+	 * this heap. runs in O(1) complexity, plus O(logk) amortized complexity for
+	 * every evicted key.
+	 */
+	public void meld(TopK other) {
+		heap.meld(other.heap); // O(1), the trees of other are added as they are
+		while (heap.size() > k) // evicting the smallest keys down to k
+			heap.deleteMin();
+	}
+
+	/**
+	 * public int size()
+	 *
+	 * Returns the number of keys that are currently kept (at most k). runs in
+	 * O(1) complexity.
+	 */
+	public int size() {
+		return heap.size();
+	}
+
+	/**
+	 * public int[] snapshot()
+	 *
+	 * Returns the kept keys, sorted from the largest to the smallest. The heap
+	 * is not changed: its trees are walked (the roots from first, and the
+	 * children of every node from child), and the keys are sorted. runs in
+	 * O(klogk) complexity.
+	 */
+	public int[] snapshot() {
+		int[] arr = new int[heap.size()];
+		int i = 0;
+		ArrayDeque<FibonacciHeap.HeapNode> levels = new ArrayDeque<>(); // first nodes of levels to walk
+		if (!heap.isEmpty())
+			levels.push(heap.first);
+		while (!levels.isEmpty()) {
+			FibonacciHeap.HeapNode start = levels.pop();
+			FibonacciHeap.HeapNode pointer = start;
+			do { // every level is a circle
+				arr[i++] = pointer.key;
+				if (pointer.child != null)
+					levels.push(pointer.child);
+				pointer = pointer.next;
+			} while (pointer != start);
+		}
+		Arrays.sort(arr);
+		for (int j = 0; j < arr.length / 2; j++) { // from the largest to the smallest
+			int temp = arr[j];
+			arr[j] = arr[arr.length - 1 - j];
+			arr[arr.length - 1 - j] = temp;
+		}
+		return arr;
+	}
+}
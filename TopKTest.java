@@ -0,0 +1,94 @@
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * TopKTest Checks of TopK against a PriorityQueue that keeps the k largest
+ * keys, run by main (java TopKTest); a failed check throws an AssertionError.
+ */
+public class TopKTest {
+
+	public static void main(String[] args) {
+		stream();
+		meld();
+		System.out.println("TopKTest: ok");
+	}
+
+	/**
+	 * offer must keep the k largest keys of random, ascending and descending
+	 * streams with repeated keys, and snapshot must not change them.
+	 */
+	static void stream() {
+		Random random = new Random(1);
+		for (int k : new int[] { 0, 1, 2, 7, 100 }) {
+			for (int order = 0; order < 3; order++) {
+				TopK top = new TopK(k);
+				PriorityQueue<Integer> expected = new PriorityQueue<>();
+				for (int i = 0; i < 5000; i++) {
+					int key = order == 0 ? random.nextInt(300) : order == 1 ? i / 3 : -i / 3;
+					top.offer(key);
+					offer(expected, k, key);
+					if (i % 250 == 0)
+						same(top, expected);
+				}
+				same(top, expected);
+			}
+		}
+	}
+
+	/**
+	 * Operators filled over parts of a stream and melded must keep the same
+	 * keys as one operator over the whole stream.
+	 */
+	static void meld() {
+		Random random = new Random(2);
+		for (int round = 0; round < 200; round++) {
+			int k = 1 + random.nextInt(50);
+			TopK whole = new TopK(k);
+			PriorityQueue<Integer> expected = new PriorityQueue<>();
+			TopK melded = new TopK(k);
+			for (int part = random.nextInt(5); part >= 0; part--) {
+				TopK top = new TopK(k);
+				for (int i = random.nextInt(200); i > 0; i--) {
+					int key = random.nextInt(1000) - 500;
+					top.offer(key);
+					whole.offer(key);
+					offer(expected, k, key);
+				}
+				melded.meld(top);
+				check(melded.size() <= k, "meld kept " + melded.size() + " keys");
+			}
+			same(melded, expected);
+			same(whole, expected);
+		}
+	}
+
+	/**
+	 * Offers key to a min-heap that keeps the k largest keys.
+	 */
+	static void offer(PriorityQueue<Integer> expected, int k, int key) {
+		if (expected.size() < k)
+			expected.add(key);
+		else if (k > 0 && key > expected.peek()) {
+			expected.poll();
+			expected.add(key);
+		}
+	}
+
+	/**
+	 * Checks that top keeps the keys of expected, sorted from the largest.
+	 */
+	static void same(TopK top, PriorityQueue<Integer> expected) {
+		int[] keys = expected.stream().mapToInt(Integer::intValue).sorted().toArray();
+		int[] snapshot = top.snapshot();
+		check(top.size() == keys.length, "size " + top.size() + " instead of " + keys.length);
+		for (int j = 0; j < keys.length; j++)
+			check(snapshot[j] == keys[keys.length - 1 - j], "key " + j + " of " + Arrays.toString(snapshot));
+		check(Arrays.equals(snapshot, top.snapshot()), "snapshot changed the keys");
+	}
+
+	static void check(boolean condition, String message) {
+		if (!condition)
+			throw new AssertionError(message);
+	}
+}
@@ -0,0 +1,490 @@
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ *
+ * WorkloadTrace
+ *
+ * Capture and replay of workloads of AVLTree and FibonacciHeap. A Recorder performs the operations of
+ * a program on its tree or heap and logs every operation to a trace file. A replay drives any Engine
+ * with the trace, either at full speed or at the pacing of the recording, and returns a Report with
+ * latency histograms per operation, the allocation and GC activity of the replay, and the counters of
+ * the engine (for the heap engine, its links, cuts and potential).
+ *
+ * The trace file is a header (MAGIC, VERSION) and then one record of RECORD bytes per operation: the
+ * op code, a key, a delta and the nanoseconds since the recording started. Heap nodes are named by
+ * ordinals: the i-th heap insert of the trace creates node i, and the key of decreaseKey, updateKey
+ * and delete is the ordinal of their node. The recorder and the heap engine keep the ordinal of a node
+ * in the node itself (an OrdinalNode), so nothing is kept for the nodes that left the heap.
+ *
+ */
+
+public class WorkloadTrace {
+	public static final byte SEARCH = 1; // AVLTree.search(key)
+	public static final byte INSERT = 2; // AVLTree.insert(key, info)
+	public static final byte DELETE = 3; // AVLTree.delete(key)
+	public static final byte HEAP_INSERT = 4; // FibonacciHeap.insert(key), creates the next ordinal
+	public static final byte HEAP_DELETE_MIN = 5; // FibonacciHeap.deleteMin()
+	public static final byte HEAP_DECREASE_KEY = 6; // FibonacciHeap.decreaseKey(node key, delta)
+	public static final byte HEAP_DELETE = 7; // FibonacciHeap.delete(node key)
+	public static final byte HEAP_UPDATE_KEY = 8; // FibonacciHeap.updateKey(node key, delta as the new key)
+	private static final String[] OP_NAMES = { null, "search", "insert", "delete", "heapInsert", "heapDeleteMin",
+			"heapDecreaseKey", "heapDelete", "heapUpdateKey" };
+
+	private static final int MAGIC = 0x54524345; // "TRCE"
+	private static final int VERSION = 1;
+	private static final int RECORD = 1 + 4 + 4 + 8; // bytes of op, key, delta, time
+	private static final int BUFFER = RECORD * 4096;
+
+	/**
+	 * public interface Engine
+	 *
+	 * An implementation that a trace can be replayed on.
+	 */
+	public interface Engine {
+		/**void apply(byte op, int key, int delta)
+		 * performs one operation of the trace.
+		 */
+		void apply(byte op, int key, int delta);
+
+		/**Map<String, Long> counters()
+		 * returns counters of the engine to report after a replay.
+		 */
+		default Map<String, Long> counters() {
+			return new LinkedHashMap<>();
+		}
+	}
+
+	/**
+	 * public static class AVLEngine
+	 *
+	 * Replays the tree operations of a trace on an AVLTree. Inserted items get an empty info, since traces
+	 * hold no info.
+	 */
+	public static class AVLEngine implements Engine {
+		private final AVLTree tree;
+
+		public AVLEngine(AVLTree tree) {
+			this.tree = tree;
+		}
+
+		public void apply(byte op, int key, int delta) {
+			switch (op) {
+			case SEARCH:
+				tree.search(key);
+				break;
+			case INSERT:
+				tree.insert(key, "");
+				break;
+			case DELETE:
+				tree.delete(key);
+				break;
+			default:
+				throw new IllegalArgumentException("not a tree operation: " + op);
+			}
+		}
+
+		public Map<String, Long> counters() {
+			Map<String, Long> res = new LinkedHashMap<>();
+			res.put("size", (long) tree.size());
+			res.put("height", (long) tree.getRoot().getHeight());
+			return res;
+		}
+	}
+
+	/**
+	 * public static class HeapEngine
+	 *
+	 * Replays the heap operations of a trace on a FibonacciHeap, keeping the node of every ordinal while
+	 * it is in the heap (a slot of the ordinal is cleared when its node leaves). Reports the links and
+	 * cuts made during the replay, and the potential of the heap after it.
+	 */
+	public static class HeapEngine implements Engine {
+		private final FibonacciHeap heap;
+		private final ArrayList<OrdinalNode> nodes = new ArrayList<>();
+		private final int links = FibonacciHeap.totalLinks();
+		private final int cuts = FibonacciHeap.totalCuts();
+
+		public HeapEngine(FibonacciHeap heap) {
+			this.heap = heap;
+		}
+
+		public void apply(byte op, int key, int delta) {
+			switch (op) {
+			case HEAP_INSERT: {
+				OrdinalNode node = new OrdinalNode(key, nodes.size());
+				heap.insertNode(node);
+				nodes.add(node);
+				break;
+			}
+			case HEAP_DELETE_MIN:
+				if (!heap.isEmpty())
+					nodes.set(((OrdinalNode) heap.findMin()).ordinal, null);
+				heap.deleteMin();
+				break;
+			case HEAP_DECREASE_KEY:
+				heap.decreaseKey(nodes.get(key), delta);
+				break;
+			case HEAP_DELETE:
+				heap.delete(nodes.set(key, null));
+				break;
+			case HEAP_UPDATE_KEY:
+				heap.updateKey(nodes.get(key), delta);
+				break;
+			default:
+				throw new IllegalArgumentException("not a heap operation: " + op);
+			}
+		}
+
+		public Map<String, Long> counters() {
+			Map<String, Long> res = new LinkedHashMap<>();
+			res.put("size", (long) heap.size());
+			res.put("totalLinks", (long) (FibonacciHeap.totalLinks() - links));
+			res.put("totalCuts", (long) (FibonacciHeap.totalCuts() - cuts));
+			res.put("potential", (long) heap.potential());
+			return res;
+		}
+	}
+
+	/**
+	 * public static class Recorder
+	 *
+	 * Performs operations on a tree or a heap and appends them to a trace file. Records are buffered and
+	 * written sequentially. A recorder must not be used by several threads at once.
+	 */
+	public static class Recorder implements Closeable {
+		private final FileChannel channel;
+		private final ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER);
+		private final long start = System.nanoTime();
+		private int ordinals = 0; // heap inserts so far
+
+		/**
+		 * public Recorder(Path file) throws IOException
+		 *
+		 * Creates (or truncates) the trace file.
+		 */
+		public Recorder(Path file) throws IOException {
+			this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING);
+			buf.putInt(MAGIC).putInt(VERSION);
+		}
+
+		public String search(AVLTree tree, int k) throws IOException {
+			log(SEARCH, k, 0);
+			return tree.search(k);
+		}
+
+		public int insert(AVLTree tree, int k, String i) throws IOException {
+			log(INSERT, k, 0);
+			return tree.insert(k, i);
+		}
+
+		public int delete(AVLTree tree, int k) throws IOException {
+			log(DELETE, k, 0);
+			return tree.delete(k);
+		}
+
+		public FibonacciHeap.HeapNode insert(FibonacciHeap heap, int key) throws IOException {
+			log(HEAP_INSERT, key, 0);
+			OrdinalNode node = new OrdinalNode(key, ordinals++);
+			heap.insertNode(node);
+			return node;
+		}
+
+		public void deleteMin(FibonacciHeap heap) throws IOException {
+			log(HEAP_DELETE_MIN, 0, 0);
+			heap.deleteMin();
+		}
+
+		public void decreaseKey(FibonacciHeap heap, FibonacciHeap.HeapNode x, int delta) throws IOException {
+			log(HEAP_DECREASE_KEY, ordinalOf(x), delta);
+			heap.decreaseKey(x, delta);
+		}
+
+		public void delete(FibonacciHeap heap, FibonacciHeap.HeapNode x) throws IOException {
+			log(HEAP_DELETE, ordinalOf(x), 0);
+			heap.delete(x);
+		}
+
+		public void updateKey(FibonacciHeap heap, FibonacciHeap.HeapNode x, int newKey) throws IOException {
+			log(HEAP_UPDATE_KEY, ordinalOf(x), newKey);
+			heap.updateKey(x, newKey);
+		}
+
+		/**
+		 * public void close() throws IOException
+		 *
+		 * Writes the buffered records and closes the trace file.
+		 */
+		public void close() throws IOException {
+			flush();
+			channel.close();
+		}
+
+		private static int ordinalOf(FibonacciHeap.HeapNode x) {
+			if (!(x instanceof OrdinalNode))
+				throw new IllegalArgumentException("the node was not inserted through a recorder");
+			return ((OrdinalNode) x).ordinal;
+		}
+
+		private void log(byte op, int key, int delta) throws IOException {
+			if (buf.remaining() < RECORD)
+				flush();
+			buf.put(op).putInt(key).putInt(delta).putLong(System.nanoTime() - start);
+		}
+
+		private void flush() throws IOException {
+			buf.flip();
+			while (buf.hasRemaining())
+				channel.write(buf);
+			buf.clear();
+		}
+	}
+
+	/**
+	 * private static class OrdinalNode
+	 *
+	 * A heap node that knows its ordinal in the trace.
+	 */
+	private static class OrdinalNode extends FibonacciHeap.HeapNode {
+		final int ordinal;
+
+		OrdinalNode(int key, int ordinal) {
+			super(key);
+			this.ordinal = ordinal;
+		}
+	}
+
+	/**
+	 * public static Report replay(Path file, Engine engine, boolean paced) throws IOException
+	 *
+	 * Replays the trace in file on engine, and measures the latency of every operation. If paced, every
+	 * operation starts no earlier than its recorded time after the start of the replay (waiting is not
+	 * measured), otherwise the operations run back to back. The records are read in sequential batches of
+	 * BUFFER bytes.
+	 */
+	public static Report replay(Path file, Engine engine, boolean paced) throws IOException {
+		Report report = new Report();
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		long allocated = allocatedBytes(threads);
+		long gcCount = 0;
+		long gcTime = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			gcCount -= Math.max(gc.getCollectionCount(), 0);
+			gcTime -= Math.max(gc.getCollectionTime(), 0);
+		}
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER);
+			buf.flip();
+			fill(channel, buf, 8);
+			if (buf.getInt() != MAGIC || buf.getInt() != VERSION)
+				throw new IOException("not a workload trace: " + file);
+			long start = System.nanoTime();
+			while (fill(channel, buf, RECORD)) {
+				byte op = buf.get();
+				int key = buf.getInt();
+				int delta = buf.getInt();
+				long time = buf.getLong();
+				if (op <= 0 || op >= OP_NAMES.length)
+					throw new IOException("bad op code " + op + " in " + file);
+				if (paced)
+					for (long wait = start + time - System.nanoTime(); wait > 0; wait = start + time - System.nanoTime())
+						LockSupport.parkNanos(wait);
+				long before = System.nanoTime();
+				engine.apply(op, key, delta);
+				report.histogram(op).record(System.nanoTime() - before);
+			}
+			report.nanos = System.nanoTime() - start;
+		}
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			gcCount += Math.max(gc.getCollectionCount(), 0);
+			gcTime += Math.max(gc.getCollectionTime(), 0);
+		}
+		report.allocatedBytes = allocated < 0 ? -1 : allocatedBytes(threads) - allocated;
+		report.gcCount = gcCount;
+		report.gcMillis = gcTime;
+		report.counters = engine.counters();
+		return report;
+	}
+
+	/**private static boolean fill(FileChannel channel, ByteBuffer buf, int bytes)
+	 * reads until buf holds at least the given number of bytes. Returns false at the end of the file if
+	 * buf is empty, and throws EOFException if the file ends in the middle of a record.
+	 */
+	private static boolean fill(FileChannel channel, ByteBuffer buf, int bytes) throws IOException {
+		if (buf.remaining() >= bytes)
+			return true;
+		buf.compact();
+		while (buf.position() < bytes)
+			if (channel.read(buf) < 0) {
+				buf.flip();
+				if (!buf.hasRemaining())
+					return false;
+				throw new EOFException("the trace ends in the middle of a record");
+			}
+		buf.flip();
+		return true;
+	}
+
+	/**private static long allocatedBytes(ThreadMXBean threads)
+	 * returns the bytes allocated by the current thread so far, or -1 if the JVM doesn't count them.
+	 */
+	private static long allocatedBytes(ThreadMXBean threads) {
+		if (threads instanceof com.sun.management.ThreadMXBean)
+			return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+		return -1;
+	}
+
+	/**
+	 * public static class Report
+	 *
+	 * The results of a replay: a latency histogram per op code, the duration, the bytes allocated by the
+	 * replaying thread (-1 if unknown), the GC collections and their time, and the counters of the engine.
+	 */
+	public static class Report {
+		private final Histogram[] histograms = new Histogram[OP_NAMES.length];
+		private long nanos;
+		private long allocatedBytes;
+		private long gcCount;
+		private long gcMillis;
+		private Map<String, Long> counters;
+
+		/**
+		 * public Histogram histogram(byte op)
+		 *
+		 * Returns the latency histogram of the op code (empty if it wasn't in the trace).
+		 */
+		public Histogram histogram(byte op) {
+			if (histograms[op] == null)
+				histograms[op] = new Histogram();
+			return histograms[op];
+		}
+
+		public long operations() {
+			long res = 0;
+			for (Histogram h : histograms)
+				if (h != null)
+					res += h.count();
+			return res;
+		}
+
+		public long nanos() {
+			return nanos;
+		}
+
+		public long allocatedBytes() {
+			return allocatedBytes;
+		}
+
+		public long gcCount() {
+			return gcCount;
+		}
+
+		public long gcMillis() {
+			return gcMillis;
+		}
+
+		public Map<String, Long> counters() {
+			return counters;
+		}
+
+		public String toString() {
+			StringBuilder res = new StringBuilder();
+			long ops = operations();
+			res.append(String.format("%d ops in %.3f ms, %.0f ops/s%n", ops, nanos / 1e6, ops * 1e9 / Math.max(nanos, 1)));
+			for (int op = 1; op < OP_NAMES.length; op++) {
+				Histogram h = histograms[op];
+				if (h == null)
+					continue;
+				res.append(String.format("%-16s n=%d p50=%dns p99=%dns p999=%dns max=%dns%n", OP_NAMES[op], h.count(),
+						h.percentile(0.5), h.percentile(0.99), h.percentile(0.999), h.max()));
+			}
+			res.append(String.format("allocated=%d bytes, gc=%d collections in %d ms%n", allocatedBytes, gcCount, gcMillis));
+			res.append(counters);
+			return res.toString();
+		}
+	}
+
+	/**
+	 * public static class Histogram
+	 *
+	 * A histogram of non-negative values with a fixed relative precision, as in HdrHistogram: values below
+	 * 2 * SUB have their own buckets, and every range [2^e, 2^(e+1)) above them is split into SUB buckets,
+	 * so a value is reported within 1/SUB of itself. Recording is O(1) and allocates nothing.
+	 */
+	public static class Histogram {
+		private static final int SUB_BITS = 5;
+		private static final int SUB = 1 << SUB_BITS;
+		private final long[] counts = new long[SUB * (64 - SUB_BITS) + SUB];
+		private long count = 0;
+		private long max = 0;
+
+		public void record(long value) {
+			value = Math.max(value, 0);
+			counts[indexOf(value)]++;
+			count++;
+			max = Math.max(max, value);
+		}
+
+		public long count() {
+			return count;
+		}
+
+		public long max() {
+			return max;
+		}
+
+		/**
+		 * public void add(Histogram other)
+		 *
+		 * Adds the values recorded by other to this histogram, e.g. to combine the histograms of several
+		 * threads.
+		 */
+		public void add(Histogram other) {
+			for (int i = 0; i < counts.length; i++)
+				counts[i] += other.counts[i];
+			count += other.count;
+			max = Math.max(max, other.max);
+		}
+
+		/**
+		 * public long percentile(double q)
+		 *
+		 * Returns the highest value of the bucket of the q-quantile of the recorded values (at most max), or 0
+		 * if there are none.
+		 */
+		public long percentile(double q) {
+			long rank = (long) Math.ceil(q * count);
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= rank && counts[i] > 0)
+					return Math.min(highestOf(i), max);
+			}
+			return max;
+		}
+
+		private static int indexOf(long value) {
+			int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BITS);
+			return SUB * shift + (int) (value >>> shift);
+		}
+
+		private static long highestOf(int index) {
+			int shift = Math.max(0, index / SUB - 1);
+			long base = index - (long) SUB * shift;
+			return ((base + 1) << shift) - 1;
+		}
+	}
+}